@@ -0,0 +1,120 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Checks that the sensor event path, from accelerometer and magnetometer
+ * samples to the gravity and linear acceleration output, does not allocate.
+ * The bytes allocated by the current thread are counted with the HotSpot
+ * ThreadMXBean and the check exits with a non-zero status if any are seen.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class AllocationCheck
+{
+	private static final int WARMUP_EVENTS = 1000000;
+	private static final int EVENTS = 1000000;
+
+	private static float check;
+
+	public static void main(String[] args)
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		long thread = Thread.currentThread().getId();
+
+		TiltCompensationEngine engine = new TiltCompensationEngine();
+		engine.setOutputListener(new TiltCompensationEngine.OutputListener()
+		{
+			@Override
+			public void onOutput(long timestamp, float[] raw,
+					float[] gravity, float[] linearAcceleration)
+			{
+				check += linearAcceleration[0] + gravity[2];
+			}
+		});
+
+		float[] samples = new float[4096];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < samples.length; i++)
+		{
+			samples[i] = (float) (random.nextGaussian() * 2.0);
+		}
+
+		// Let the JIT compile the path before measuring.
+		run(engine, samples, 0, WARMUP_EVENTS);
+
+		// The cost of reading the counter itself.
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+		before = threads.getThreadAllocatedBytes(thread);
+
+		run(engine, samples, WARMUP_EVENTS, EVENTS);
+
+		long allocated = threads.getThreadAllocatedBytes(thread) - before
+				- overhead;
+
+		System.out.println(EVENTS + " events, " + allocated
+				+ " bytes allocated, " + ((double) allocated / EVENTS)
+				+ " bytes/event (checksum " + check + ")");
+
+		if (allocated > 0)
+		{
+			System.out.println("FAILED: the sensor event path allocates");
+			System.exit(1);
+		}
+
+		System.out.println("OK");
+	}
+
+	private static void run(TiltCompensationEngine engine, float[] samples,
+			int first, int events)
+	{
+		int mask = samples.length - 1;
+
+		for (int i = first; i < first + events; i++)
+		{
+			long timestamp = i * 5000000L;
+
+			float x = samples[(i * 3) & mask];
+			float y = samples[(i * 3 + 1) & mask];
+			float z = samples[(i * 3 + 2) & mask]
+					+ TiltCompensationEngine.GRAVITY_EARTH;
+
+			// Alternate accelerometer and magnetometer events.
+			if ((i & 1) == 0)
+			{
+				engine.onAccelerometer(timestamp, x, y, z);
+			}
+			else
+			{
+				engine.onMagneticField(timestamp, 20 + x, -5 + y, -40 + z);
+			}
+		}
+	}
+}
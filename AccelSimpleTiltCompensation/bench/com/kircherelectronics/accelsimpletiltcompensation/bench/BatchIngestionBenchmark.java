@@ -0,0 +1,355 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.SeparationKernels;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares feeding the TiltCompensationEngine one sample at a time with
+ * handing it batches of samples, as a sensor FIFO would deliver them. First
+ * checks that both give the same outputs bit for bit, then measures the cost
+ * per accelerometer sample for a few batch sizes. The accelerometer runs at
+ * 200 Hz and the magnetometer at 100 Hz.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class BatchIngestionBenchmark
+{
+	// The number of accelerometer samples in the stream.
+	private static final int SAMPLES = 1 << 14;
+
+	private static final long ACCEL_PERIOD = 5000000;
+	private static final long MAG_PERIOD = 10000000;
+
+	// The time the stream spans, added to the timestamps of each run.
+	private static final long SPAN = SAMPLES * ACCEL_PERIOD;
+
+	private static final int[] BATCH_SIZES =
+	{ 1, 16, 64, 256, 1024 };
+
+	private static long[] accelTimestamps = new long[SAMPLES];
+	private static float[] accelValues = new float[SAMPLES * 3];
+
+	private static int magCount = SAMPLES / 2;
+	private static long[] magTimestamps = new long[magCount];
+	private static float[] magValues = new float[magCount * 3];
+
+	/**
+	 * Feeds the stream a sample at a time and copies each output out of the
+	 * listener, as a caller wanting arrays would.
+	 */
+	private static class PerSample extends Benchmark implements
+			TiltCompensationEngine.OutputListener
+	{
+		private TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		private long[] timestamps = new long[SAMPLES + 16];
+		private float[] gravity = new float[timestamps.length * 3];
+		private float[] linearAcceleration = new float[timestamps.length * 3];
+		private int outputs;
+
+		private long base;
+
+		public PerSample()
+		{
+			super("per sample", "");
+
+			engine.setOutputListener(this);
+		}
+
+		@Override
+		protected void run(int operations)
+		{
+			outputs = 0;
+
+			int a = 0;
+			int m = 0;
+
+			while (a < SAMPLES || m < magCount)
+			{
+				if (m < magCount
+						&& (a == SAMPLES || magTimestamps[m] <= accelTimestamps[a]))
+				{
+					engine.onMagneticField(base + magTimestamps[m],
+							magValues[m * 3], magValues[m * 3 + 1],
+							magValues[m * 3 + 2]);
+					m++;
+				}
+				else
+				{
+					engine.onAccelerometer(base + accelTimestamps[a],
+							accelValues[a * 3], accelValues[a * 3 + 1],
+							accelValues[a * 3 + 2]);
+					a++;
+				}
+			}
+
+			base += SPAN;
+
+			sink += linearAcceleration[0];
+		}
+
+		@Override
+		public void onOutput(long timestamp, float[] raw, float[] gravity,
+				float[] linearAcceleration)
+		{
+			int j = outputs * 3;
+
+			timestamps[outputs] = timestamp;
+
+			System.arraycopy(gravity, 0, this.gravity, j, 3);
+			System.arraycopy(linearAcceleration, 0, this.linearAcceleration,
+					j, 3);
+
+			outputs++;
+		}
+
+		public int flush()
+		{
+			outputs = 0;
+			engine.flush();
+
+			return outputs;
+		}
+	}
+
+	/**
+	 * Feeds the stream in batches, each holding the magnetometer samples up
+	 * to the timestamp of its last accelerometer sample.
+	 */
+	private static class Batched extends Benchmark
+	{
+		private TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		private long[][] batchAccelTimestamps;
+		private float[][] batchAccelValues;
+		private int[] batchAccelCounts;
+
+		private long[][] batchMagTimestamps;
+		private float[][] batchMagValues;
+		private int[] batchMagCounts;
+
+		private long[] timestamps;
+		private float[] gravity;
+		private float[] linearAcceleration;
+
+		// The outputs of the last run, in one set of arrays.
+		private long[] allTimestamps = new long[SAMPLES + 16];
+		private float[] allGravity = new float[allTimestamps.length * 3];
+		private float[] allLinearAcceleration = new float[allTimestamps.length * 3];
+		private int outputs;
+
+		public Batched(int batchSize)
+		{
+			super("batch", Integer.toString(batchSize));
+
+			int batches = (SAMPLES + batchSize - 1) / batchSize;
+
+			batchAccelTimestamps = new long[batches][];
+			batchAccelValues = new float[batches][];
+			batchAccelCounts = new int[batches];
+
+			batchMagTimestamps = new long[batches][];
+			batchMagValues = new float[batches][];
+			batchMagCounts = new int[batches];
+
+			int m = 0;
+
+			for (int b = 0; b < batches; b++)
+			{
+				int first = b * batchSize;
+				int count = Math.min(batchSize, SAMPLES - first);
+
+				batchAccelTimestamps[b] = Arrays.copyOfRange(accelTimestamps,
+						first, first + count);
+				batchAccelValues[b] = Arrays.copyOfRange(accelValues,
+						first * 3, (first + count) * 3);
+				batchAccelCounts[b] = count;
+
+				// The last batch takes the rest of the magnetometer.
+				long end = (b == batches - 1) ? Long.MAX_VALUE
+						: accelTimestamps[first + count - 1];
+
+				int firstMag = m;
+
+				while (m < magCount && magTimestamps[m] <= end)
+				{
+					m++;
+				}
+
+				batchMagTimestamps[b] = Arrays.copyOfRange(magTimestamps,
+						firstMag, m);
+				batchMagValues[b] = Arrays.copyOfRange(magValues,
+						firstMag * 3, m * 3);
+				batchMagCounts[b] = m - firstMag;
+			}
+
+			int capacity = engine.getBatchCapacity(batchSize);
+
+			timestamps = new long[capacity];
+			gravity = new float[capacity * 3];
+			linearAcceleration = new float[capacity * 3];
+		}
+
+		@Override
+		protected void run(int operations)
+		{
+			outputs = 0;
+
+			for (int b = 0; b < batchAccelCounts.length; b++)
+			{
+				int n = engine.processBatch(batchAccelTimestamps[b],
+						batchAccelValues[b], batchAccelCounts[b],
+						batchMagTimestamps[b], batchMagValues[b],
+						batchMagCounts[b], timestamps, null, gravity,
+						linearAcceleration);
+
+				keep(n);
+			}
+
+			// Move the stream on for the next run.
+			for (int b = 0; b < batchAccelCounts.length; b++)
+			{
+				shift(batchAccelTimestamps[b]);
+				shift(batchMagTimestamps[b]);
+			}
+
+			sink += linearAcceleration[0];
+		}
+
+		public int flush()
+		{
+			outputs = 0;
+
+			keep(engine.flushBatch(timestamps, null, gravity,
+					linearAcceleration));
+
+			return outputs;
+		}
+
+		private void keep(int n)
+		{
+			System.arraycopy(timestamps, 0, allTimestamps, outputs, n);
+			System.arraycopy(gravity, 0, allGravity, outputs * 3, n * 3);
+			System.arraycopy(linearAcceleration, 0, allLinearAcceleration,
+					outputs * 3, n * 3);
+
+			outputs += n;
+		}
+
+		private static void shift(long[] timestamps)
+		{
+			for (int i = 0; i < timestamps.length; i++)
+			{
+				timestamps[i] += SPAN;
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES; i++)
+		{
+			// Mostly at rest, with occasional bursts of linear acceleration.
+			float shake = (i / 500) % 4 == 0 ? 3.0f : 0.05f;
+
+			accelTimestamps[i] = (i + 1) * ACCEL_PERIOD;
+
+			accelValues[i * 3] = (float) (random.nextGaussian() * shake);
+			accelValues[i * 3 + 1] = (float) (random.nextGaussian() * shake);
+			accelValues[i * 3 + 2] = TiltCompensationEngine.GRAVITY_EARTH
+					+ (float) (random.nextGaussian() * shake);
+		}
+
+		for (int i = 0; i < magCount; i++)
+		{
+			// Half way between two accelerometer samples.
+			magTimestamps[i] = i * MAG_PERIOD + ACCEL_PERIOD / 2;
+
+			magValues[i * 3] = 20 + (float) random.nextGaussian();
+			magValues[i * 3 + 1] = -5 + (float) random.nextGaussian();
+			magValues[i * 3 + 2] = -40 + (float) random.nextGaussian();
+		}
+
+		System.out.println("Kernel: " + SeparationKernels.getDefault().getName());
+
+		for (int batchSize : BATCH_SIZES)
+		{
+			if (!check(batchSize))
+			{
+				System.out.println("FAILED: batches of " + batchSize
+						+ " differ from single samples");
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK");
+
+		new PerSample().measure(SAMPLES);
+
+		for (int batchSize : BATCH_SIZES)
+		{
+			new Batched(batchSize).measure(SAMPLES);
+		}
+	}
+
+	/**
+	 * Run the stream twice through both paths, with the remaining samples
+	 * flushed at the end, and compare the outputs.
+	 */
+	private static boolean check(int batchSize)
+	{
+		PerSample single = new PerSample();
+		Batched batched = new Batched(batchSize);
+
+		for (int round = 0; round < 3; round++)
+		{
+			boolean flush = round == 2;
+
+			if (flush)
+			{
+				single.flush();
+				batched.flush();
+			}
+			else
+			{
+				single.run(SAMPLES);
+				batched.run(SAMPLES);
+			}
+
+			if (single.outputs != batched.outputs
+					|| !Arrays.equals(single.timestamps,
+							batched.allTimestamps)
+					|| !Arrays.equals(single.gravity, batched.allGravity)
+					|| !Arrays.equals(single.linearAcceleration,
+							batched.allLinearAcceleration))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
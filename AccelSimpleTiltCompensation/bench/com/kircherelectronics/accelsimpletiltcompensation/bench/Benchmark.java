@@ -0,0 +1,105 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.lang.management.ManagementFactory;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A small microbenchmark harness. A benchmark runs a batch of operations at a
+ * time; the harness warms it up, then times a number of batches and reports
+ * the best time per operation and the bytes allocated per operation, counted
+ * with the HotSpot ThreadMXBean.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public abstract class Benchmark
+{
+	private static final int WARMUP_BATCHES = 20;
+	private static final int MEASURED_BATCHES = 10;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	// Results are folded in here so the JIT can't discard the work.
+	protected static volatile float sink;
+
+	private String name;
+	private String params;
+
+	/**
+	 * Initialize a new Benchmark object.
+	 * 
+	 * @param name
+	 *            the name of the benchmark.
+	 * @param params
+	 *            a description of the parameters.
+	 */
+	protected Benchmark(String name, String params)
+	{
+		this.name = name;
+		this.params = params;
+	}
+
+	/**
+	 * Run a batch of operations.
+	 * 
+	 * @param operations
+	 *            the number of operations.
+	 */
+	protected abstract void run(int operations);
+
+	/**
+	 * Warm up and measure the benchmark, and print the result.
+	 * 
+	 * @param operations
+	 *            the number of operations in each batch.
+	 */
+	public void measure(int operations)
+	{
+		for (int i = 0; i < WARMUP_BATCHES; i++)
+		{
+			run(operations);
+		}
+
+		long thread = Thread.currentThread().getId();
+
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+
+		for (int i = 0; i < MEASURED_BATCHES; i++)
+		{
+			long bytes = THREADS.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+
+			run(operations);
+
+			long ns = System.nanoTime() - start;
+
+			allocated += THREADS.getThreadAllocatedBytes(thread) - bytes;
+			best = Math.min(best, ns);
+		}
+
+		double nsPerOp = (double) best / operations;
+		double bytesPerOp = (double) allocated
+				/ ((long) operations * MEASURED_BATCHES);
+
+		System.out.println(String.format("%-32s %-24s %12.2f ns/op %10.2f B/op",
+				name, params, nsPerOp, bytesPerOp));
+	}
+}
@@ -0,0 +1,186 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.DecimatingMeanFilter;
+import com.kircherelectronics.accelsimpletiltcompensation.MeanFilter;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the DecimatingMeanFilter with the plain MeanFilter over long
+ * windows: the cost per input sample, and how far the output is from the
+ * mean filter, cascaded once per stage, at the end of each block.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class DecimatingMeanFilterBenchmark
+{
+	// The number of operations in each batch.
+	private static final int OPERATIONS = 100000;
+
+	private static final int[] WINDOWS =
+	{ 100, 1000, 10000 };
+
+	// A noisy magnitude, a power of two samples.
+	private static final float[] SAMPLES = new float[1 << 14];
+
+	private static final int MASK = SAMPLES.length - 1;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES.length; i++)
+		{
+			SAMPLES[i] = 1 + (float) (random.nextGaussian() * 0.05);
+		}
+
+		for (int window : WINDOWS)
+		{
+			mean(window).measure(OPERATIONS);
+
+			decimating(window, 1).measure(OPERATIONS);
+
+			// Three stages spanning about the same window.
+			decimating((window - 1) / 3 + 1, 3).measure(OPERATIONS);
+		}
+
+		for (int window : WINDOWS)
+		{
+			compare(window, 1);
+		}
+
+		for (int window : WINDOWS)
+		{
+			compare((window - 1) / 3 + 1, 3);
+		}
+	}
+
+	/**
+	 * One sample through the mean filter.
+	 */
+	private static Benchmark mean(int window)
+	{
+		final MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		return new Benchmark("MeanFilter.filterFloat", "window=" + window)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					s += filter.filterFloat(SAMPLES[i++ & MASK]);
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * One sample through the decimating filter.
+	 */
+	private static Benchmark decimating(int decimation, int stages)
+	{
+		final DecimatingMeanFilter filter = new DecimatingMeanFilter(
+				decimation, stages);
+
+		return new Benchmark("DecimatingMeanFilter.filterFloat", "decimation="
+				+ decimation + ",stages=" + stages)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					if (filter.filterFloat(SAMPLES[i++ & MASK]))
+					{
+						s += filter.getOutput();
+					}
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * Print the largest difference between the output and a cascade of one
+	 * mean filter per stage at the end of each block, and the state each
+	 * keeps. The blocks before the cascade has filled are left out, as the
+	 * mean filters only average the samples they have where the decimating
+	 * filter is primed with the first.
+	 */
+	private static void compare(int decimation, int stages)
+	{
+		MeanFilter[] means = new MeanFilter[stages];
+
+		for (int i = 0; i < stages; i++)
+		{
+			means[i] = new MeanFilter();
+			means[i].setWindowSize(decimation);
+		}
+
+		DecimatingMeanFilter decimating = new DecimatingMeanFilter(
+				decimation, stages);
+
+		int samples = decimation * 100;
+
+		double error = 0;
+		int outputs = 0;
+
+		for (int n = 0; n < samples; n++)
+		{
+			double expected = SAMPLES[n & MASK];
+
+			for (int i = 0; i < stages; i++)
+			{
+				expected = means[i].filterDouble(expected);
+			}
+
+			if (decimating.filterFloat(SAMPLES[n & MASK]))
+			{
+				if (n >= stages * decimation)
+				{
+					error = Math.max(error,
+							Math.abs(expected - decimating.getOutput()));
+				}
+
+				outputs++;
+			}
+		}
+
+		System.out.println(String.format(
+				"decimation=%d,stages=%d: %d outputs for %d samples,"
+						+ " max difference %.3g, state %d bytes vs %d bytes",
+				decimation, stages, outputs, samples, error, stages
+						* decimation * 8, stages * 24));
+	}
+}
@@ -0,0 +1,221 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import com.kircherelectronics.accelsimpletiltcompensation.DiagnosticRing;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the cost of building the old per-event debug log lines with
+ * recording the same state in a DiagnosticRing, sampled in a few ways, and
+ * measures taking a snapshot of a full ring. First checks that snapshots
+ * taken while another thread writes only hold whole, consecutive records.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class DiagnosticRingBenchmark
+{
+	private static final int OPERATIONS = 1 << 16;
+
+	private static final int CAPACITY = 1024;
+
+	private static final int CHECK_SNAPSHOTS = 2000;
+
+	private static float[] magnitudes = new float[OPERATIONS];
+	private static float[] gravity =
+	{ 0.1f, 0.2f, 9.8f };
+
+	/**
+	 * Offers the state of one sample to a ring.
+	 */
+	private static class Sample extends Benchmark
+	{
+		private DiagnosticRing ring;
+
+		private long timestamp;
+
+		public Sample(String params, int interval, boolean transitions)
+		{
+			super("ring sample", params);
+
+			ring = new DiagnosticRing(CAPACITY, interval, transitions);
+		}
+
+		@Override
+		protected void run(int operations)
+		{
+			for (int i = 0; i < operations; i++)
+			{
+				float magnitude = magnitudes[i];
+
+				// At rest for stretches of a few hundred samples.
+				boolean atRest = (i & 256) == 0;
+
+				ring.sample(timestamp += 5000000, magnitude, 1.05, i & 255,
+						atRest, gravity);
+			}
+
+			sink += ring.getRecorded();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			magnitudes[i] = 1 + (float) Math.sin(i * 0.01) * 0.1f;
+		}
+
+		if (!check())
+		{
+			System.out.println("FAILED: a snapshot held torn or missing records");
+			System.exit(1);
+		}
+
+		System.out.println("OK");
+
+		new Benchmark("log strings", "")
+		{
+			@Override
+			protected void run(int operations)
+			{
+				int length = 0;
+
+				for (int i = 0; i < operations; i++)
+				{
+					// What the DEBUG logging built for each magnetometer
+					// sample.
+					length += ("Mag: " + Double.toString(magnitudes[i]))
+							.length();
+					length += ("Thresh: " + Double.toString(1.05)).length();
+				}
+
+				sink += length;
+			}
+		}.measure(OPERATIONS);
+
+		new Sample("every sample", 1, false).measure(OPERATIONS);
+		new Sample("every 16th + transitions", 16, true).measure(OPERATIONS);
+		new Sample("transitions", 0, true).measure(OPERATIONS);
+
+		final DiagnosticRing full = new DiagnosticRing(CAPACITY, 1, false);
+
+		for (int i = 0; i < CAPACITY; i++)
+		{
+			full.sample(i, magnitudes[i], 1.05, i, false, gravity);
+		}
+
+		new Benchmark("snapshot", CAPACITY + " records")
+		{
+			@Override
+			protected void run(int operations)
+			{
+				for (int i = 0; i < operations; i++)
+				{
+					sink += full.snapshot().size();
+				}
+			}
+		}.measure(64);
+	}
+
+	/**
+	 * Take snapshots while another thread writes records whose fields are
+	 * all derived from a sequence number, and check each record and the
+	 * order.
+	 */
+	private static boolean check() throws InterruptedException
+	{
+		final DiagnosticRing ring = new DiagnosticRing(64, 1, false);
+
+		final long[] written = new long[1];
+		final boolean[] done = new boolean[1];
+
+		Thread writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long n = 0;
+
+				while (!isDone())
+				{
+					ring.record(DiagnosticRing.KIND_SAMPLE, n, (int) n, n,
+							-n, (n & 1) == 0, n, n + 1, n + 2);
+					n++;
+				}
+
+				written[0] = n;
+			}
+
+			private boolean isDone()
+			{
+				synchronized (done)
+				{
+					return done[0];
+				}
+			}
+		});
+
+		writer.start();
+
+		boolean ok = true;
+		long records = 0;
+
+		float[] g = new float[3];
+
+		for (int s = 0; s < CHECK_SNAPSHOTS && ok; s++)
+		{
+			DiagnosticRing.Snapshot snapshot = ring.snapshot();
+
+			for (int i = 0; i < snapshot.size(); i++)
+			{
+				long n = snapshot.getTimestamp(i);
+
+				snapshot.getGravity(i, g);
+
+				if (n != snapshot.getLost() + i || snapshot.getCount(i) != (int) n
+						|| snapshot.getMagnitude(i) != (float) n
+						|| snapshot.getThreshold(i) != (float) -n
+						|| snapshot.isAtRest(i) != ((n & 1) == 0)
+						|| g[0] != (float) n || g[1] != (float) (n + 1)
+						|| g[2] != (float) (n + 2))
+				{
+					ok = false;
+					break;
+				}
+			}
+
+			records += snapshot.size();
+
+			// Let the writer run on a single core.
+			Thread.yield();
+		}
+
+		synchronized (done)
+		{
+			done[0] = true;
+		}
+
+		writer.join();
+
+		System.out.println(CHECK_SNAPSHOTS + " snapshots of " + records
+				+ " records while " + written[0] + " were written");
+
+		return ok;
+	}
+}
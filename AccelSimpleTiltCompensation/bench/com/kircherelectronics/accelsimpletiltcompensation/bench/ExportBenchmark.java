@@ -0,0 +1,186 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import com.kircherelectronics.accelsimpletiltcompensation.OutputExporter;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Runs the TiltCompensationEngine at full speed with its output exported, in
+ * each format and for a few buffer sizes and sync intervals, and reports the
+ * cost per output and the bytes allocated on the engine thread, and how many
+ * outputs the writer could not keep up with. It runs once flat out, which
+ * outproduces any writer, and once paced at a rate still far above that of
+ * the sensors, in bursts as a sensor FIFO would deliver them.
+ * 
+ * Usage: ExportBenchmark [directory]
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class ExportBenchmark
+{
+	private static final int WARMUP_EVENTS = 1000000;
+	private static final int EVENTS = 2000000;
+
+	// The paced runs produce this many outputs a second, in bursts.
+	private static final int PACED_RATE = 100000;
+	private static final int PACED_EVENTS = 2 * PACED_RATE;
+	private static final int BURST_EVENTS = 64;
+
+	public static void main(String[] args) throws Exception
+	{
+		File dir = new File(args.length > 0 ? args[0]
+				: System.getProperty("java.io.tmpdir"));
+
+		float[] samples = new float[4096];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < samples.length; i++)
+		{
+			samples[i] = (float) (random.nextGaussian() * 2.0);
+		}
+
+		int[] formats =
+		{ OutputExporter.FORMAT_BINARY, OutputExporter.FORMAT_CSV };
+		int[] buffers =
+		{ OutputExporter.DEFAULT_BUFFER_SIZE,
+				OutputExporter.DEFAULT_BUFFER_SIZE * 16 };
+		long[] syncIntervals =
+		{ -1, OutputExporter.DEFAULT_SYNC_INTERVAL, 0 };
+
+		// Let the JIT compile both formats before measuring.
+		for (int format : formats)
+		{
+			run(dir, samples, format, OutputExporter.DEFAULT_BUFFER_SIZE, -1,
+					WARMUP_EVENTS, 0, false);
+		}
+
+		int[] rates =
+		{ 0, PACED_RATE };
+
+		for (int rate : rates)
+		{
+			System.out.println(rate == 0 ? "Flat out:" : "Paced at " + rate
+					+ " outputs/s:");
+
+			for (int format : formats)
+			{
+				for (int buffer : buffers)
+				{
+					for (long syncInterval : syncIntervals)
+					{
+						run(dir, samples, format, buffer, syncInterval,
+								rate == 0 ? EVENTS : PACED_EVENTS, rate, true);
+					}
+				}
+			}
+		}
+	}
+
+	private static void run(File dir, float[] samples, int format,
+			int bufferSize, long syncInterval, int events, int rate,
+			boolean report) throws Exception
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		long thread = Thread.currentThread().getId();
+
+		File path = new File(dir, "export-benchmark"
+				+ (format == OutputExporter.FORMAT_CSV ? ".csv" : ".bin"));
+
+		OutputExporter exporter = new OutputExporter(path, format,
+				bufferSize, syncInterval);
+
+		TiltCompensationEngine engine = new TiltCompensationEngine();
+		engine.setOutputListener(exporter);
+
+		int mask = samples.length - 1;
+
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+
+		// The time spent waiting for the next burst.
+		long paused = 0;
+
+		for (int i = 0; i < events; i++)
+		{
+			if (rate > 0 && i % BURST_EVENTS == 0)
+			{
+				// Two events make an output.
+				long due = start + (long) (i / 2 * (1e9 / rate));
+				long now = System.nanoTime();
+
+				while (now < due)
+				{
+					LockSupport.parkNanos(due - now);
+
+					long woken = System.nanoTime();
+					paused += woken - now;
+					now = woken;
+				}
+			}
+
+			long timestamp = i * 5000000L;
+
+			float x = samples[(i * 3) & mask];
+			float y = samples[(i * 3 + 1) & mask];
+			float z = samples[(i * 3 + 2) & mask]
+					+ TiltCompensationEngine.GRAVITY_EARTH;
+
+			// Alternate accelerometer and magnetometer events.
+			if ((i & 1) == 0)
+			{
+				engine.onAccelerometer(timestamp, x, y, z);
+			}
+			else
+			{
+				engine.onMagneticField(timestamp, 20 + x, -5 + y, -40 + z);
+			}
+		}
+
+		long ns = System.nanoTime() - start - paused;
+		long allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		exporter.close();
+
+		long outputs = exporter.getExported() + exporter.getDropped();
+		path.delete();
+
+		if (!report)
+		{
+			return;
+		}
+
+		System.out.println(String.format(
+				"%-6s %8d B %6d ms sync %8.2f ns/output %6.2f B/output"
+						+ " %6.2f%% dropped %10d bytes %5d syncs",
+				format == OutputExporter.FORMAT_CSV ? "csv" : "binary",
+				bufferSize, syncInterval, (double) ns / outputs,
+				(double) allocated / outputs, 100.0 * exporter.getDropped()
+						/ outputs, exporter.getBytesWritten(),
+				exporter.getSyncs()));
+	}
+}
@@ -0,0 +1,147 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.GravityEstimator;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationConfig;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the cost per sample of the gravity estimators, on their own and
+ * as part of the whole engine, from the accelerometer and magnetometer
+ * samples to the output.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class GravityEstimatorBenchmark
+{
+	private static final String[] NAMES =
+	{ "threshold", "low-pass", "biquad", "complementary" };
+
+	// The number of operations in each batch.
+	private static final int OPERATIONS = 100000;
+
+	// A noisy device at rest, 3 floats per sample, a power of two samples.
+	private static final float[] SAMPLES = new float[3 << 14];
+
+	private static final int MASK = (1 << 14) - 1;
+
+	// The sample period in seconds, 200 Hz.
+	private static final float DT = 0.005f;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES.length; i += 3)
+		{
+			SAMPLES[i] = (float) (random.nextGaussian() * 0.05);
+			SAMPLES[i + 1] = (float) (random.nextGaussian() * 0.05);
+			SAMPLES[i + 2] = TiltCompensationEngine.GRAVITY_EARTH
+					+ (float) (random.nextGaussian() * 0.05);
+		}
+
+		for (int kind = 0; kind < TiltCompensationConfig.GRAVITY_ESTIMATORS; kind++)
+		{
+			estimator(kind).measure(OPERATIONS);
+		}
+
+		for (int kind = 0; kind < TiltCompensationConfig.GRAVITY_ESTIMATORS; kind++)
+		{
+			engine(kind).measure(OPERATIONS);
+		}
+	}
+
+	/**
+	 * One update of an estimator on its own.
+	 */
+	private static Benchmark estimator(int kind)
+	{
+		final GravityEstimator estimator = new TiltCompensationEngine()
+				.getGravityEstimator(kind);
+
+		final float[] gravity = new float[3];
+
+		return new Benchmark("GravityEstimator.update", NAMES[kind])
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n++)
+				{
+					int j = (i++ & MASK) * 3;
+
+					float ax = SAMPLES[j];
+					float ay = SAMPLES[j + 1];
+					float az = SAMPLES[j + 2];
+
+					float magnitude = (float) (Math.sqrt(ax * ax + ay * ay + az
+							* az) / TiltCompensationEngine.GRAVITY_EARTH);
+
+					estimator.update(ax, ay, az, DT, magnitude, (n & 7) != 0,
+							gravity);
+				}
+
+				sink = gravity[2];
+			}
+		};
+	}
+
+	/**
+	 * One accelerometer sample through the engine, with a magnetometer
+	 * sample for every other one.
+	 */
+	private static Benchmark engine(int kind)
+	{
+		final TiltCompensationEngine engine = new TiltCompensationEngine();
+		engine.setConfig(TiltCompensationConfig.DEFAULT
+				.withGravityEstimator(kind));
+
+		return new Benchmark("TiltCompensationEngine", NAMES[kind])
+		{
+			private int i;
+			private long timestamp;
+
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n++)
+				{
+					int j = (i++ & MASK) * 3;
+
+					timestamp += 5000000;
+
+					engine.onAccelerometer(timestamp, SAMPLES[j],
+							SAMPLES[j + 1], SAMPLES[j + 2]);
+
+					if ((n & 1) == 0)
+					{
+						engine.onMagneticField(timestamp, 20, -5, -40);
+					}
+				}
+
+				sink = engine.getGravity()[2];
+			}
+		};
+	}
+}
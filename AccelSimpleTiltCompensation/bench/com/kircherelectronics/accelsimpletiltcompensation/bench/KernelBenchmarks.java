@@ -0,0 +1,363 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.FloatRingBuffer;
+import com.kircherelectronics.accelsimpletiltcompensation.MeanFilter;
+import com.kircherelectronics.accelsimpletiltcompensation.MedianFilter;
+import com.kircherelectronics.accelsimpletiltcompensation.MinMaxDownsampler;
+import com.kircherelectronics.accelsimpletiltcompensation.PipelineLatency;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Microbenchmarks for the kernels on the sensor path: the MeanFilter
+ * overloads across window sizes and channel counts, the MedianFilter, the
+ * magnitude and adaptive threshold update in the TiltCompensationEngine, and
+ * the plot history maintenance in PlotView. Each result is the time and the
+ * bytes allocated per operation.
+ * 
+ * First checks that the Hampel filter leaves a quantized signal at rest alone
+ * and still catches a spike in it, and exits with a non-zero status if not.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class KernelBenchmarks
+{
+	private static final int[] WINDOW_SIZES =
+	{ 10, 100, 1000, 10000 };
+
+	private static final int[] CHANNELS =
+	{ 1, 3, 9 };
+
+	// The number of operations in each batch.
+	private static final int OPERATIONS = 100000;
+
+	// Random samples to feed the kernels, a power of two in length.
+	private static final float[] SAMPLES = new float[1 << 14];
+
+	private static final int MASK = SAMPLES.length - 1;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES.length; i++)
+		{
+			SAMPLES[i] = (float) (random.nextGaussian() * 2.0);
+		}
+
+		if (!checkHampel())
+		{
+			System.exit(1);
+		}
+
+		for (int window : WINDOW_SIZES)
+		{
+			meanFilterFloat(window).measure(OPERATIONS);
+			meanFilterDouble(window).measure(OPERATIONS);
+
+			for (int channels : CHANNELS)
+			{
+				meanFilterFrame(window, channels).measure(OPERATIONS);
+				meanFilterBlock(window, channels).measure(OPERATIONS);
+			}
+		}
+
+		for (int window : WINDOW_SIZES)
+		{
+			medianFilter(window, false).measure(OPERATIONS);
+			medianFilter(window, true).measure(OPERATIONS);
+		}
+
+		engineProcess(false).measure(OPERATIONS);
+		engineProcess(true).measure(OPERATIONS);
+
+		for (int window : WINDOW_SIZES)
+		{
+			plotHistory(window, 200).measure(OPERATIONS);
+		}
+	}
+
+	/**
+	 * MeanFilter.filterFloat(float), one sample per operation.
+	 */
+	private static Benchmark meanFilterFloat(int window)
+	{
+		final MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		return new Benchmark("MeanFilter.filterFloat", "window=" + window)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					s += filter.filterFloat(SAMPLES[i++ & MASK]);
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * MeanFilter.filterDouble(double), one sample per operation.
+	 */
+	private static Benchmark meanFilterDouble(int window)
+	{
+		final MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		return new Benchmark("MeanFilter.filterDouble", "window=" + window)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				double s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					s += filter.filterDouble(SAMPLES[i++ & MASK]);
+				}
+
+				sink = (float) s;
+			}
+		};
+	}
+
+	/**
+	 * MeanFilter.filterFloat(float[]), one frame per operation.
+	 */
+	private static Benchmark meanFilterFrame(int window, final int channels)
+	{
+		final MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		final float[] frame = new float[channels];
+
+		return new Benchmark("MeanFilter.filterFloat[]", "window=" + window
+				+ " channels=" + channels)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					for (int c = 0; c < channels; c++)
+					{
+						frame[c] = SAMPLES[i++ & MASK];
+					}
+
+					s += filter.filterFloat(frame)[0];
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * The MeanFilter block overload, one frame per operation.
+	 */
+	private static Benchmark meanFilterBlock(int window, final int channels)
+	{
+		final MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		final int frames = SAMPLES.length / channels;
+		final float[] out = new float[frames * channels];
+
+		return new Benchmark("MeanFilter.filterFloat block", "window="
+				+ window + " channels=" + channels)
+		{
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n += frames)
+				{
+					int count = Math.min(frames, operations - n);
+
+					filter.filterFloat(SAMPLES, 0, count, channels, out, 0);
+				}
+
+				sink = out[0];
+			}
+		};
+	}
+
+	/**
+	 * Feed the Hampel filter a resting magnitude that only moves by one step
+	 * of quantization, so the interquartile range of its window is zero, then
+	 * a spike.
+	 * 
+	 * @return false if a step was taken for an outlier or the spike was not.
+	 */
+	private static boolean checkHampel()
+	{
+		MedianFilter filter = new MedianFilter();
+		filter.setWindowSize(21);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			filter.hampelDouble((i % 10 == 0) ? 1.0001 : 1.0);
+		}
+
+		long steps = filter.getOutlierCount();
+
+		filter.hampelDouble(1.5);
+
+		if (steps != 0 || !filter.isOutlier())
+		{
+			System.out.println("FAILED: Hampel filter flagged " + steps
+					+ " of 1000 quantization steps, spike "
+					+ (filter.isOutlier() ? "flagged" : "missed"));
+			return false;
+		}
+
+		System.out.println("OK: Hampel filter");
+
+		return true;
+	}
+
+	/**
+	 * MedianFilter.filterFloat(float) or hampelFloat(float), one sample per
+	 * operation.
+	 */
+	private static Benchmark medianFilter(int window, final boolean hampel)
+	{
+		final MedianFilter filter = new MedianFilter();
+		filter.setWindowSize(window);
+
+		return new Benchmark(hampel ? "MedianFilter.hampelFloat"
+				: "MedianFilter.filterFloat", "window=" + window)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					float value = SAMPLES[i++ & MASK];
+
+					s += hampel ? filter.hampelFloat(value) : filter
+							.filterFloat(value);
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * The magnitude, adaptive threshold and gravity update for one sample,
+	 * optionally recording the latency of each stage.
+	 */
+	private static Benchmark engineProcess(boolean latency)
+	{
+		final TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		if (latency)
+		{
+			engine.setLatency(new PipelineLatency());
+		}
+
+		return new Benchmark("TiltCompensationEngine.process", "latency="
+				+ latency)
+		{
+			private int i;
+			private long timestamp;
+
+			@Override
+			protected void run(int operations)
+			{
+				float s = 0;
+
+				for (int n = 0; n < operations; n++)
+				{
+					timestamp += 5000000;
+
+					engine.process(timestamp, SAMPLES[i & MASK],
+							SAMPLES[(i + 1) & MASK],
+							TiltCompensationEngine.GRAVITY_EARTH
+									+ SAMPLES[(i + 2) & MASK], 20, -5, -40);
+
+					i += 3;
+
+					s += engine.getThreshold();
+				}
+
+				sink = s;
+			}
+		};
+	}
+
+	/**
+	 * The PlotView history maintenance for one sample of all nine series,
+	 * sized the way PlotView sizes it for a window and point budget.
+	 */
+	private static Benchmark plotHistory(int window, int pointBudget)
+	{
+		int bucketSize = MinMaxDownsampler.bucketSizeFor(window, pointBudget);
+
+		final FloatRingBuffer history = new FloatRingBuffer(9,
+				MinMaxDownsampler.outputSizeFor(window, bucketSize));
+		final MinMaxDownsampler downsampler = new MinMaxDownsampler(history,
+				bucketSize);
+
+		final float[] frame = new float[9];
+
+		return new Benchmark("PlotView history", "window=" + window
+				+ " budget=" + pointBudget)
+		{
+			private int i;
+
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n++)
+				{
+					for (int c = 0; c < frame.length; c++)
+					{
+						frame[c] = SAMPLES[i++ & MASK];
+					}
+
+					downsampler.add(frame);
+				}
+
+				sink = history.get(0, 0);
+			}
+		};
+	}
+}
@@ -0,0 +1,95 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.MeanFilter;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the throughput of the MeanFilter block API against calling the
+ * per-frame overload in a loop, in samples per second.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class MeanFilterBenchmark
+{
+	private static final int FRAMES = 1 << 16;
+	private static final int CHANNELS = 3;
+	private static final int WINDOW = 20;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args)
+	{
+		float[] in = new float[FRAMES * CHANNELS];
+		float[] out = new float[FRAMES * CHANNELS];
+		float[] frame = new float[CHANNELS];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < in.length; i++)
+		{
+			in[i] = (float) (random.nextGaussian() * 9.8);
+		}
+
+		MeanFilter perFrame = new MeanFilter();
+		perFrame.setWindowSize(WINDOW);
+
+		MeanFilter block = new MeanFilter();
+		block.setWindowSize(WINDOW);
+
+		float check = 0;
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+
+			for (int f = 0; f < FRAMES; f++)
+			{
+				System.arraycopy(in, f * CHANNELS, frame, 0, CHANNELS);
+
+				float[] means = perFrame.filterFloat(frame);
+
+				check += means[0];
+			}
+
+			long perFrameNs = System.nanoTime() - start;
+
+			start = System.nanoTime();
+
+			block.filterFloat(in, 0, FRAMES, CHANNELS, out, 0);
+
+			long blockNs = System.nanoTime() - start;
+
+			check += out[0];
+
+			System.out.println("round " + round + ": per-frame "
+					+ samplesPerSecond(perFrameNs) + " samples/s, block "
+					+ samplesPerSecond(blockNs) + " samples/s");
+		}
+
+		// Keep the JIT from discarding the per-frame results.
+		System.out.println("checksum " + check);
+	}
+
+	private static long samplesPerSecond(long ns)
+	{
+		return (long) ((double) FRAMES * CHANNELS * 1e9 / ns);
+	}
+}
@@ -0,0 +1,273 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.SeparationKernel;
+import com.kircherelectronics.accelsimpletiltcompensation.SeparationKernels;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Checks that the SeparationKernel selected for this JVM gives results
+ * identical to the scalar reference, then compares their cost per sample.
+ * Exits with a non-zero status if any result differs, or if the SIMD kernel
+ * is on the class path but could not be used although the hardware has lanes
+ * for it.
+ * 
+ * To include the SIMD kernel, build the simd folder and run with
+ * --add-modules jdk.incubator.vector; see the README. Run it again with
+ * -XX:MaxVectorSize=16 to check the kernel on 128-bit lanes.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class SeparationKernelBenchmark
+{
+	private static final String VECTOR_KERNEL = "com.kircherelectronics.accelsimpletiltcompensation.VectorSeparationKernel";
+
+	// A class of the jdk.incubator.vector module.
+	private static final String VECTOR_API = "jdk.incubator.vector.FloatVector";
+	// The number of samples in a batch.
+	private static final int BATCH = 4096;
+
+	// The number of samples in each measured run.
+	private static final int OPERATIONS = BATCH * 64;
+
+	private static float[] x = new float[BATCH];
+	private static float[] y = new float[BATCH];
+	private static float[] z = new float[BATCH];
+
+	private static float[] gx = new float[BATCH];
+	private static float[] gy = new float[BATCH];
+	private static float[] gz = new float[BATCH];
+
+	public static void main(String[] args)
+	{
+		SeparationKernel scalar = SeparationKernels.getScalar();
+		SeparationKernel selected = SeparationKernels.getDefault();
+
+		System.out.println("Selected kernel: " + selected.getName());
+
+		if (selected == scalar && !checkFallback())
+		{
+			System.exit(1);
+		}
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < BATCH; i++)
+		{
+			x[i] = (float) (random.nextGaussian() * 3);
+			y[i] = (float) (random.nextGaussian() * 3);
+			z[i] = TiltCompensationEngine.GRAVITY_EARTH
+					+ (float) (random.nextGaussian() * 3);
+
+			gx[i] = (float) random.nextGaussian();
+			gy[i] = (float) random.nextGaussian();
+			gz[i] = TiltCompensationEngine.GRAVITY_EARTH;
+		}
+
+		// Odd offsets and lengths exercise the tails.
+		if (!check(scalar, selected, 0, BATCH)
+				|| !check(scalar, selected, 3, BATCH - 10))
+		{
+			System.out.println("FAILED: " + selected.getName()
+					+ " differs from the scalar reference");
+			System.exit(1);
+		}
+
+		System.out.println("OK");
+
+		measure(scalar);
+
+		if (selected != scalar)
+		{
+			measure(selected);
+		}
+	}
+
+	/**
+	 * Check why the scalar kernel was selected. It should only be because
+	 * the SIMD kernel is not on the class path, the Vector API is missing or
+	 * the hardware has no lanes worth using.
+	 * 
+	 * @return false if the SIMD kernel failed for any other reason.
+	 */
+	private static boolean checkFallback()
+	{
+		ClassLoader loader = SeparationKernelBenchmark.class.getClassLoader();
+
+		try
+		{
+			// Only look the classes up, the kernel may already have failed
+			// to initialize.
+			Class.forName(VECTOR_KERNEL, false, loader);
+			Class.forName(VECTOR_API, false, loader);
+		}
+		catch (ClassNotFoundException e)
+		{
+			return true;
+		}
+
+		try
+		{
+			Class.forName(VECTOR_KERNEL).getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (InvocationTargetException e)
+		{
+			if (e.getCause() instanceof UnsupportedOperationException)
+			{
+				System.out.println("No SIMD lanes: " + e.getCause());
+				return true;
+			}
+
+			System.out.println("FAILED: the SIMD kernel could not be created: "
+					+ e.getCause());
+			return false;
+		}
+		catch (Throwable e)
+		{
+			System.out.println("FAILED: the SIMD kernel could not be created: "
+					+ e);
+			return false;
+		}
+
+		System.out.println("FAILED: the SIMD kernel works but was not selected");
+		return false;
+	}
+
+	/**
+	 * Compare the results of two kernels bit for bit.
+	 */
+	private static boolean check(SeparationKernel a, SeparationKernel b,
+			int offset, int length)
+	{
+		float[] ma = new float[BATCH];
+		float[] mb = new float[BATCH];
+
+		a.magnitudes(x, y, z, ma, offset, length);
+		b.magnitudes(x, y, z, mb, offset, length);
+
+		// Check the band with a top right at a magnitude as well as one that
+		// isn't a float.
+		if (!checkBand(a, b, ma, ma[offset + length / 2], offset, length)
+				|| !checkBand(a, b, ma, 1.05, offset, length))
+		{
+			return false;
+		}
+
+		float[] la = new float[BATCH * 3];
+		float[] lb = new float[BATCH * 3];
+
+		subtract(a, la, offset, length);
+		subtract(b, lb, offset, length);
+
+		return Arrays.equals(ma, mb) && Arrays.equals(la, lb);
+	}
+
+	/**
+	 * Compare the band check of two kernels.
+	 */
+	private static boolean checkBand(SeparationKernel a, SeparationKernel b,
+			float[] magnitude, double high, int offset, int length)
+	{
+		boolean[] ba = new boolean[BATCH];
+		boolean[] bb = new boolean[BATCH];
+
+		a.band(magnitude, 0.95, high, ba, offset, length);
+		b.band(magnitude, 0.95, high, bb, offset, length);
+
+		return Arrays.equals(ba, bb);
+	}
+
+	/**
+	 * Subtract into the three thirds of one array.
+	 */
+	private static void subtract(SeparationKernel kernel, float[] out,
+			int offset, int length)
+	{
+		float[] lx = new float[BATCH];
+		float[] ly = new float[BATCH];
+		float[] lz = new float[BATCH];
+
+		kernel.subtract(x, y, z, gx, gy, gz, lx, ly, lz, offset, length);
+
+		System.arraycopy(lx, 0, out, 0, BATCH);
+		System.arraycopy(ly, 0, out, BATCH, BATCH);
+		System.arraycopy(lz, 0, out, BATCH * 2, BATCH);
+	}
+
+	/**
+	 * Measure each step of a kernel.
+	 */
+	private static void measure(final SeparationKernel kernel)
+	{
+		final float[] magnitude = new float[BATCH];
+		final boolean[] inBand = new boolean[BATCH];
+
+		final float[] lx = new float[BATCH];
+		final float[] ly = new float[BATCH];
+		final float[] lz = new float[BATCH];
+
+		new Benchmark("SeparationKernel.magnitudes", kernel.getName())
+		{
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n += BATCH)
+				{
+					kernel.magnitudes(x, y, z, magnitude, 0, BATCH);
+				}
+
+				sink = magnitude[0];
+			}
+		}.measure(OPERATIONS);
+
+		new Benchmark("SeparationKernel.band", kernel.getName())
+		{
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n += BATCH)
+				{
+					kernel.band(magnitude, 0.95, 1.05, inBand, 0, BATCH);
+				}
+
+				sink = inBand[0] ? 1 : 0;
+			}
+		}.measure(OPERATIONS);
+
+		new Benchmark("SeparationKernel.subtract", kernel.getName())
+		{
+			@Override
+			protected void run(int operations)
+			{
+				for (int n = 0; n < operations; n += BATCH)
+				{
+					kernel.subtract(x, y, z, gx, gy, gz, lx, ly, lz, 0, BATCH);
+				}
+
+				sink = lx[0];
+			}
+		}.measure(OPERATIONS);
+	}
+}
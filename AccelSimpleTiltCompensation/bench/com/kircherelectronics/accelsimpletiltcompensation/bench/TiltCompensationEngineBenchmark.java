@@ -0,0 +1,87 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures the throughput of the TiltCompensationEngine over a synthetic
+ * stream, in samples per second on a single core.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class TiltCompensationEngineBenchmark
+{
+	private static final int SAMPLES = 1 << 16;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args)
+	{
+		float[] accel = new float[SAMPLES * 3];
+		float[] mag = new float[SAMPLES * 3];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES; i++)
+		{
+			// Mostly at rest, with occasional bursts of linear acceleration.
+			float shake = (i / 500) % 4 == 0 ? 3.0f : 0.05f;
+
+			accel[i * 3] = (float) (random.nextGaussian() * shake);
+			accel[i * 3 + 1] = (float) (random.nextGaussian() * shake);
+			accel[i * 3 + 2] = TiltCompensationEngine.GRAVITY_EARTH
+					+ (float) (random.nextGaussian() * shake);
+
+			mag[i * 3] = 20 + (float) random.nextGaussian();
+			mag[i * 3 + 1] = -5 + (float) random.nextGaussian();
+			mag[i * 3 + 2] = -40 + (float) random.nextGaussian();
+		}
+
+		TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		long timestamp = 0;
+		float check = 0;
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+
+			for (int i = 0; i < SAMPLES; i++)
+			{
+				timestamp += 5000000;
+
+				engine.process(timestamp, accel[i * 3], accel[i * 3 + 1],
+						accel[i * 3 + 2], mag[i * 3], mag[i * 3 + 1],
+						mag[i * 3 + 2]);
+
+				check += engine.getLinearAcceleration()[2];
+			}
+
+			long ns = System.nanoTime() - start;
+
+			System.out.println("round " + round + ": "
+					+ (long) (SAMPLES * 1e9 / ns) + " samples/s");
+		}
+
+		// Keep the JIT from discarding the results.
+		System.out.println("checksum " + check);
+	}
+}
@@ -0,0 +1,72 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.io.File;
+
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTraceReplayer;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Replays a recorded sensor trace through the TiltCompensationEngine and
+ * reports the throughput in records per second.
+ * 
+ * Usage: TraceReplayBenchmark [--real-time] trace-file
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class TraceReplayBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		boolean realTime = false;
+		String path = null;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("--real-time"))
+			{
+				realTime = true;
+			}
+			else
+			{
+				path = args[i];
+			}
+		}
+
+		if (path == null)
+		{
+			System.err.println("Usage: TraceReplayBenchmark [--real-time] trace-file");
+			System.exit(2);
+		}
+
+		TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		SensorTraceReplayer replayer = new SensorTraceReplayer(engine);
+		replayer.setRealTime(realTime);
+
+		long start = System.nanoTime();
+		long records = replayer.replay(new File(path));
+
+		long ns = System.nanoTime() - start;
+
+		System.out.println(records + " records in " + (ns / 1000000) + " ms, "
+				+ (long) (records * 1e9 / ns) + " records/s");
+	}
+}
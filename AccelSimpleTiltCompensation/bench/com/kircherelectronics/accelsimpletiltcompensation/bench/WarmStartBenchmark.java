@@ -0,0 +1,211 @@
+package com.kircherelectronics.accelsimpletiltcompensation.bench;
+
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.CalibrationSnapshot;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationConfig;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures how long the gravity estimate takes to become usable at the start
+ * of a session, for an engine starting cold and for one restored from a
+ * CalibrationSnapshot of a previous session, with each gravity estimator.
+ * 
+ * The device sits in a mount at a fixed tilt with some vibration, either
+ * still from the start or handled for the first two seconds. The estimate
+ * counts as settled from the sample after the last one whose error is above
+ * the tolerance.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class WarmStartBenchmark
+{
+	private static final String[] NAMES =
+	{ "threshold", "low-pass", "biquad", "complementary" };
+
+	// The sample period, 200 Hz.
+	private static final long PERIOD = 5000000;
+
+	// The length of a session in samples, 10 s.
+	private static final int SESSION = 2000;
+
+	// The largest error of a usable estimate in m/s^2, about 3 degrees of
+	// tilt.
+	private static final float TOLERANCE = 0.5f;
+
+	// The number of samples the device is handled for, 2 s.
+	private static final int HANDLING = 400;
+
+	// The gravity of the tilted device.
+	private static final float[] GRAVITY = new float[3];
+
+	public static void main(String[] args)
+	{
+		double pitch = Math.toRadians(30);
+		double roll = Math.toRadians(-20);
+
+		GRAVITY[0] = (float) (TiltCompensationEngine.GRAVITY_EARTH * Math
+				.sin(roll));
+		GRAVITY[1] = (float) (TiltCompensationEngine.GRAVITY_EARTH
+				* Math.cos(roll) * Math.sin(pitch));
+		GRAVITY[2] = (float) (TiltCompensationEngine.GRAVITY_EARTH
+				* Math.cos(roll) * Math.cos(pitch));
+
+		for (int kind = 0; kind < TiltCompensationConfig.GRAVITY_ESTIMATORS; kind++)
+		{
+			TiltCompensationConfig config = TiltCompensationConfig.DEFAULT
+					.withGravityEstimator(kind);
+
+			// The previous session, to take the snapshot from.
+			TiltCompensationEngine previous = new TiltCompensationEngine();
+			previous.setConfig(config);
+			run(previous, new Random(1), false);
+
+			byte[] snapshot = CalibrationSnapshot.save(previous);
+
+			for (int handled = 0; handled < 2; handled++)
+			{
+				TiltCompensationEngine cold = new TiltCompensationEngine();
+				cold.setConfig(config);
+
+				TiltCompensationEngine warm = new TiltCompensationEngine();
+
+				if (!CalibrationSnapshot.restore(warm, snapshot))
+				{
+					throw new IllegalStateException("Snapshot not restored");
+				}
+
+				int coldSettled = run(cold, new Random(2), handled != 0);
+				int warmSettled = run(warm, new Random(2), handled != 0);
+
+				System.out.println(String.format(
+						"%-14s %-8s cold %6.0f ms, warm %6.0f ms", NAMES[kind],
+						(handled != 0) ? "handled" : "still", coldSettled
+								* PERIOD / 1e6, warmSettled * PERIOD / 1e6));
+			}
+		}
+
+		measure(new TiltCompensationEngine());
+	}
+
+	/**
+	 * Run a session through an engine.
+	 * 
+	 * @return the number of samples before the estimate settled.
+	 */
+	private static int run(TiltCompensationEngine engine, Random random,
+			boolean handled)
+	{
+		int settled = 0;
+
+		// Sensor timestamps count from boot, so a session does not start at 0.
+		long timestamp = 1000000000000L + random.nextInt(1000) * PERIOD;
+
+		for (int n = 0; n < SESSION; n++)
+		{
+			timestamp += PERIOD;
+
+			double t = n * PERIOD / 1e9;
+
+			// Engine vibration in the mount.
+			float vibration = (float) (0.1 * Math.sin(2 * Math.PI * 12 * t));
+
+			// Picking the device up and putting it in the mount.
+			float motion = (handled && n < HANDLING) ? (float) (1.5 * Math.sin(2
+					* Math.PI * 2 * t)) : 0;
+
+			float ax = GRAVITY[0] + motion + noise(random);
+			float ay = GRAVITY[1] + noise(random);
+			float az = GRAVITY[2] + motion * 0.5f + vibration + noise(random);
+
+			// The magnetometer at a quarter of the rate.
+			if ((n & 3) == 0)
+			{
+				engine.onMagneticField(timestamp, 20, -5, -40);
+			}
+
+			engine.onAccelerometer(timestamp, ax, ay, az);
+
+			float[] gravity = engine.getGravity();
+
+			float dx = gravity[0] - GRAVITY[0];
+			float dy = gravity[1] - GRAVITY[1];
+			float dz = gravity[2] - GRAVITY[2];
+
+			if (Math.sqrt(dx * dx + dy * dy + dz * dz) > TOLERANCE)
+			{
+				settled = n + 1;
+			}
+		}
+
+		return settled;
+	}
+
+	private static float noise(Random random)
+	{
+		return (float) (random.nextGaussian() * 0.05);
+	}
+
+	/**
+	 * Print the size of a snapshot and the time to take and restore one.
+	 */
+	private static void measure(TiltCompensationEngine engine)
+	{
+		run(engine, new Random(3), false);
+
+		final byte[] snapshot = CalibrationSnapshot.save(engine);
+
+		final TiltCompensationEngine target = new TiltCompensationEngine();
+
+		new Benchmark("CalibrationSnapshot.save", snapshot.length + " bytes")
+		{
+			@Override
+			protected void run(int operations)
+			{
+				int n = 0;
+
+				for (int i = 0; i < operations; i++)
+				{
+					n += CalibrationSnapshot.save(target).length;
+				}
+
+				sink = n;
+			}
+		}.measure(10000);
+
+		new Benchmark("CalibrationSnapshot.restore", snapshot.length
+				+ " bytes")
+		{
+			@Override
+			protected void run(int operations)
+			{
+				int n = 0;
+
+				for (int i = 0; i < operations; i++)
+				{
+					n += CalibrationSnapshot.restore(target, snapshot) ? 1 : 0;
+				}
+
+				sink = n;
+			}
+		}.measure(10000);
+	}
+}
@@ -0,0 +1,201 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A SeparationKernel using the SIMD lanes of the incubating Vector API. This
+ * class needs JDK 16 or later and the jdk.incubator.vector module, so it lives
+ * in its own source folder and is loaded by SeparationKernels only when the
+ * JVM supports it.
+ * 
+ * The results are identical to ScalarSeparationKernel. The squares and sums
+ * are done in float lanes in the same order as the scalar code, and the
+ * square root and the division by gravity in double lanes, just as the scalar
+ * code promotes them to double.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class VectorSeparationKernel implements SeparationKernel
+{
+	// The widest double lanes the hardware prefers.
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	// Float lanes with the same number of lanes as DOUBLES, for the steps
+	// that are widened to double.
+	private static final VectorSpecies<Float> HALF_FLOATS = VectorSpecies.of(
+			float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+	// The widest float lanes the hardware prefers, for the float-only steps.
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	// Int lanes with the same number of lanes as FLOATS, and byte lanes
+	// holding one or more of them, for storing the band as booleans. The
+	// smallest shape is 64 bits, so with 4 float lanes, as on 128-bit
+	// hardware, each byte vector packs two of them.
+	private static final VectorSpecies<Integer> INTS = VectorSpecies.of(
+			int.class, FLOATS.vectorShape());
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(
+			byte.class, VectorShape.forBitSize(Math.max(FLOATS.length() * 8,
+					64)));
+
+	private static final double GRAVITY = TiltCompensationEngine.GRAVITY_EARTH;
+
+	// Handles the samples left over after the last full vector.
+	private final ScalarSeparationKernel tail = new ScalarSeparationKernel();
+
+	/**
+	 * Initialize a new VectorSeparationKernel object.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the hardware has no lanes worth using.
+	 */
+	public VectorSeparationKernel()
+	{
+		if (DOUBLES.length() < 2)
+		{
+			throw new UnsupportedOperationException("No SIMD lanes: "
+					+ DOUBLES);
+		}
+	}
+
+	@Override
+	public void magnitudes(float[] x, float[] y, float[] z,
+			float[] magnitude, int offset, int length)
+	{
+		int lanes = HALF_FLOATS.length();
+		int end = offset + length;
+		int i = offset;
+
+		for (; i <= end - lanes; i += lanes)
+		{
+			FloatVector vx = FloatVector.fromArray(HALF_FLOATS, x, i);
+			FloatVector vy = FloatVector.fromArray(HALF_FLOATS, y, i);
+			FloatVector vz = FloatVector.fromArray(HALF_FLOATS, z, i);
+
+			FloatVector sum = vx.mul(vx).add(vy.mul(vy)).add(vz.mul(vz));
+
+			DoubleVector m = (DoubleVector) sum.convertShape(
+					VectorOperators.F2D, DOUBLES, 0);
+
+			m = m.lanewise(VectorOperators.SQRT).div(GRAVITY);
+
+			((FloatVector) m.convertShape(VectorOperators.D2F, HALF_FLOATS, 0))
+					.intoArray(magnitude, i);
+		}
+
+		tail.magnitudes(x, y, z, magnitude, i, end - i);
+	}
+
+	@Override
+	public void band(float[] magnitude, double low, double high,
+			boolean[] inBand, int offset, int length)
+	{
+		int lanes = BYTES.length();
+		int parts = lanes / FLOATS.length();
+		int end = offset + length;
+		int i = offset;
+
+		// For a float m, m > low and m <= high are the same as comparing
+		// with the bounds rounded down to float, so the check can stay in the
+		// wider float lanes.
+		FloatVector vlow = FloatVector.broadcast(FLOATS, floorFloat(low));
+		FloatVector vhigh = FloatVector.broadcast(FLOATS, floorFloat(high));
+
+		IntVector zeros = IntVector.zero(INTS);
+
+		for (; i <= end - lanes; i += lanes)
+		{
+			ByteVector bytes = ByteVector.zero(BYTES);
+
+			// JDK 17 boxes a mask stored with intoArray, so each mask is
+			// turned into int lanes of 0 and 1 and narrowed into its part
+			// of the byte lanes, which are stored as booleans without
+			// allocating.
+			for (int p = 0; p < parts; p++)
+			{
+				FloatVector m = FloatVector.fromArray(FLOATS, magnitude, i + p
+						* FLOATS.length());
+
+				VectorMask<Float> in = m.compare(VectorOperators.LE, vhigh)
+						.and(m.compare(VectorOperators.GT, vlow));
+
+				bytes = bytes.or((ByteVector) zeros.blend(1, in.cast(INTS))
+						.castShape(BYTES, -p));
+			}
+
+			bytes.intoBooleanArray(inBand, i);
+		}
+
+		tail.band(magnitude, low, high, inBand, i, end - i);
+	}
+
+	@Override
+	public void subtract(float[] x, float[] y, float[] z, float[] gx,
+			float[] gy, float[] gz, float[] lx, float[] ly, float[] lz,
+			int offset, int length)
+	{
+		int lanes = FLOATS.length();
+		int end = offset + length;
+		int i = offset;
+
+		for (; i <= end - lanes; i += lanes)
+		{
+			FloatVector.fromArray(FLOATS, x, i)
+					.sub(FloatVector.fromArray(FLOATS, gx, i))
+					.intoArray(lx, i);
+			FloatVector.fromArray(FLOATS, y, i)
+					.sub(FloatVector.fromArray(FLOATS, gy, i))
+					.intoArray(ly, i);
+			FloatVector.fromArray(FLOATS, z, i)
+					.sub(FloatVector.fromArray(FLOATS, gz, i))
+					.intoArray(lz, i);
+		}
+
+		tail.subtract(x, y, z, gx, gy, gz, lx, ly, lz, i, end - i);
+	}
+
+	/**
+	 * Round a double down to the nearest float.
+	 * 
+	 * @param value
+	 *            the value.
+	 * @return the largest float no greater than the value.
+	 */
+	private static float floorFloat(double value)
+	{
+		float f = (float) value;
+
+		return (f > value) ? Math.nextDown(f) : f;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "vector " + DOUBLES.vectorBitSize() + "-bit";
+	}
+}
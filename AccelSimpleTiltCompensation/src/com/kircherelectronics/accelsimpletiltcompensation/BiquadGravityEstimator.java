@@ -0,0 +1,187 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates gravity with a fourth order Butterworth low-pass filter, built as
+ * a cascade of two biquad sections in transposed direct form II. The
+ * coefficients are designed for the smoothed sample period and redesigned
+ * when the sample rate drifts by more than 10%, so the cutoff does not depend
+ * on the sample rate.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class BiquadGravityEstimator implements GravityEstimator
+{
+	// The quality factors of the sections of a fourth order Butterworth
+	// filter.
+	private static final double[] Q =
+	{ 0.54119610, 1.3065630 };
+
+	private static final int SECTIONS = 2;
+
+	// The sample period assumed until one has been measured, in seconds.
+	private static final double DEFAULT_PERIOD = 0.01;
+
+	// Periods outside of this range are not used to design the filter.
+	private static final double MAX_PERIOD = 1.0;
+
+	// The cutoff frequency in Hz.
+	private double cutoff = 0.5;
+
+	// The smoothed sample period and the period the filter was designed for.
+	private double period = DEFAULT_PERIOD;
+	private double designPeriod;
+
+	// The coefficients of each section, normalized so a0 is 1.
+	private double[] b0 = new double[SECTIONS];
+	private double[] b1 = new double[SECTIONS];
+	private double[] b2 = new double[SECTIONS];
+	private double[] a1 = new double[SECTIONS];
+	private double[] a2 = new double[SECTIONS];
+
+	// The state of each section for each axis, [section * 3 + axis].
+	private double[] z1 = new double[SECTIONS * 3];
+	private double[] z2 = new double[SECTIONS * 3];
+
+	/**
+	 * Initialize a new BiquadGravityEstimator object.
+	 */
+	public BiquadGravityEstimator()
+	{
+		design(DEFAULT_PERIOD);
+	}
+
+	@Override
+	public void update(float ax, float ay, float az, float dt,
+			float magnitude, boolean steady, float[] gravity)
+	{
+		if (dt > 0 && dt < MAX_PERIOD)
+		{
+			period += 0.05 * (dt - period);
+
+			if (Math.abs(period - designPeriod) > 0.1 * designPeriod)
+			{
+				design(period);
+
+				// Restart the new coefficients from the current estimate.
+				reset(gravity);
+			}
+		}
+
+		gravity[0] = (float) filter(0, ax);
+		gravity[1] = (float) filter(1, ay);
+		gravity[2] = (float) filter(2, az);
+	}
+
+	@Override
+	public void reset(float[] gravity)
+	{
+		// Set each section to its steady state for the estimate, which the
+		// filter passes unchanged.
+		for (int s = 0; s < SECTIONS; s++)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				z1[s * 3 + i] = gravity[i] * (1 - b0[s]);
+				z2[s * 3 + i] = gravity[i] * (b2[s] - a2[s]);
+			}
+		}
+	}
+
+	public double getCutoff()
+	{
+		return cutoff;
+	}
+
+	/**
+	 * Set the cutoff frequency of the filter.
+	 * 
+	 * @param cutoff
+	 *            the cutoff frequency in Hz, greater than 0.
+	 */
+	public void setCutoff(double cutoff)
+	{
+		if (!(cutoff > 0))
+		{
+			throw new IllegalArgumentException(
+					"Cutoff must be greater than 0: " + cutoff);
+		}
+
+		this.cutoff = cutoff;
+
+		design(period);
+	}
+
+	/**
+	 * Run one axis through the sections.
+	 * 
+	 * @param axis
+	 *            the axis.
+	 * @param x
+	 *            the input.
+	 * @return the output.
+	 */
+	private double filter(int axis, double x)
+	{
+		for (int s = 0; s < SECTIONS; s++)
+		{
+			int i = s * 3 + axis;
+
+			double y = b0[s] * x + z1[i];
+
+			z1[i] = b1[s] * x - a1[s] * y + z2[i];
+			z2[i] = b2[s] * x - a2[s] * y;
+
+			x = y;
+		}
+
+		return x;
+	}
+
+	/**
+	 * Design the low-pass sections for a sample period.
+	 * 
+	 * @param period
+	 *            the sample period in seconds.
+	 */
+	private void design(double period)
+	{
+		// Keep the cutoff below the Nyquist frequency.
+		double fc = Math.min(cutoff, 0.45 / period);
+
+		double w0 = 2 * Math.PI * fc * period;
+		double cos = Math.cos(w0);
+		double sin = Math.sin(w0);
+
+		for (int s = 0; s < SECTIONS; s++)
+		{
+			double alpha = sin / (2 * Q[s]);
+			double a0 = 1 + alpha;
+
+			b0[s] = (1 - cos) / 2 / a0;
+			b1[s] = (1 - cos) / a0;
+			b2[s] = (1 - cos) / 2 / a0;
+			a1[s] = -2 * cos / a0;
+			a2[s] = (1 - alpha) / a0;
+		}
+
+		designPeriod = period;
+	}
+}
@@ -0,0 +1,244 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Saves and restores the adaptive state of a TiltCompensationEngine, so a new
+ * session carries on with the calibration of the last one instead of waiting
+ * for the device to be still again. A snapshot is a fixed size header
+ * followed by the state written by the engine, all little endian.
+ * 
+ * The header is 16 bytes:
+ * 
+ * <pre>
+ * int   magic        'ASCS'
+ * short version      1
+ * short reserved
+ * int   body length
+ * int   CRC32 of the body
+ * </pre>
+ * 
+ * The body of version 1 is:
+ * 
+ * <pre>
+ * double alpha
+ * int    count threshold
+ * byte   gravity estimator
+ * byte   outlier rejection, 0 or 1
+ * double threshold
+ * int    acceleration count
+ * float  gravity x, y, z
+ * int    mean filter window
+ * int    mean filter channels
+ * per channel: int count, count doubles, oldest first
+ * </pre>
+ * 
+ * A snapshot of a newer version, or one that fails its checksum, is not
+ * restored and the engine starts cold.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public final class CalibrationSnapshot
+{
+	public static final int MAGIC = 0x41534353;
+	public static final short VERSION = 1;
+
+	public static final int HEADER_SIZE = 16;
+
+	// The largest body read, well above any real filter window.
+	private static final int MAX_BODY_SIZE = 1 << 20;
+
+	private CalibrationSnapshot()
+	{
+	}
+
+	/**
+	 * Take a snapshot of an engine. Only call on the thread that processes
+	 * the samples, or while no samples are processed.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @return the snapshot.
+	 */
+	public static byte[] save(TiltCompensationEngine engine)
+	{
+		int length = engine.getStateSize();
+
+		byte[] snapshot = new byte[HEADER_SIZE + length];
+
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		buffer.position(HEADER_SIZE);
+		engine.saveState(buffer);
+
+		CRC32 crc = new CRC32();
+		crc.update(snapshot, HEADER_SIZE, length);
+
+		buffer.putInt(0, MAGIC);
+		buffer.putShort(4, VERSION);
+		buffer.putShort(6, (short) 0);
+		buffer.putInt(8, length);
+		buffer.putInt(12, (int) crc.getValue());
+
+		return snapshot;
+	}
+
+	/**
+	 * Restore an engine from a snapshot. Only call while no samples are
+	 * processed.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param snapshot
+	 *            the snapshot.
+	 * @return true if the snapshot was valid and the engine restored, false if
+	 *         the engine was left as it was.
+	 */
+	public static boolean restore(TiltCompensationEngine engine,
+			byte[] snapshot)
+	{
+		if (snapshot.length < HEADER_SIZE)
+		{
+			return false;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		int magic = buffer.getInt();
+		short version = buffer.getShort();
+		buffer.getShort();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+
+		if (magic != MAGIC || version != VERSION
+				|| length != snapshot.length - HEADER_SIZE)
+		{
+			return false;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(snapshot, HEADER_SIZE, length);
+
+		if ((int) crc.getValue() != checksum)
+		{
+			return false;
+		}
+
+		try
+		{
+			engine.restoreState(buffer);
+		}
+		catch (RuntimeException e)
+		{
+			// Consistent but not a state the engine accepts, for example an
+			// unknown gravity estimator.
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write a snapshot of an engine to a file. The snapshot is written to a
+	 * temporary file first and renamed over the old one, so a failed write
+	 * never leaves a partial snapshot behind.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param file
+	 *            the file.
+	 * @throws IOException
+	 *             if the snapshot could not be written.
+	 */
+	public static void write(TiltCompensationEngine engine, File file)
+			throws IOException
+	{
+		byte[] snapshot = save(engine);
+
+		File temp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+
+		try
+		{
+			out.write(snapshot);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		// Not every file system renames over an existing file.
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+		{
+			temp.delete();
+
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * Restore an engine from a snapshot file.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param file
+	 *            the file.
+	 * @return true if the engine was restored, false if there is no valid
+	 *         snapshot in the file.
+	 * @throws IOException
+	 *             if the file exists but could not be read.
+	 */
+	public static boolean read(TiltCompensationEngine engine, File file)
+			throws IOException
+	{
+		long length = file.length();
+
+		if (!file.isFile() || length < HEADER_SIZE
+				|| length > HEADER_SIZE + MAX_BODY_SIZE)
+		{
+			return false;
+		}
+
+		byte[] snapshot = new byte[(int) length];
+
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+		try
+		{
+			in.readFully(snapshot);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return restore(engine, snapshot);
+	}
+}
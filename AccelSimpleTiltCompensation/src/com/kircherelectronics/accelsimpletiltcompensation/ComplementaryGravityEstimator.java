@@ -0,0 +1,109 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates gravity with a first order low-pass filter that trusts the
+ * accelerometer less the further the magnitude is from gravity. Within the
+ * band around 1 g the filter runs at its full rate; the rate falls linearly to
+ * zero at the edge of the band, where the estimate is held.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class ComplementaryGravityEstimator implements GravityEstimator
+{
+	// The time constant of the filter in seconds, at a magnitude of 1 g.
+	private float timeConstant = 0.3f;
+
+	// How far from 1 g the magnitude can be before the estimate is held.
+	private float band = 0.1f;
+
+	@Override
+	public void update(float ax, float ay, float az, float dt,
+			float magnitude, boolean steady, float[] gravity)
+	{
+		if (dt <= 0)
+		{
+			return;
+		}
+
+		float weight = 1 - Math.abs(magnitude - 1) / band;
+
+		if (weight <= 0)
+		{
+			return;
+		}
+
+		float alpha = weight * dt / (timeConstant + dt);
+
+		gravity[0] += alpha * (ax - gravity[0]);
+		gravity[1] += alpha * (ay - gravity[1]);
+		gravity[2] += alpha * (az - gravity[2]);
+	}
+
+	@Override
+	public void reset(float[] gravity)
+	{
+		// The estimate is the only state.
+	}
+
+	public float getBand()
+	{
+		return band;
+	}
+
+	public float getTimeConstant()
+	{
+		return timeConstant;
+	}
+
+	/**
+	 * Set how far from 1 g the magnitude can be before the estimate is held.
+	 * 
+	 * @param band
+	 *            the band, greater than 0.
+	 */
+	public void setBand(float band)
+	{
+		if (!(band > 0))
+		{
+			throw new IllegalArgumentException("Band must be greater than 0: "
+					+ band);
+		}
+
+		this.band = band;
+	}
+
+	/**
+	 * Set the time constant of the filter at a magnitude of 1 g.
+	 * 
+	 * @param timeConstant
+	 *            the time constant in seconds, greater than 0.
+	 */
+	public void setTimeConstant(float timeConstant)
+	{
+		if (!(timeConstant > 0))
+		{
+			throw new IllegalArgumentException(
+					"Time constant must be greater than 0: " + timeConstant);
+		}
+
+		this.timeConstant = timeConstant;
+	}
+}
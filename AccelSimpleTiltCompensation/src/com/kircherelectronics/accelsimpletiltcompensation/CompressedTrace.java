@@ -0,0 +1,169 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Describes the compressed sensor trace format, a columnar alternative to
+ * {@link SensorTrace} for long recordings. A trace is a fixed size header, a
+ * sequence of blocks and an index of the blocks, all little endian.
+ * 
+ * The header is 32 bytes:
+ * 
+ * <pre>
+ * int   magic        'ASCT'
+ * short version      1
+ * short block size   the most samples in a block
+ * long  created      wall clock time in milliseconds
+ * long  record count written when the trace is closed, 0 if it was not
+ * long  index offset written when the trace is closed, 0 if it was not
+ * </pre>
+ * 
+ * Each block holds the samples of one sensor, one column per field:
+ * 
+ * <pre>
+ * int   length       of the rest of the block
+ * byte  sensor type  TYPE_ACCELEROMETER or TYPE_MAGNETIC_FIELD
+ * int   count        samples in the block
+ * long  first timestamp
+ * long  last timestamp
+ * int   timestamp, x, y and z column lengths
+ * the timestamp column, then the x, y and z columns
+ * </pre>
+ * 
+ * The timestamp column holds the delta from the first timestamp to the
+ * second, then the change in the delta for each timestamp after, as zigzag
+ * varints; steady sensor rates make the changes small. Each axis column is
+ * XOR compressed bit by bit, most significant first, after Gorilla: the first
+ * value is written as its 32 bits, and each value after is XORed with the one
+ * before it and written as
+ * 
+ * <pre>
+ * 0                         the same value
+ * 10 bits                   the XOR, inside the window of the last 11
+ * 11 lead(5) len-1(5) bits  the XOR in a new window: lead zero bits, then
+ *                           len meaningful bits
+ * </pre>
+ * 
+ * A column is padded to a whole byte. The compression is lossless.
+ * 
+ * The index is one entry per block, to the end of the file:
+ * 
+ * <pre>
+ * long  block offset
+ * byte  sensor type
+ * int   count
+ * long  first timestamp
+ * long  last timestamp
+ * </pre>
+ * 
+ * A trace that was not closed has no index; its complete blocks are found by
+ * walking the block lengths.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public final class CompressedTrace
+{
+	// The file name extension of a compressed trace.
+	public static final String EXTENSION = ".ctrace";
+
+	public static final int MAGIC = 0x41534354;
+	public static final short VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+
+	// The offsets of the fields written when the trace is closed.
+	public static final int RECORD_COUNT_OFFSET = 16;
+	public static final int INDEX_OFFSET_OFFSET = 24;
+
+	// The block header after the length field.
+	public static final int BLOCK_HEADER_SIZE = 37;
+
+	public static final int INDEX_ENTRY_SIZE = 29;
+
+	// The default number of samples in a block.
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	/**
+	 * The decoded samples of a block, one array per column. The arrays are
+	 * reused for each block read into it.
+	 */
+	public static class Block
+	{
+		private int type;
+		private int count;
+
+		private final long[] timestamps;
+		private final float[] x;
+		private final float[] y;
+		private final float[] z;
+
+		/**
+		 * Initialize a new Block object.
+		 * 
+		 * @param capacity
+		 *            the most samples held, the block size of the trace.
+		 */
+		public Block(int capacity)
+		{
+			timestamps = new long[capacity];
+			x = new float[capacity];
+			y = new float[capacity];
+			z = new float[capacity];
+		}
+
+		public int getType()
+		{
+			return type;
+		}
+
+		public int getCount()
+		{
+			return count;
+		}
+
+		public long[] getTimestamps()
+		{
+			return timestamps;
+		}
+
+		public float[] getX()
+		{
+			return x;
+		}
+
+		public float[] getY()
+		{
+			return y;
+		}
+
+		public float[] getZ()
+		{
+			return z;
+		}
+
+		void set(int type, int count)
+		{
+			this.type = type;
+			this.count = count;
+		}
+	}
+
+	private CompressedTrace()
+	{
+	}
+}
@@ -0,0 +1,490 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reads a {@link CompressedTrace} a block at a time. The blocks of each
+ * sensor are read in order through their own cursor, so the two sensors can
+ * be merged by timestamp as they are consumed, and both cursors can be moved
+ * to a point in the trace with {@link #seek(long)}.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class CompressedTraceReader
+{
+	private RandomAccessFile file;
+
+	private int blockSize;
+
+	private long created;
+
+	// The index of the blocks.
+	private int blockCount;
+	private long[] offsets;
+	private byte[] types;
+	private int[] counts;
+	private long[] firstTimestamps;
+	private long[] lastTimestamps;
+
+	// The next block to read for each sensor, indexed by sensor type.
+	private int[] cursors = new int[3];
+
+	// Holds the encoded block being decoded.
+	private byte[] encoded = new byte[0];
+
+	// The bit reader state while decoding an axis column.
+	private int bitPosition;
+	private long accumulator;
+	private int bitCount;
+
+	/**
+	 * Open a trace.
+	 * 
+	 * @param path
+	 *            the file to read.
+	 * @throws IOException
+	 *             if the file could not be read or is not a compressed trace.
+	 */
+	public CompressedTraceReader(File path) throws IOException
+	{
+		file = new RandomAccessFile(path, "r");
+
+		try
+		{
+			readHeader(path);
+		}
+		catch (IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the next block of a sensor.
+	 * 
+	 * @param type
+	 *            the sensor type.
+	 * @param block
+	 *            receives the samples, with a capacity of at least the block
+	 *            size.
+	 * @return true if a block was read, false at the end of the trace.
+	 * @throws IOException
+	 *             if the block could not be read.
+	 */
+	public boolean nextBlock(int type, CompressedTrace.Block block)
+			throws IOException
+	{
+		int i = cursors[type];
+
+		while (i < blockCount && types[i] != type)
+		{
+			i++;
+		}
+
+		if (i == blockCount)
+		{
+			cursors[type] = i;
+			return false;
+		}
+
+		cursors[type] = i + 1;
+
+		readBlock(i, block);
+
+		return true;
+	}
+
+	/**
+	 * Move the cursor of each sensor to the first block that ends at or after
+	 * a timestamp, so reading starts at most a block before it.
+	 * 
+	 * @param timestamp
+	 *            the timestamp in nanoseconds.
+	 */
+	public void seek(long timestamp)
+	{
+		for (int type = 0; type < cursors.length; type++)
+		{
+			cursors[type] = blockCount;
+		}
+
+		// Blocks of one sensor end in order, so the first of each type found
+		// from the back is the one wanted.
+		for (int i = blockCount - 1; i >= 0; i--)
+		{
+			if (lastTimestamps[i] >= timestamp)
+			{
+				cursors[types[i]] = i;
+			}
+		}
+	}
+
+	/**
+	 * Read and decode a block.
+	 * 
+	 * @param index
+	 *            the block, in file order.
+	 * @param block
+	 *            receives the samples.
+	 * @throws IOException
+	 *             if the block could not be read or is corrupt.
+	 */
+	public void readBlock(int index, CompressedTrace.Block block)
+			throws IOException
+	{
+		file.seek(offsets[index]);
+
+		// RandomAccessFile reads big endian.
+		int length = Integer.reverseBytes(file.readInt());
+
+		if (length < CompressedTrace.BLOCK_HEADER_SIZE
+				|| length > file.length() - offsets[index])
+		{
+			throw new IOException("Corrupt block " + index + ": length "
+					+ length);
+		}
+
+		if (encoded.length < length)
+		{
+			encoded = new byte[length];
+		}
+
+		file.readFully(encoded, 0, length);
+
+		ByteBuffer header = ByteBuffer.wrap(encoded, 0,
+				CompressedTrace.BLOCK_HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		int type = header.get();
+		int count = header.getInt();
+		long timestamp = header.getLong();
+		header.getLong();
+		int timestampLength = header.getInt();
+		int xLength = header.getInt();
+		int yLength = header.getInt();
+
+		if (count < 1 || count > block.getTimestamps().length)
+		{
+			throw new IOException("Corrupt block " + index + ": " + count
+					+ " samples");
+		}
+
+		// The timestamps.
+		long[] timestamps = block.getTimestamps();
+
+		int p = CompressedTrace.BLOCK_HEADER_SIZE;
+		long delta = 0;
+
+		timestamps[0] = timestamp;
+
+		for (int i = 1; i < count; i++)
+		{
+			long value = 0;
+			int shift = 0;
+			int b;
+
+			do
+			{
+				b = encoded[p++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while (b < 0);
+
+			value = (value >>> 1) ^ -(value & 1);
+
+			delta = (i == 1) ? value : delta + value;
+			timestamp += delta;
+
+			timestamps[i] = timestamp;
+		}
+
+		int xStart = CompressedTrace.BLOCK_HEADER_SIZE + timestampLength;
+
+		decodeAxis(xStart, count, block.getX());
+		decodeAxis(xStart + xLength, count, block.getY());
+		decodeAxis(xStart + xLength + yLength, count, block.getZ());
+
+		block.set(type, count);
+	}
+
+	public int getBlockCount()
+	{
+		return blockCount;
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * Get the wall clock time the trace was created.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getCreated()
+	{
+		return created;
+	}
+
+	/**
+	 * Get the number of records in the blocks of the trace.
+	 * 
+	 * @return the number of records.
+	 */
+	public long getRecordCount()
+	{
+		long records = 0;
+
+		for (int i = 0; i < blockCount; i++)
+		{
+			records += counts[i];
+		}
+
+		return records;
+	}
+
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	/**
+	 * Decode an XOR compressed axis column.
+	 */
+	private void decodeAxis(int start, int count, float[] values)
+	{
+		bitPosition = start;
+		accumulator = 0;
+		bitCount = 0;
+
+		int previous = (int) readBits(32);
+		values[0] = Float.intBitsToFloat(previous);
+
+		int leading = 0;
+		int trailing = 0;
+
+		for (int i = 1; i < count; i++)
+		{
+			if (readBits(1) != 0)
+			{
+				if (readBits(1) != 0)
+				{
+					// A new window.
+					leading = (int) readBits(5);
+					trailing = 32 - leading - ((int) readBits(5) + 1);
+				}
+
+				previous ^= (int) readBits(32 - leading - trailing) << trailing;
+			}
+
+			values[i] = Float.intBitsToFloat(previous);
+		}
+	}
+
+	/**
+	 * Read bits, most significant first.
+	 * 
+	 * @param bits
+	 *            the number of bits, at most 32.
+	 * @return the bits.
+	 */
+	private long readBits(int bits)
+	{
+		while (bitCount < bits)
+		{
+			accumulator = (accumulator << 8) | (encoded[bitPosition++] & 0xFF);
+			bitCount += 8;
+		}
+
+		bitCount -= bits;
+
+		return (accumulator >>> bitCount) & ((1L << bits) - 1);
+	}
+
+	/**
+	 * Read the header, and the index or, for a trace that was not closed, the
+	 * block headers.
+	 */
+	private void readHeader(File path) throws IOException
+	{
+		byte[] bytes = new byte[CompressedTrace.HEADER_SIZE];
+
+		if (file.length() < CompressedTrace.HEADER_SIZE)
+		{
+			throw new IOException("Not a compressed sensor trace: " + path);
+		}
+
+		file.readFully(bytes);
+
+		ByteBuffer header = ByteBuffer.wrap(bytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		if (header.getInt() != CompressedTrace.MAGIC)
+		{
+			throw new IOException("Not a compressed sensor trace: " + path);
+		}
+
+		short version = header.getShort();
+
+		if (version != CompressedTrace.VERSION)
+		{
+			throw new IOException("Unsupported compressed sensor trace version "
+					+ version + ": " + path);
+		}
+
+		blockSize = header.getShort();
+		created = header.getLong();
+		header.getLong();
+
+		long indexOffset = header.getLong();
+
+		if (indexOffset != 0)
+		{
+			readIndex(indexOffset);
+		}
+		else
+		{
+			scanBlocks();
+		}
+	}
+
+	private void readIndex(long indexOffset) throws IOException
+	{
+		int entries = (int) ((file.length() - indexOffset) / CompressedTrace.INDEX_ENTRY_SIZE);
+
+		byte[] bytes = new byte[entries * CompressedTrace.INDEX_ENTRY_SIZE];
+
+		file.seek(indexOffset);
+		file.readFully(bytes);
+
+		ByteBuffer index = ByteBuffer.wrap(bytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		allocateIndex(entries);
+
+		for (int i = 0; i < entries; i++)
+		{
+			offsets[i] = index.getLong();
+			types[i] = index.get();
+			counts[i] = index.getInt();
+			firstTimestamps[i] = index.getLong();
+			lastTimestamps[i] = index.getLong();
+
+			checkType(types[i]);
+		}
+
+		blockCount = entries;
+	}
+
+	/**
+	 * Build the index from the block headers, stopping at the first block
+	 * that was not written completely.
+	 */
+	private void scanBlocks() throws IOException
+	{
+		long length = file.length();
+		long position = CompressedTrace.HEADER_SIZE;
+
+		byte[] bytes = new byte[4 + CompressedTrace.BLOCK_HEADER_SIZE];
+
+		ByteBuffer header = ByteBuffer.wrap(bytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		allocateIndex(64);
+
+		while (position + bytes.length <= length)
+		{
+			file.seek(position);
+			file.readFully(bytes);
+
+			header.clear();
+
+			int blockLength = header.getInt();
+
+			if (blockLength < CompressedTrace.BLOCK_HEADER_SIZE
+					|| position + 4 + blockLength > length)
+			{
+				break;
+			}
+
+			if (blockCount == offsets.length)
+			{
+				growIndex();
+			}
+
+			offsets[blockCount] = position;
+			types[blockCount] = header.get();
+			counts[blockCount] = header.getInt();
+			firstTimestamps[blockCount] = header.getLong();
+			lastTimestamps[blockCount] = header.getLong();
+
+			checkType(types[blockCount]);
+
+			blockCount++;
+
+			position += 4 + blockLength;
+		}
+	}
+
+	private void checkType(int type) throws IOException
+	{
+		if (type != SensorTrace.TYPE_ACCELEROMETER
+				&& type != SensorTrace.TYPE_MAGNETIC_FIELD)
+		{
+			throw new IOException("Unknown sensor type in block index: "
+					+ type);
+		}
+	}
+
+	private void allocateIndex(int capacity)
+	{
+		offsets = new long[capacity];
+		types = new byte[capacity];
+		counts = new int[capacity];
+		firstTimestamps = new long[capacity];
+		lastTimestamps = new long[capacity];
+	}
+
+	private void growIndex()
+	{
+		long[] offsets = this.offsets;
+		byte[] types = this.types;
+		int[] counts = this.counts;
+		long[] firstTimestamps = this.firstTimestamps;
+		long[] lastTimestamps = this.lastTimestamps;
+
+		allocateIndex(blockCount * 2);
+
+		System.arraycopy(offsets, 0, this.offsets, 0, blockCount);
+		System.arraycopy(types, 0, this.types, 0, blockCount);
+		System.arraycopy(counts, 0, this.counts, 0, blockCount);
+		System.arraycopy(firstTimestamps, 0, this.firstTimestamps, 0,
+				blockCount);
+		System.arraycopy(lastTimestamps, 0, this.lastTimestamps, 0,
+				blockCount);
+	}
+}
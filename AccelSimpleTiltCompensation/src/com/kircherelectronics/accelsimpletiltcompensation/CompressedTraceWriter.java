@@ -0,0 +1,773 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Writes sensor samples to a {@link CompressedTrace}. The samples of each
+ * sensor are encoded into their own block as they arrive. When a block is
+ * full it is assembled into one of a few buffers and handed to a background
+ * thread that writes it to the file, so the sensor thread only encodes and
+ * never waits for the disk. If the background thread falls so far behind that
+ * no buffer is free, the block is dropped and counted, unless the writer is
+ * set to block, as suits converting traces offline. Writing a sample does not
+ * allocate, except when the block index grows.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class CompressedTraceWriter
+{
+	/**
+	 * Packs bits, most significant first, into a byte array.
+	 */
+	private static class BitWriter
+	{
+		private final byte[] bytes;
+
+		private int position;
+
+		// The pending bits, the low bitCount bits of the accumulator.
+		private long accumulator;
+		private int bitCount;
+
+		public BitWriter(int capacity)
+		{
+			bytes = new byte[capacity];
+		}
+
+		/**
+		 * Write the low bits of a value.
+		 * 
+		 * @param value
+		 *            the value.
+		 * @param bits
+		 *            the number of bits, at most 32.
+		 */
+		public void write(long value, int bits)
+		{
+			accumulator = (accumulator << bits)
+					| (value & ((1L << bits) - 1));
+			bitCount += bits;
+
+			while (bitCount >= 8)
+			{
+				bitCount -= 8;
+				bytes[position++] = (byte) (accumulator >>> bitCount);
+			}
+		}
+
+		/**
+		 * Pad the last byte and get the length.
+		 * 
+		 * @return the number of bytes written.
+		 */
+		public int finish()
+		{
+			if (bitCount > 0)
+			{
+				bytes[position++] = (byte) (accumulator << (8 - bitCount));
+				bitCount = 0;
+			}
+
+			return position;
+		}
+
+		public void reset()
+		{
+			position = 0;
+			accumulator = 0;
+			bitCount = 0;
+		}
+	}
+
+	/**
+	 * XOR compresses one axis.
+	 */
+	private static class FloatColumn
+	{
+		private final BitWriter bits;
+
+		private int previous;
+
+		// The window of the last value written with a new window, -1 before
+		// the first.
+		private int leading;
+		private int trailing;
+
+		private boolean started;
+
+		public FloatColumn(int capacity)
+		{
+			// Each value takes at most 2 + 5 + 5 + 32 bits.
+			bits = new BitWriter((capacity * 44 + 7) / 8);
+		}
+
+		public void add(float value)
+		{
+			int current = Float.floatToRawIntBits(value);
+
+			if (!started)
+			{
+				bits.write(current, 32);
+
+				previous = current;
+				leading = -1;
+				started = true;
+
+				return;
+			}
+
+			int xor = current ^ previous;
+
+			previous = current;
+
+			if (xor == 0)
+			{
+				bits.write(0, 1);
+				return;
+			}
+
+			int lead = Integer.numberOfLeadingZeros(xor);
+			int trail = Integer.numberOfTrailingZeros(xor);
+
+			if (leading >= 0 && lead >= leading && trail >= trailing)
+			{
+				// Inside the last window.
+				bits.write(2, 2);
+				bits.write(xor >>> trailing, 32 - leading - trailing);
+			}
+			else
+			{
+				int length = 32 - lead - trail;
+
+				bits.write(3, 2);
+				bits.write(lead, 5);
+				bits.write(length - 1, 5);
+				bits.write(xor >>> trail, length);
+
+				leading = lead;
+				trailing = trail;
+			}
+		}
+
+		public void reset()
+		{
+			bits.reset();
+			started = false;
+		}
+	}
+
+	/**
+	 * The block being filled for one sensor.
+	 */
+	private static class BlockEncoder
+	{
+		private final int type;
+
+		private final byte[] timestampColumn;
+		private int timestampLength;
+
+		private final FloatColumn x;
+		private final FloatColumn y;
+		private final FloatColumn z;
+
+		private int count;
+
+		private long firstTimestamp;
+		private long lastTimestamp;
+		private long lastDelta;
+
+		public BlockEncoder(int type, int capacity)
+		{
+			this.type = type;
+
+			// A varint of a long takes at most 10 bytes.
+			timestampColumn = new byte[capacity * 10];
+
+			x = new FloatColumn(capacity);
+			y = new FloatColumn(capacity);
+			z = new FloatColumn(capacity);
+		}
+
+		public void add(long timestamp, float vx, float vy, float vz)
+		{
+			if (count == 0)
+			{
+				firstTimestamp = timestamp;
+			}
+			else
+			{
+				long delta = timestamp - lastTimestamp;
+
+				// The first delta as it is, the change in the delta after.
+				long value = (count == 1) ? delta : delta - lastDelta;
+
+				putVarint((value << 1) ^ (value >> 63));
+
+				lastDelta = delta;
+			}
+
+			lastTimestamp = timestamp;
+
+			x.add(vx);
+			y.add(vy);
+			z.add(vz);
+
+			count++;
+		}
+
+		private void putVarint(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				timestampColumn[timestampLength++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+
+			timestampColumn[timestampLength++] = (byte) value;
+		}
+
+		public void reset()
+		{
+			count = 0;
+			timestampLength = 0;
+
+			x.reset();
+			y.reset();
+			z.reset();
+		}
+	}
+
+	/**
+	 * A lock-free, single producer, single consumer queue of block buffers.
+	 */
+	private static class BufferQueue
+	{
+		private final ByteBuffer[] buffers;
+		private final int mask;
+
+		// The next buffer to take, only written by the consumer.
+		private final AtomicLong head = new AtomicLong();
+
+		// The next slot to put into, only written by the producer.
+		private final AtomicLong tail = new AtomicLong();
+
+		/**
+		 * Initialize a new BufferQueue object.
+		 * 
+		 * @param capacity
+		 *            the number of buffers, a power of two no smaller than
+		 *            the number that will ever be in the queue.
+		 */
+		public BufferQueue(int capacity)
+		{
+			buffers = new ByteBuffer[capacity];
+			mask = capacity - 1;
+		}
+
+		public void put(ByteBuffer buffer)
+		{
+			long t = tail.get();
+
+			buffers[(int) t & mask] = buffer;
+
+			// Publish the buffer after it has been stored.
+			tail.lazySet(t + 1);
+		}
+
+		public boolean isEmpty()
+		{
+			return head.get() == tail.get();
+		}
+
+		/**
+		 * Take the oldest buffer.
+		 * 
+		 * @return the buffer, or null if the queue is empty.
+		 */
+		public ByteBuffer poll()
+		{
+			long h = head.get();
+
+			if (h == tail.get())
+			{
+				return null;
+			}
+
+			int slot = (int) h & mask;
+
+			ByteBuffer buffer = buffers[slot];
+			buffers[slot] = null;
+
+			head.lazySet(h + 1);
+
+			return buffer;
+		}
+	}
+
+	// The number of block buffers shared with the background thread.
+	private static final int BUFFERS = 4;
+
+	// How long the background thread waits for a block between checks, in
+	// nanoseconds.
+	private static final long PARK_NANOS = 10000000L;
+
+	private final RandomAccessFile file;
+
+	// Writes the assembled blocks to the file.
+	private final Thread writer;
+
+	// The assembled blocks waiting to be written, and the buffers free to
+	// assemble the next ones in.
+	private final BufferQueue filled = new BufferQueue(BUFFERS);
+	private final BufferQueue empty = new BufferQueue(BUFFERS);
+
+	private volatile boolean closing;
+
+	// Wait for a free buffer rather than drop a block.
+	private boolean blocking;
+
+	// The reason the background thread stopped, if it failed.
+	private volatile IOException failure;
+
+	private final int blockSize;
+
+	// The creation time of the trace, in milliseconds since the epoch.
+	private final long created = System.currentTimeMillis();
+
+	private final BlockEncoder accelerometer;
+	private final BlockEncoder magneticField;
+
+	// The file position of the next block.
+	private long position;
+
+	private long recordCount;
+
+	// The samples in the blocks dropped because no buffer was free.
+	private long droppedRecords;
+
+	// The index of the blocks written so far.
+	private int blockCount;
+	private long[] offsets = new long[64];
+	private byte[] types = new byte[64];
+	private int[] counts = new int[64];
+	private long[] firstTimestamps = new long[64];
+	private long[] lastTimestamps = new long[64];
+
+	/**
+	 * Create a new trace, replacing any existing file.
+	 * 
+	 * @param path
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public CompressedTraceWriter(File path) throws IOException
+	{
+		this(path, CompressedTrace.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Create a new trace, replacing any existing file.
+	 * 
+	 * @param path
+	 *            the file to write.
+	 * @param blockSize
+	 *            the most samples in a block, up to 32767.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public CompressedTraceWriter(File path, int blockSize) throws IOException
+	{
+		if (blockSize < 2 || blockSize > Short.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Invalid block size: "
+					+ blockSize);
+		}
+
+		this.blockSize = blockSize;
+
+		accelerometer = new BlockEncoder(SensorTrace.TYPE_ACCELEROMETER,
+				blockSize);
+		magneticField = new BlockEncoder(SensorTrace.TYPE_MAGNETIC_FIELD,
+				blockSize);
+
+		int capacity = 4 + CompressedTrace.BLOCK_HEADER_SIZE
+				+ accelerometer.timestampColumn.length + 3
+				* accelerometer.x.bits.bytes.length;
+
+		for (int i = 0; i < BUFFERS; i++)
+		{
+			empty.put(ByteBuffer.allocate(capacity).order(
+					ByteOrder.LITTLE_ENDIAN));
+		}
+
+		file = new RandomAccessFile(path, "rw");
+
+		try
+		{
+			file.setLength(0);
+			file.write(header(0, 0));
+		}
+		catch (IOException e)
+		{
+			file.close();
+			throw e;
+		}
+
+		position = CompressedTrace.HEADER_SIZE;
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runWriter();
+			}
+		}, "Trace Writer");
+		writer.start();
+	}
+
+	/**
+	 * Write a sensor sample.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param type
+	 *            the sensor type.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 * @throws IOException
+	 *             if the background thread failed to write an earlier
+	 *             block.
+	 */
+	public void write(long timestamp, int type, float x, float y, float z)
+			throws IOException
+	{
+		BlockEncoder encoder;
+
+		switch (type)
+		{
+		case SensorTrace.TYPE_ACCELEROMETER:
+			encoder = accelerometer;
+			break;
+		case SensorTrace.TYPE_MAGNETIC_FIELD:
+			encoder = magneticField;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown sensor type: " + type);
+		}
+
+		encoder.add(timestamp, x, y, z);
+
+		recordCount++;
+
+		if (encoder.count == blockSize)
+		{
+			writeBlock(encoder);
+		}
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	/**
+	 * Set whether a full block waits for the background thread to free a
+	 * buffer rather than being dropped. Only set it where waiting for the
+	 * disk is harmless, not on the sensor thread.
+	 * 
+	 * @param blocking
+	 *            true to wait, false to drop blocks.
+	 */
+	public void setBlocking(boolean blocking)
+	{
+		this.blocking = blocking;
+	}
+
+	/**
+	 * Get the number of samples dropped, a block at a time, because the
+	 * background thread fell behind.
+	 * 
+	 * @return the number of samples.
+	 */
+	public long getDroppedRecords()
+	{
+		return droppedRecords;
+	}
+
+	/**
+	 * Get the size of the blocks handed to the background thread so far,
+	 * including the header, not counting the blocks still being filled.
+	 * 
+	 * @return the size in bytes.
+	 */
+	public long getSize()
+	{
+		return position;
+	}
+
+	/**
+	 * Write the blocks still being filled, wait for the background thread to
+	 * write them all, then write the index, fill in the header and close the
+	 * trace. This waits for the disk, so call it from a thread that may
+	 * block, once no more samples are written.
+	 * 
+	 * @throws IOException
+	 *             if the trace could not be written.
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			// The last blocks always wait for a free buffer.
+			blocking = true;
+
+			writeBlock(accelerometer);
+			writeBlock(magneticField);
+
+			closing = true;
+
+			LockSupport.unpark(writer);
+
+			boolean interrupted = false;
+
+			while (true)
+			{
+				try
+				{
+					writer.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			if (failure != null)
+			{
+				throw failure;
+			}
+
+			long indexOffset = position;
+
+			ByteBuffer index = ByteBuffer.allocate(
+					blockCount * CompressedTrace.INDEX_ENTRY_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+
+			for (int i = 0; i < blockCount; i++)
+			{
+				index.putLong(offsets[i]);
+				index.put(types[i]);
+				index.putInt(counts[i]);
+				index.putLong(firstTimestamps[i]);
+				index.putLong(lastTimestamps[i]);
+			}
+
+			file.seek(indexOffset);
+			file.write(index.array());
+
+			file.seek(0);
+			file.write(header(recordCount - droppedRecords, indexOffset));
+		}
+		finally
+		{
+			closing = true;
+			file.close();
+		}
+	}
+
+	/**
+	 * Build the file header.
+	 */
+	private byte[] header(long records, long indexOffset)
+	{
+		ByteBuffer header = ByteBuffer.allocate(CompressedTrace.HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		header.putInt(CompressedTrace.MAGIC);
+		header.putShort(CompressedTrace.VERSION);
+		header.putShort((short) blockSize);
+		header.putLong(created);
+		header.putLong(records);
+		header.putLong(indexOffset);
+
+		return header.array();
+	}
+
+	/**
+	 * Assemble the block of a sensor, if it holds any samples, hand it to
+	 * the background thread and start a new one. Unless blocking, the block
+	 * is dropped if no buffer is free.
+	 */
+	private void writeBlock(BlockEncoder encoder) throws IOException
+	{
+		if (encoder.count == 0)
+		{
+			return;
+		}
+
+		// Don't wait on a background thread that has failed and won't free
+		// any more buffers.
+		while (blocking && empty.isEmpty() && writer.isAlive())
+		{
+			LockSupport.parkNanos(PARK_NANOS / 10);
+		}
+
+		if (failure != null)
+		{
+			throw failure;
+		}
+
+		ByteBuffer block = empty.poll();
+
+		if (block == null)
+		{
+			droppedRecords += encoder.count;
+			encoder.reset();
+			return;
+		}
+
+		int xLength = encoder.x.bits.finish();
+		int yLength = encoder.y.bits.finish();
+		int zLength = encoder.z.bits.finish();
+
+		block.clear();
+		block.putInt(CompressedTrace.BLOCK_HEADER_SIZE
+				+ encoder.timestampLength + xLength + yLength + zLength);
+		block.put((byte) encoder.type);
+		block.putInt(encoder.count);
+		block.putLong(encoder.firstTimestamp);
+		block.putLong(encoder.lastTimestamp);
+		block.putInt(encoder.timestampLength);
+		block.putInt(xLength);
+		block.putInt(yLength);
+		block.putInt(zLength);
+		block.put(encoder.timestampColumn, 0, encoder.timestampLength);
+		block.put(encoder.x.bits.bytes, 0, xLength);
+		block.put(encoder.y.bits.bytes, 0, yLength);
+		block.put(encoder.z.bits.bytes, 0, zLength);
+
+		addToIndex(encoder);
+
+		position += block.position();
+
+		filled.put(block);
+
+		LockSupport.unpark(writer);
+
+		encoder.reset();
+	}
+
+	/**
+	 * Write the blocks handed over, in order, until the trace is closed, on
+	 * the background thread.
+	 */
+	private void runWriter()
+	{
+		try
+		{
+			while (true)
+			{
+				// Read the flag before polling, so a block put before close
+				// set it is not left behind.
+				boolean stop = closing;
+
+				ByteBuffer block = filled.poll();
+
+				if (block == null)
+				{
+					if (stop)
+					{
+						return;
+					}
+
+					LockSupport.parkNanos(PARK_NANOS);
+					continue;
+				}
+
+				// The blocks follow each other, from just after the header.
+				file.write(block.array(), 0, block.position());
+
+				block.clear();
+				empty.put(block);
+			}
+		}
+		catch (IOException e)
+		{
+			failure = e;
+		}
+	}
+
+	private void addToIndex(BlockEncoder encoder)
+	{
+		if (blockCount == offsets.length)
+		{
+			int capacity = blockCount * 2;
+
+			offsets = copyOf(offsets, capacity);
+			counts = copyOf(counts, capacity);
+			firstTimestamps = copyOf(firstTimestamps, capacity);
+			lastTimestamps = copyOf(lastTimestamps, capacity);
+
+			byte[] grown = new byte[capacity];
+			System.arraycopy(types, 0, grown, 0, blockCount);
+			types = grown;
+		}
+
+		offsets[blockCount] = position;
+		types[blockCount] = (byte) encoder.type;
+		counts[blockCount] = encoder.count;
+		firstTimestamps[blockCount] = encoder.firstTimestamp;
+		lastTimestamps[blockCount] = encoder.lastTimestamp;
+
+		blockCount++;
+	}
+
+	private static long[] copyOf(long[] array, int length)
+	{
+		long[] copy = new long[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static int[] copyOf(int[] array, int length)
+	{
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+}
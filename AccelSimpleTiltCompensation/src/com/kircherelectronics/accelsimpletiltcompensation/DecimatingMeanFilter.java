@@ -0,0 +1,388 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A mean filter for very long windows that only produces an output every so
+ * many samples, built as a cascaded integrator-comb (CIC) filter.
+ * 
+ * With one stage the output is the mean of each block of decimation samples,
+ * the same value a {@link MeanFilter} with that window gives at the end of the
+ * block. Each extra stage convolves another boxcar of the same length into the
+ * response, which smooths it and suppresses the aliasing of the decimation
+ * better, and stretches the span of samples that contribute to an output to
+ * stages * (decimation - 1) + 1. Whatever the window, the filter keeps an
+ * integrator, a comb and a primed comb value per stage and does a few
+ * additions per sample, so it costs constant memory and O(1) work, and the
+ * consumers of the output only see one sample per block.
+ * 
+ * The integrators run on longs in fixed point and are allowed to wrap
+ * around; the combs take the differences modulo 2^64 as well, so the output is
+ * exact however long the filter runs. The fixed point scale leaves room for
+ * inputs of magnitude up to 2^16, which limits the stages times the bits of
+ * the decimation to 38.
+ * 
+ * The gain of the stages comes out of the fraction bits, of which there are
+ * min(32, 46 - stages * bits of the decimation), and each input is rounded to
+ * that resolution, so the output can be off from the exact mean by up to
+ * 2^-(fraction bits + 1). One stage with a decimation up to 16383 keeps all
+ * 32, about 1e-10, but three stages with a decimation of 3334 leave only 10,
+ * about 5e-4, and the filters that just fit keep 8, about 2e-3.
+ * 
+ * So the first outputs are not pulled toward zero, the filter is primed with
+ * its first sample as if the input had held that value forever. With one
+ * stage the first output is then the mean of the first block, as MeanFilter
+ * gives; with more stages the blocks before the first count as holding the
+ * first sample, where MeanFilter would average only the samples it has.
+ * Priming sets the combs to their steady state for the value, computed in
+ * closed form, so it costs O(stages) rather than a run through the window.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class DecimatingMeanFilter
+{
+	// The largest input magnitude, as a power of two.
+	private static final int INPUT_BITS = 16;
+
+	// The fewest fraction bits accepted.
+	private static final int MIN_FRACTION_BITS = 8;
+
+	// The most fraction bits used.
+	private static final int MAX_FRACTION_BITS = 32;
+
+	private int decimation;
+	private int stages;
+
+	private long[] integrators;
+	private long[] combs;
+
+	// The comb state of a unit input held forever, with the integrators at
+	// zero.
+	private long[] primes;
+
+	// The number of samples into the current block.
+	private int phase;
+
+	private boolean primed;
+
+	// Converts to and from fixed point, including the gain of the stages.
+	private double scale;
+	private double outputScale;
+
+	// The gain of the stages, decimation^stages.
+	private long gain;
+
+	private double output;
+
+	/**
+	 * Initialize a new DecimatingMeanFilter object.
+	 * 
+	 * @param decimation
+	 *            the number of samples for each output, at least 1.
+	 * @param stages
+	 *            the number of stages, at least 1.
+	 */
+	public DecimatingMeanFilter(int decimation, int stages)
+	{
+		configure(decimation, stages);
+	}
+
+	/**
+	 * Filter a sample.
+	 * 
+	 * @param data
+	 *            the sample.
+	 * @return true if the sample completed a block and a new output is
+	 *         available from {@link #getOutput()}.
+	 */
+	public boolean filterFloat(float data)
+	{
+		return filterDouble(data);
+	}
+
+	/**
+	 * Filter a sample.
+	 * 
+	 * @param data
+	 *            the sample.
+	 * @return true if the sample completed a block and a new output is
+	 *         available from {@link #getOutput()}.
+	 */
+	public boolean filterDouble(double data)
+	{
+		long x = Math.round(data * scale);
+
+		if (!primed)
+		{
+			prime(x);
+		}
+
+		return add(x);
+	}
+
+	/**
+	 * Filter a block of samples. An output is written for every block of
+	 * decimation samples completed, so at most length / decimation + 1 outputs
+	 * are written.
+	 * 
+	 * @param in
+	 *            the input data.
+	 * @param offset
+	 *            the offset of the first sample in the input.
+	 * @param length
+	 *            the number of samples to filter.
+	 * @param out
+	 *            the output data.
+	 * @param outOffset
+	 *            the offset of the first output.
+	 * @return the number of outputs written.
+	 */
+	public int filterFloat(float[] in, int offset, int length, float[] out,
+			int outOffset)
+	{
+		if (offset < 0 || length < 0 || offset + length > in.length)
+		{
+			throw new ArrayIndexOutOfBoundsException("Block of " + length
+					+ " samples does not fit the input");
+		}
+
+		int o = outOffset;
+
+		for (int i = offset; i < offset + length; i++)
+		{
+			if (filterDouble(in[i]))
+			{
+				out[o++] = (float) output;
+			}
+		}
+
+		return o - outOffset;
+	}
+
+	/**
+	 * Get the output of the last completed block.
+	 * 
+	 * @return the output.
+	 */
+	public double getOutput()
+	{
+		return output;
+	}
+
+	public int getDecimation()
+	{
+		return decimation;
+	}
+
+	/**
+	 * Set the number of samples for each output. The filter is reset.
+	 * 
+	 * @param decimation
+	 *            the decimation, at least 1.
+	 */
+	public void setDecimation(int decimation)
+	{
+		configure(decimation, stages);
+	}
+
+	public int getStages()
+	{
+		return stages;
+	}
+
+	/**
+	 * Set the number of stages. The filter is reset.
+	 * 
+	 * @param stages
+	 *            the number of stages, at least 1.
+	 */
+	public void setStages(int stages)
+	{
+		configure(decimation, stages);
+	}
+
+	/**
+	 * Get the number of input samples that contribute to an output.
+	 * 
+	 * @return the span of the filter in samples.
+	 */
+	public int getWindowSize()
+	{
+		return stages * (decimation - 1) + 1;
+	}
+
+	/**
+	 * Forget the samples seen so far. The next sample primes the filter.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < stages; i++)
+		{
+			integrators[i] = 0;
+			combs[i] = 0;
+		}
+
+		phase = 0;
+		primed = false;
+		output = 0;
+	}
+
+	/**
+	 * Run a fixed point sample through the integrators, and through the combs
+	 * at the end of a block.
+	 */
+	private boolean add(long x)
+	{
+		long[] integrators = this.integrators;
+
+		for (int i = 0; i < integrators.length; i++)
+		{
+			x += integrators[i];
+			integrators[i] = x;
+		}
+
+		if (++phase < decimation)
+		{
+			return false;
+		}
+
+		phase = 0;
+
+		long[] combs = this.combs;
+
+		for (int i = 0; i < combs.length; i++)
+		{
+			long previous = combs[i];
+			combs[i] = x;
+			x -= previous;
+		}
+
+		output = x * outputScale;
+
+		return true;
+	}
+
+	/**
+	 * Bring the filter to the state it would be in after the input held a
+	 * value forever. The integrators are at zero after a reset and can stay
+	 * there, since the combs only see their differences; the combs take the
+	 * values they would have held, scaled from those of a unit input.
+	 */
+	private void prime(long x)
+	{
+		primed = true;
+
+		for (int i = 0; i < stages; i++)
+		{
+			// Wraps around like the combs themselves.
+			combs[i] = primes[i] * x;
+		}
+
+		// What the combs give for the value once settled.
+		output = x * gain * outputScale;
+	}
+
+	/**
+	 * Compute the comb state of a unit input held forever. Held from the
+	 * start, the last integrator reads C(n + stages - 1, stages) after n
+	 * samples; carried back to a start at n = 0, the value d * t samples
+	 * earlier is (-1)^stages * C(d * t, stages). Comb i holds the i-th
+	 * difference, at a lag of one block, of the last integrator.
+	 */
+	private static long[] primes(int decimation, int stages)
+	{
+		long[] primes = new long[stages];
+
+		for (int i = 0; i < stages; i++)
+		{
+			long sum = 0;
+
+			for (int t = 0; t <= i; t++)
+			{
+				long term = binomial(i, t)
+						* binomial((long) decimation * t, stages);
+
+				sum += ((t & 1) == 0) ? term : -term;
+			}
+
+			primes[i] = ((stages & 1) == 0) ? sum : -sum;
+		}
+
+		return primes;
+	}
+
+	/**
+	 * Compute a binomial coefficient. Exact for the coefficients the
+	 * supported decimations and stages need, which stay below 2^56.
+	 */
+	private static long binomial(long n, int k)
+	{
+		if (k > n)
+		{
+			return 0;
+		}
+
+		long m = Math.min(k, n - k);
+		long c = 1;
+
+		for (long i = 0; i < m; i++)
+		{
+			c = c * (n - i) / (i + 1);
+		}
+
+		return c;
+	}
+
+	private void configure(int decimation, int stages)
+	{
+		if (decimation < 1 || stages < 1)
+		{
+			throw new IllegalArgumentException("Invalid filter: decimation "
+					+ decimation + ", stages " + stages);
+		}
+
+		// The gain of the stages is decimation^stages, which takes at most
+		// stages times the bits of the decimation.
+		double gain = Math.pow(decimation, stages);
+
+		int gainBits = stages * (32 - Integer.numberOfLeadingZeros(decimation));
+
+		int fractionBits = Math.min(MAX_FRACTION_BITS, 62 - INPUT_BITS
+				- gainBits);
+
+		if (fractionBits < MIN_FRACTION_BITS)
+		{
+			throw new IllegalArgumentException("Decimation " + decimation
+					+ " with " + stages + " stages does not fit in fixed point");
+		}
+
+		this.decimation = decimation;
+		this.stages = stages;
+
+		scale = (double) (1L << fractionBits);
+		outputScale = 1.0 / (scale * gain);
+
+		this.gain = (long) gain;
+
+		integrators = new long[stages];
+		combs = new long[stages];
+		primes = primes(decimation, stages);
+
+		reset();
+	}
+}
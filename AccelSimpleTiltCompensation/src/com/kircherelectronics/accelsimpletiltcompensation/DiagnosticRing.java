@@ -0,0 +1,455 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A ring of diagnostic records kept as primitives, to replace logging on the
+ * sensor path. A record holds a timestamp, its kind, the magnitude, threshold
+ * and acceleration count of the engine and its gravity state: whether the
+ * device is taken to be at rest, and the gravity components. Writing a record
+ * is a few array stores and an ordered store of the tail; nothing is
+ * formatted or allocated until the ring is read with {@link #snapshot()}.
+ * 
+ * Each ring has a single writer thread and never waits for a reader: once
+ * full, the oldest records are overwritten. A snapshot can be taken from any
+ * thread and leaves out any record overwritten while it was copied: each slot
+ * starts with the sequence number of its record, which the writer clears
+ * before writing the record and sets after, and the reader checks before and
+ * after copying it. The words of a slot are written with ordered stores and
+ * read with volatile loads, so the copy can't be reordered around either
+ * check.
+ * 
+ * {@link #sample(long, float, double, int, boolean, float[])} records only
+ * every Nth call, a transition of the rest state, or both, so it can be
+ * called for every engine output.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class DiagnosticRing
+{
+	/**
+	 * A sample of the engine state.
+	 */
+	public static final int KIND_SAMPLE = 0;
+
+	/**
+	 * A sample of the engine state recorded because the rest state changed.
+	 */
+	public static final int KIND_TRANSITION = 1;
+
+	/**
+	 * A touch of the plot. The count is the MotionEvent action and the
+	 * magnitude is the zoom of the plot.
+	 */
+	public static final int KIND_TOUCH = 2;
+
+	private static final String[] KIND_NAMES =
+	{ "sample", "transition", "touch" };
+
+	// The float columns of a record: magnitude, threshold and gravity x/y/z.
+	private static final int VALUES = 5;
+
+	// The words of a slot: the sequence number of the record plus one, or 0
+	// while it is written; the timestamp; the kind, rest state and count;
+	// the magnitude and threshold; gravity x and y; gravity z.
+	private static final int WORDS = 6;
+
+	private final int capacity;
+	private final int mask;
+
+	private final AtomicLongArray slots;
+
+	// The number of records written, only written by the writer.
+	private final AtomicLong tail = new AtomicLong();
+
+	// Record every Nth sample, or none if 0.
+	private final int interval;
+
+	// Record the samples at which the rest state changes.
+	private final boolean transitions;
+
+	// The writer's count of samples since the last one recorded by interval.
+	private int skipped;
+
+	// The rest state of the last sample, on the writer.
+	private boolean lastRest;
+
+	/**
+	 * A copy of the records in a ring, oldest first.
+	 */
+	public static class Snapshot
+	{
+		private final long[] timestamps;
+		private final byte[] kinds;
+		private final boolean[] rest;
+		private final int[] counts;
+		private final float[] values;
+
+		// The first valid record in the arrays.
+		private int offset;
+		private int size;
+		private long lost;
+
+		private Snapshot(int capacity)
+		{
+			timestamps = new long[capacity];
+			kinds = new byte[capacity];
+			rest = new boolean[capacity];
+			counts = new int[capacity];
+			values = new float[capacity * VALUES];
+		}
+
+		/**
+		 * Get the number of records.
+		 * 
+		 * @return the number of records.
+		 */
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Get the number of records written before these that have been
+		 * overwritten.
+		 * 
+		 * @return the number of records.
+		 */
+		public long getLost()
+		{
+			return lost;
+		}
+
+		public long getTimestamp(int i)
+		{
+			return timestamps[offset + i];
+		}
+
+		public int getKind(int i)
+		{
+			return kinds[offset + i];
+		}
+
+		public boolean isAtRest(int i)
+		{
+			return rest[offset + i];
+		}
+
+		public int getCount(int i)
+		{
+			return counts[offset + i];
+		}
+
+		public float getMagnitude(int i)
+		{
+			return values[(offset + i) * VALUES];
+		}
+
+		public float getThreshold(int i)
+		{
+			return values[(offset + i) * VALUES + 1];
+		}
+
+		/**
+		 * Get the gravity components of a record.
+		 * 
+		 * @param i
+		 *            the record.
+		 * @param gravity
+		 *            the gravity components.
+		 */
+		public void getGravity(int i, float[] gravity)
+		{
+			System.arraycopy(values, (offset + i) * VALUES + 2, gravity, 0, 3);
+		}
+
+		/**
+		 * Decode a record as a line of text, without the line separator.
+		 * 
+		 * @param i
+		 *            the record.
+		 * @param text
+		 *            the text to append to.
+		 * @return the text.
+		 */
+		public StringBuilder format(int i, StringBuilder text)
+		{
+			i += offset;
+
+			int v = i * VALUES;
+
+			text.append(timestamps[i]).append(' ');
+			text.append(KIND_NAMES[kinds[i]]);
+
+			if (kinds[i] == KIND_TOUCH)
+			{
+				text.append(" action=").append(counts[i]);
+				text.append(" zoom=").append(values[v]);
+
+				return text;
+			}
+
+			text.append(" mag=").append(values[v]);
+			text.append(" thresh=").append(values[v + 1]);
+			text.append(" count=").append(counts[i]);
+			text.append(rest[i] ? " rest" : " moving");
+			text.append(" g=").append(values[v + 2]);
+			text.append(',').append(values[v + 3]);
+			text.append(',').append(values[v + 4]);
+
+			return text;
+		}
+
+		/**
+		 * Decode all the records, one line each.
+		 * 
+		 * @param text
+		 *            the text to append to.
+		 * @return the text.
+		 */
+		public StringBuilder format(StringBuilder text)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				format(i, text).append('\n');
+			}
+
+			return text;
+		}
+	}
+
+	/**
+	 * Initialize a new DiagnosticRing object.
+	 * 
+	 * @param capacity
+	 *            the number of records kept, rounded up to a power of two.
+	 * @param interval
+	 *            record every Nth sample, or 0 for none.
+	 * @param transitions
+	 *            true to record the samples at which the rest state changes.
+	 */
+	public DiagnosticRing(int capacity, int interval, boolean transitions)
+	{
+		if (interval < 0)
+		{
+			throw new IllegalArgumentException("Negative interval " + interval);
+		}
+
+		int size = 1;
+
+		while (size < capacity)
+		{
+			size <<= 1;
+		}
+
+		this.capacity = size;
+		this.mask = size - 1;
+
+		this.interval = interval;
+		this.transitions = transitions;
+
+		slots = new AtomicLongArray(size * WORDS);
+	}
+
+	/**
+	 * Offer a sample of the engine state, called by the writer. The sample
+	 * is recorded if it is the Nth since the last one recorded by interval,
+	 * or if transitions are recorded and the rest state differs from that of
+	 * the last sample.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param magnitude
+	 *            the magnitude of the acceleration.
+	 * @param threshold
+	 *            the threshold.
+	 * @param count
+	 *            the acceleration count.
+	 * @param atRest
+	 *            whether the device is taken to be at rest, so gravity is
+	 *            being updated.
+	 * @param gravity
+	 *            the gravity components.
+	 * @return true if the sample was recorded.
+	 */
+	public boolean sample(long timestamp, float magnitude, double threshold,
+			int count, boolean atRest, float[] gravity)
+	{
+		int kind;
+
+		if (transitions && atRest != lastRest)
+		{
+			kind = KIND_TRANSITION;
+		}
+		else if (interval > 0 && ++skipped >= interval)
+		{
+			kind = KIND_SAMPLE;
+		}
+		else
+		{
+			lastRest = atRest;
+			return false;
+		}
+
+		skipped = 0;
+		lastRest = atRest;
+
+		record(kind, timestamp, count, magnitude, (float) threshold, atRest,
+				gravity[0], gravity[1], gravity[2]);
+
+		return true;
+	}
+
+	/**
+	 * Add a record whatever the sampling, called by the writer.
+	 * 
+	 * @param kind
+	 *            the kind of record, one of the KIND_ constants.
+	 * @param timestamp
+	 *            the timestamp in nanoseconds.
+	 * @param count
+	 *            the acceleration count, or what the kind says.
+	 * @param magnitude
+	 *            the magnitude, or what the kind says.
+	 * @param threshold
+	 *            the threshold.
+	 * @param atRest
+	 *            whether the device is taken to be at rest.
+	 * @param gx
+	 *            the x-axis gravity.
+	 * @param gy
+	 *            the y-axis gravity.
+	 * @param gz
+	 *            the z-axis gravity.
+	 */
+	public void record(int kind, long timestamp, int count, float magnitude,
+			float threshold, boolean atRest, float gx, float gy, float gz)
+	{
+		long t = tail.get();
+
+		int w = ((int) t & mask) * WORDS;
+
+		// Ordered stores: a reader that sees any of the new words sees the
+		// cleared sequence number too.
+		slots.lazySet(w, 0);
+
+		slots.lazySet(w + 1, timestamp);
+		slots.lazySet(w + 2, ((long) count << 32) | (atRest ? 0x100 : 0)
+				| (kind & 0xFF));
+		slots.lazySet(w + 3, pack(magnitude, threshold));
+		slots.lazySet(w + 4, pack(gx, gy));
+		slots.lazySet(w + 5, pack(gz, 0));
+
+		slots.lazySet(w, t + 1);
+
+		// Publish the record after it has been written.
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Copy the records in the ring, from any thread.
+	 * 
+	 * @return the records, oldest first.
+	 */
+	public Snapshot snapshot()
+	{
+		long end = tail.get();
+		long start = Math.max(0, end - capacity);
+
+		int n = (int) (end - start);
+
+		Snapshot snapshot = new Snapshot(n);
+
+		// The writer overwrites the oldest records first, so any record
+		// overwritten while it was copied is older than those that weren't.
+		int skip = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			long sequence = start + i + 1;
+
+			int w = ((int) (start + i) & mask) * WORDS;
+
+			if (slots.get(w) != sequence)
+			{
+				skip = i + 1;
+				continue;
+			}
+
+			long packed = slots.get(w + 2);
+
+			snapshot.timestamps[i] = slots.get(w + 1);
+			snapshot.kinds[i] = (byte) packed;
+			snapshot.rest[i] = (packed & 0x100) != 0;
+			snapshot.counts[i] = (int) (packed >> 32);
+
+			unpack(slots.get(w + 3), snapshot.values, i * VALUES);
+			unpack(slots.get(w + 4), snapshot.values, i * VALUES + 2);
+
+			snapshot.values[i * VALUES + 4] = Float.intBitsToFloat((int) (slots
+					.get(w + 5) >>> 32));
+
+			if (slots.get(w) != sequence)
+			{
+				skip = i + 1;
+			}
+		}
+
+		snapshot.offset = skip;
+		snapshot.size = n - skip;
+		snapshot.lost = start + skip;
+
+		return snapshot;
+	}
+
+	/**
+	 * Pack two floats into a word, the first in the high half.
+	 */
+	private static long pack(float high, float low)
+	{
+		return ((long) Float.floatToRawIntBits(high) << 32)
+				| (Float.floatToRawIntBits(low) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Unpack the two floats of a word into consecutive elements.
+	 */
+	private static void unpack(long word, float[] out, int index)
+	{
+		out[index] = Float.intBitsToFloat((int) (word >>> 32));
+		out[index + 1] = Float.intBitsToFloat((int) word);
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Get the number of records written since the ring was created.
+	 * 
+	 * @return the number of records.
+	 */
+	public long getRecorded()
+	{
+		return tail.get();
+	}
+}
@@ -0,0 +1,207 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A fixed capacity ring buffer of float frames, one column per channel. Adding
+ * a frame overwrites the oldest frame once the ring is full, so the memory
+ * used never grows past the capacity.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class FloatRingBuffer
+{
+	private int columns;
+	private int capacity;
+
+	// The frames, [column * capacity + slot].
+	private float[] data;
+
+	// The next slot to write.
+	private int head;
+
+	// The number of frames in the ring.
+	private int size;
+
+	// The number of frames ever added.
+	private long total;
+
+	/**
+	 * Initialize a new FloatRingBuffer object.
+	 * 
+	 * @param columns
+	 *            the number of columns in each frame.
+	 * @param capacity
+	 *            the maximum number of frames.
+	 */
+	public FloatRingBuffer(int columns, int capacity)
+	{
+		if (columns < 1 || capacity < 1)
+		{
+			throw new IllegalArgumentException("Invalid ring buffer size: "
+					+ columns + " columns, capacity " + capacity);
+		}
+
+		this.columns = columns;
+		this.capacity = capacity;
+
+		data = new float[columns * capacity];
+	}
+
+	/**
+	 * Add a frame, overwriting the oldest frame if the ring is full.
+	 * 
+	 * @param frame
+	 *            the frame, one value per column.
+	 */
+	public void add(float[] frame)
+	{
+		for (int c = 0; c < columns; c++)
+		{
+			data[c * capacity + head] = frame[c];
+		}
+
+		if (++head == capacity)
+		{
+			head = 0;
+		}
+
+		if (size < capacity)
+		{
+			size++;
+		}
+
+		total++;
+	}
+
+	/**
+	 * Get a value.
+	 * 
+	 * @param column
+	 *            the column.
+	 * @param index
+	 *            the index of the frame, 0 is the oldest.
+	 * @return the value.
+	 */
+	public float get(int column, int index)
+	{
+		int slot = head - size + index;
+
+		if (slot < 0)
+		{
+			slot += capacity;
+		}
+
+		return data[column * capacity + slot];
+	}
+
+	/**
+	 * Set a value.
+	 * 
+	 * @param column
+	 *            the column.
+	 * @param index
+	 *            the index of the frame, 0 is the oldest.
+	 * @param value
+	 *            the value.
+	 */
+	public void set(int column, int index, float value)
+	{
+		int slot = head - size + index;
+
+		if (slot < 0)
+		{
+			slot += capacity;
+		}
+
+		data[column * capacity + slot] = value;
+	}
+
+	/**
+	 * Remove all of the frames.
+	 */
+	public void clear()
+	{
+		head = 0;
+		size = 0;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public int getColumns()
+	{
+		return columns;
+	}
+
+	/**
+	 * Get the number of frames ever added, including those that have since
+	 * been overwritten.
+	 * 
+	 * @return the number of frames added.
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * Change the capacity, keeping the most recent frames that fit.
+	 * 
+	 * @param capacity
+	 *            the new maximum number of frames.
+	 */
+	public void setCapacity(int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Invalid capacity: "
+					+ capacity);
+		}
+
+		int keep = Math.min(size, capacity);
+
+		float[] resized = new float[columns * capacity];
+
+		for (int c = 0; c < columns; c++)
+		{
+			for (int i = 0; i < keep; i++)
+			{
+				resized[c * capacity + i] = get(c, size - keep + i);
+			}
+		}
+
+		this.data = resized;
+		this.capacity = capacity;
+
+		size = keep;
+		head = keep % capacity;
+	}
+
+	/**
+	 * Get the number of frames in the ring.
+	 * 
+	 * @return the number of frames.
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
@@ -0,0 +1,59 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates the gravity components of the acceleration signal, one sample at
+ * a time. An estimator keeps a constant amount of state and must not allocate
+ * while updating.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public interface GravityEstimator
+{
+	/**
+	 * Update the estimate with an acceleration sample.
+	 * 
+	 * @param ax
+	 *            the x-axis acceleration.
+	 * @param ay
+	 *            the y-axis acceleration.
+	 * @param az
+	 *            the z-axis acceleration.
+	 * @param dt
+	 *            the time since the last sample in seconds.
+	 * @param magnitude
+	 *            the magnitude of the acceleration, normalized to gravity.
+	 * @param steady
+	 *            true if the device has been free of linear acceleration for
+	 *            the count threshold.
+	 * @param gravity
+	 *            the estimate, updated in place.
+	 */
+	public void update(float ax, float ay, float az, float dt,
+			float magnitude, boolean steady, float[] gravity);
+
+	/**
+	 * Restart the estimator from an estimate, when it is switched in.
+	 * 
+	 * @param gravity
+	 *            the current estimate.
+	 */
+	public void reset(float[] gravity);
+}
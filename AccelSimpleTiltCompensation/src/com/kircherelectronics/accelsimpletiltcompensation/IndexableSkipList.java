@@ -0,0 +1,332 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A sorted multiset of doubles that can be indexed by rank, built as an
+ * indexable skip list over primitive arrays. Inserting, removing and finding
+ * the value at a rank all take O(log n) expected time, and nothing is
+ * allocated after construction. NaN is not supported.
+ * 
+ * Each link records how many positions it skips, so a lookup by rank walks
+ * down the levels the same way a lookup by value does.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class IndexableSkipList
+{
+	// The end of a list.
+	private static final int NIL = -1;
+
+	// The head node, which holds no value.
+	private static final int HEAD = 0;
+
+	private final int capacity;
+
+	// The number of levels.
+	private final int levels;
+
+	private final double[] values;
+
+	// The next node and the width of the link for each node and level,
+	// [node * levels + level].
+	private final int[] next;
+	private final int[] width;
+
+	// The free nodes, linked through level 0 of next.
+	private int free;
+
+	private int size;
+
+	// The state of the level generator.
+	private int seed = 0x2545F491;
+
+	// Scratch space for insert and remove.
+	private final int[] chain;
+	private final int[] steps;
+
+	/**
+	 * Initialize a new IndexableSkipList object.
+	 * 
+	 * @param capacity
+	 *            the largest number of values held at once.
+	 */
+	public IndexableSkipList(int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Capacity must be at least 1: "
+					+ capacity);
+		}
+
+		this.capacity = capacity;
+
+		// Enough levels for O(log n) with a probability of 1/2 per level.
+		this.levels = 33 - Integer.numberOfLeadingZeros(capacity);
+
+		values = new double[capacity + 1];
+		next = new int[(capacity + 1) * levels];
+		width = new int[(capacity + 1) * levels];
+
+		chain = new int[levels];
+		steps = new int[levels];
+
+		clear();
+	}
+
+	/**
+	 * Remove all of the values.
+	 */
+	public void clear()
+	{
+		for (int l = 0; l < levels; l++)
+		{
+			next[HEAD * levels + l] = NIL;
+			width[HEAD * levels + l] = 1;
+		}
+
+		for (int n = 1; n < capacity; n++)
+		{
+			next[n * levels] = n + 1;
+		}
+
+		next[capacity * levels] = NIL;
+
+		free = 1;
+		size = 0;
+	}
+
+	/**
+	 * Insert a value. Equal values are kept in the order they were inserted.
+	 * 
+	 * @param value
+	 *            the value, not NaN.
+	 * @throws IllegalArgumentException
+	 *             if the value is NaN, which could never be removed.
+	 * @throws IllegalStateException
+	 *             if the list is full.
+	 */
+	public void insert(double value)
+	{
+		if (value != value)
+		{
+			throw new IllegalArgumentException("NaN can't be ordered");
+		}
+
+		if (size == capacity)
+		{
+			throw new IllegalStateException("The list is full: " + capacity);
+		}
+
+		int node = free;
+		free = next[node * levels];
+
+		values[node] = value;
+
+		// Find the last node no greater than the value on each level, and the
+		// position it is at.
+		int n = HEAD;
+		int position = 0;
+
+		for (int l = levels - 1; l >= 0; l--)
+		{
+			int i = n * levels + l;
+
+			while (next[i] != NIL && values[next[i]] <= value)
+			{
+				position += width[i];
+				n = next[i];
+				i = n * levels + l;
+			}
+
+			chain[l] = n;
+			steps[l] = position;
+		}
+
+		int level = randomLevel();
+
+		for (int l = 0; l < levels; l++)
+		{
+			int p = chain[l] * levels + l;
+
+			if (l < level)
+			{
+				int i = node * levels + l;
+
+				// Split the link of the node before into two.
+				next[i] = next[p];
+				next[p] = node;
+
+				width[i] = width[p] - (position - steps[l]);
+				width[p] = position - steps[l] + 1;
+			}
+			else
+			{
+				// The link passes over the new node.
+				width[p]++;
+			}
+		}
+
+		size++;
+	}
+
+	/**
+	 * Remove one occurrence of a value.
+	 * 
+	 * @param value
+	 *            the value.
+	 * @return true if the value was found.
+	 */
+	public boolean remove(double value)
+	{
+		// Find the last node less than the value on each level.
+		int n = HEAD;
+
+		for (int l = levels - 1; l >= 0; l--)
+		{
+			int i = n * levels + l;
+
+			while (next[i] != NIL && values[next[i]] < value)
+			{
+				n = next[i];
+				i = n * levels + l;
+			}
+
+			chain[l] = n;
+		}
+
+		int target = next[chain[0] * levels];
+
+		if (target == NIL || values[target] != value)
+		{
+			return false;
+		}
+
+		for (int l = 0; l < levels; l++)
+		{
+			int p = chain[l] * levels + l;
+
+			if (next[p] == target)
+			{
+				// Join the links on either side of the node.
+				int i = target * levels + l;
+
+				width[p] += width[i] - 1;
+				next[p] = next[i];
+			}
+			else
+			{
+				width[p]--;
+			}
+		}
+
+		next[target * levels] = free;
+		free = target;
+
+		size--;
+
+		return true;
+	}
+
+	/**
+	 * Get the value at a rank.
+	 * 
+	 * @param rank
+	 *            the rank, 0 for the smallest value.
+	 * @return the value.
+	 */
+	public double get(int rank)
+	{
+		if (rank < 0 || rank >= size)
+		{
+			throw new IndexOutOfBoundsException("Rank " + rank + ", size "
+					+ size);
+		}
+
+		int n = HEAD;
+		int remaining = rank + 1;
+
+		for (int l = levels - 1; l >= 0; l--)
+		{
+			int i = n * levels + l;
+
+			while (next[i] != NIL && width[i] <= remaining)
+			{
+				remaining -= width[i];
+				n = next[i];
+				i = n * levels + l;
+			}
+		}
+
+		return values[n];
+	}
+
+	/**
+	 * Get a quantile of the values, interpolating linearly between ranks.
+	 * 
+	 * @param q
+	 *            the quantile, from 0 to 1.
+	 * @return the value, or NaN if the list is empty.
+	 */
+	public double quantile(double q)
+	{
+		if (size == 0)
+		{
+			return Double.NaN;
+		}
+
+		double rank = q * (size - 1);
+
+		int below = (int) rank;
+
+		if (below == rank)
+		{
+			return get(below);
+		}
+
+		double v0 = get(below);
+		double v1 = get(below + 1);
+
+		return v0 + (v1 - v0) * (rank - below);
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Pick the number of levels for a new node, with a probability of 1/2
+	 * for each level above the first.
+	 */
+	private int randomLevel()
+	{
+		// Xorshift.
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+
+		return Math.min(levels, 1 + Integer.numberOfTrailingZeros(seed));
+	}
+}
@@ -0,0 +1,230 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A fixed size histogram of latencies in nanoseconds with log-linear buckets.
+ * Values below 16 get a bucket each; above that each power of two is split
+ * into 16 linear buckets, so a percentile is accurate to within about 6%.
+ * Values of 2^40 ns (about 18 minutes) and above share the last bucket.
+ * 
+ * The histogram has a single writer. Recording a value is lock free and does
+ * not allocate, and a snapshot can be taken from any thread while values are
+ * being recorded.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class LatencyHistogram
+{
+	// The number of bits of each value that select the linear bucket.
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// The largest power of two with its own buckets.
+	private static final int MAX_EXPONENT = 40;
+
+	/**
+	 * The number of buckets.
+	 */
+	public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)
+			* SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value. Only call from the writer thread.
+	 * 
+	 * @param value
+	 *            the latency in nanoseconds.
+	 */
+	public void record(long value)
+	{
+		int bucket = bucketFor(value);
+
+		// There is a single writer, so a plain increment published with
+		// lazySet is enough.
+		counts.lazySet(bucket, counts.get(bucket) + 1);
+
+		if (value > max.get())
+		{
+			max.lazySet(value);
+		}
+	}
+
+	/**
+	 * Clear the histogram. Only call while nothing is being recorded.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts.set(i, 0);
+		}
+
+		max.set(0);
+	}
+
+	/**
+	 * Copy the histogram into a snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot to fill, or null to allocate a new one.
+	 * @return the snapshot.
+	 */
+	public Snapshot snapshot(Snapshot snapshot)
+	{
+		if (snapshot == null)
+		{
+			snapshot = new Snapshot();
+		}
+
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			long c = counts.get(i);
+
+			snapshot.counts[i] = c;
+			count += c;
+		}
+
+		snapshot.count = count;
+		snapshot.max = max.get();
+
+		return snapshot;
+	}
+
+	/**
+	 * Find the bucket for a value.
+	 * 
+	 * @param value
+	 *            the value.
+	 * @return the bucket.
+	 */
+	static int bucketFor(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (value < 0) ? 0 : (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+		if (exponent > MAX_EXPONENT)
+		{
+			return BUCKETS - 1;
+		}
+
+		int shift = exponent - SUB_BUCKET_BITS;
+
+		return ((shift + 1) << SUB_BUCKET_BITS)
+				+ (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Get the largest value that falls in a bucket.
+	 * 
+	 * @param bucket
+	 *            the bucket.
+	 * @return the value.
+	 */
+	static long highestValueIn(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+
+		int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+		long sub = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * A copy of a histogram at a point in time.
+	 */
+	public static class Snapshot
+	{
+		private final long[] counts = new long[BUCKETS];
+
+		private long count;
+		private long max;
+
+		/**
+		 * Get the number of values recorded.
+		 * 
+		 * @return the count.
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * Get the largest value recorded.
+		 * 
+		 * @return the value in nanoseconds.
+		 */
+		public long getMax()
+		{
+			return max;
+		}
+
+		/**
+		 * Get a percentile of the values recorded. The result is the upper
+		 * end of the bucket the percentile falls in, but no more than the
+		 * largest value.
+		 * 
+		 * @param percentile
+		 *            the percentile, from 0 to 100.
+		 * @return the value in nanoseconds, or 0 if nothing was recorded.
+		 */
+		public long getPercentile(double percentile)
+		{
+			if (count == 0)
+			{
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(percentile / 100 * count);
+
+			rank = Math.max(1, Math.min(count, rank));
+
+			long seen = 0;
+
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				seen += counts[i];
+
+				if (seen >= rank)
+				{
+					return Math.min(highestValueIn(i), max);
+				}
+			}
+
+			return max;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates gravity with a first order IIR low-pass filter. The filter
+ * coefficient is found from the time constant and the sample period, so the
+ * response does not depend on the sample rate.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class LowPassGravityEstimator implements GravityEstimator
+{
+	// The time constant of the filter in seconds.
+	private float timeConstant = 0.3f;
+
+	@Override
+	public void update(float ax, float ay, float az, float dt,
+			float magnitude, boolean steady, float[] gravity)
+	{
+		if (dt <= 0)
+		{
+			return;
+		}
+
+		float alpha = dt / (timeConstant + dt);
+
+		gravity[0] += alpha * (ax - gravity[0]);
+		gravity[1] += alpha * (ay - gravity[1]);
+		gravity[2] += alpha * (az - gravity[2]);
+	}
+
+	@Override
+	public void reset(float[] gravity)
+	{
+		// The estimate is the only state.
+	}
+
+	public float getTimeConstant()
+	{
+		return timeConstant;
+	}
+
+	/**
+	 * Set the time constant of the filter.
+	 * 
+	 * @param timeConstant
+	 *            the time constant in seconds, greater than 0.
+	 */
+	public void setTimeConstant(float timeConstant)
+	{
+		if (!(timeConstant > 0))
+		{
+			throw new IllegalArgumentException(
+					"Time constant must be greater than 0: " + timeConstant);
+		}
+
+		this.timeConstant = timeConstant;
+	}
+}
@@ -1,8 +1,8 @@
 package com.kircherelectronics.accelsimpletiltcompensation;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.List;
 
 /*
  * Copyright 2013, Kircher Electronics
@@ -22,10 +22,16 @@ import java.util.List;
 
 /**
  * Implements a mean filter designed to smooth the data points based on a mean.
- * 
+ *
+ * Each channel keeps its history in a primitive ring buffer along with a
+ * running sum, so an update costs O(1) regardless of the window size and does
+ * not allocate. The running sum is recomputed from the ring every time the
+ * write index wraps around, which keeps floating point drift from building up
+ * over long runs.
+ *
  * @author Kaleb
  * @version 1.0
- * 
+ *
  */
 public class MeanFilter
 {
@@ -34,192 +40,566 @@ public class MeanFilter
 
 	private boolean dataInit;
 
-	private ArrayList<LinkedList<Number>> dataLists;
+	// The number of channels, set by the widest frame filtered so far.
+	private int channels;
+
+	// The ring buffer for each channel, [channel][sample].
+	private double[][] rings;
+
+	// The running sum of the samples currently in each ring.
+	private double[] sums;
+
+	// The next write index for each ring.
+	private int[] heads;
+
+	// The number of valid samples in each ring.
+	private int[] counts;
 
 	/**
 	 * Initialize a new MeanFilter object.
 	 */
 	public MeanFilter()
 	{
-		dataLists = new ArrayList<LinkedList<Number>>();
 		dataInit = false;
+		channels = 0;
 	}
 
 	/**
 	 * Filter the data.
-	 * 
-	 * @param iterator
+	 *
+	 * @param data
 	 *            contains input the data.
 	 * @return the filtered output data.
 	 */
 	public float filterFloat(float data)
 	{
-		// Initialize the data structures for the data set.
-		if (!dataInit)
-		{
-			dataLists.add(new LinkedList<Number>());
-		}
-
-		dataLists.get(0).addLast(data);
+		initChannels(1);
 
-		if (dataLists.get(0).size() > filterWindow)
-		{
-			dataLists.get(0).removeFirst();
-		}
+		return (float) add(0, data);
+	}
 
-		dataInit = true;
+	/**
+	 * Filter the data.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the filtered output data.
+	 */
+	public float[] filterFloat(float[] data)
+	{
+		initChannels(data.length);
 
-		float[] means = new float[dataLists.size()];
+		float[] means = new float[data.length];
 
-		for (int i = 0; i < dataLists.size(); i++)
+		for (int i = 0; i < data.length; i++)
 		{
-			means[i] = (float) getMean(dataLists.get(i));
+			means[i] = (float) add(i, data[i]);
 		}
 
-		return means[0];
+		return means;
 	}
 
 	/**
 	 * Filter the data.
-	 * 
-	 * @param iterator
+	 *
+	 * @param data
 	 *            contains input the data.
 	 * @return the filtered output data.
 	 */
-	public float[] filterFloat(float[] data)
+	public double filterDouble(double data)
 	{
+		initChannels(1);
+
+		return add(0, data);
+	}
+
+	/**
+	 * Filter the data.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the filtered output data.
+	 */
+	public double[] filterDouble(double[] data)
+	{
+		initChannels(data.length);
+
+		double[] means = new double[data.length];
+
 		for (int i = 0; i < data.length; i++)
 		{
-			// Initialize the data structures for the data set.
-			if (!dataInit)
-			{
-				dataLists.add(new LinkedList<Number>());
-			}
+			means[i] = add(i, data[i]);
+		}
 
-			dataLists.get(i).addLast(data[i]);
+		return means;
+	}
+
+	/**
+	 * Filter a block of interleaved frames. Frame f, channel c is read from
+	 * in[offset + f * channels + c] and its mean is written to the same
+	 * position in out, starting at outOffset. The output is identical to
+	 * calling {@link #filterFloat(float[])} once per frame, but nothing is
+	 * allocated and each channel is processed in a single tight loop.
+	 *
+	 * @param in
+	 *            the interleaved input data.
+	 * @param offset
+	 *            the offset of the first frame in the input.
+	 * @param frames
+	 *            the number of frames to filter.
+	 * @param channels
+	 *            the number of channels in each frame.
+	 * @param out
+	 *            the interleaved output data.
+	 * @param outOffset
+	 *            the offset of the first frame in the output.
+	 */
+	public void filterFloat(float[] in, int offset, int frames, int channels,
+			float[] out, int outOffset)
+	{
+		checkBlock(in.length, offset, out.length, outOffset, frames, channels);
+
+		initChannels(channels);
 
-			if (dataLists.get(i).size() > filterWindow)
+		for (int c = 0; c < channels; c++)
+		{
+			// Keep the channel state in locals for the length of the block.
+			double[] ring = rings[c];
+			double sum = sums[c];
+			int head = heads[c];
+			int count = counts[c];
+			int window = filterWindow;
+
+			int i = offset + c;
+			int o = outOffset + c;
+
+			for (int f = 0; f < frames; f++)
 			{
-				dataLists.get(i).removeFirst();
+				double value = in[i];
+
+				if (count == window)
+				{
+					sum += value - ring[head];
+				}
+				else
+				{
+					sum += value;
+					count++;
+				}
+
+				ring[head] = value;
+
+				if (++head == window)
+				{
+					head = 0;
+					sum = sumRing(ring, count);
+				}
+
+				out[o] = (float) (sum / count);
+
+				i += channels;
+				o += channels;
 			}
+
+			sums[c] = sum;
+			heads[c] = head;
+			counts[c] = count;
 		}
+	}
 
-		dataInit = true;
+	/**
+	 * Filter a block of interleaved frames. Frame f, channel c is read from
+	 * in[offset + f * channels + c] and its mean is written to the same
+	 * position in out, starting at outOffset. The output is identical to
+	 * calling {@link #filterDouble(double[])} once per frame, but nothing is
+	 * allocated and each channel is processed in a single tight loop.
+	 *
+	 * @param in
+	 *            the interleaved input data.
+	 * @param offset
+	 *            the offset of the first frame in the input.
+	 * @param frames
+	 *            the number of frames to filter.
+	 * @param channels
+	 *            the number of channels in each frame.
+	 * @param out
+	 *            the interleaved output data.
+	 * @param outOffset
+	 *            the offset of the first frame in the output.
+	 */
+	public void filterDouble(double[] in, int offset, int frames,
+			int channels, double[] out, int outOffset)
+	{
+		checkBlock(in.length, offset, out.length, outOffset, frames, channels);
 
-		float[] means = new float[dataLists.size()];
+		initChannels(channels);
 
-		for (int i = 0; i < dataLists.size(); i++)
+		for (int c = 0; c < channels; c++)
 		{
-			means[i] = (float) getMean(dataLists.get(i));
-		}
+			// Keep the channel state in locals for the length of the block.
+			double[] ring = rings[c];
+			double sum = sums[c];
+			int head = heads[c];
+			int count = counts[c];
+			int window = filterWindow;
 
-		return means;
+			int i = offset + c;
+			int o = outOffset + c;
+
+			for (int f = 0; f < frames; f++)
+			{
+				double value = in[i];
+
+				if (count == window)
+				{
+					sum += value - ring[head];
+				}
+				else
+				{
+					sum += value;
+					count++;
+				}
+
+				ring[head] = value;
+
+				if (++head == window)
+				{
+					head = 0;
+					sum = sumRing(ring, count);
+				}
+
+				out[o] = sum / count;
+
+				i += channels;
+				o += channels;
+			}
+
+			sums[c] = sum;
+			heads[c] = head;
+			counts[c] = count;
+		}
 	}
-	
+
 	/**
-	 * Filter the data.
-	 * 
-	 * @param iterator
-	 *            contains input the data.
-	 * @return the filtered output data.
+	 * Get a copy of the data currently held by the filter, oldest sample
+	 * first. This allocates and is intended for inspection only.
+	 *
+	 * @return a list of samples for each channel.
 	 */
-	public double filterDouble(double data)
+	public ArrayList<LinkedList<Number>> getDataLists()
 	{
-		// Initialize the data structures for the data set.
-		if (!dataInit)
+		ArrayList<LinkedList<Number>> dataLists = new ArrayList<LinkedList<Number>>();
+
+		for (int i = 0; i < channels; i++)
 		{
-			dataLists.add(new LinkedList<Number>());
+			LinkedList<Number> list = new LinkedList<Number>();
+
+			int start = heads[i] - counts[i];
+
+			for (int j = 0; j < counts[i]; j++)
+			{
+				list.addLast(rings[i][wrap(start + j)]);
+			}
+
+			dataLists.add(list);
 		}
 
-		dataLists.get(0).addLast(data);
+		return dataLists;
+	}
 
-		if (dataLists.get(0).size() > filterWindow)
+	/**
+	 * Get the number of bytes {@link #saveState(ByteBuffer)} writes.
+	 * 
+	 * @return the size of the state.
+	 */
+	public int getStateSize()
+	{
+		int size = 8;
+
+		for (int i = 0; i < channels; i++)
 		{
-			dataLists.get(0).removeFirst();
+			size += 4 + counts[i] * 8;
 		}
 
-		dataInit = true;
+		return size;
+	}
 
-		double[] means = new double[dataLists.size()];
+	/**
+	 * Write the window size and the samples of each channel, oldest first, so
+	 * a new filter can carry on from them.
+	 * 
+	 * <pre>
+	 * int window
+	 * int channels
+	 * per channel: int count, count doubles
+	 * </pre>
+	 * 
+	 * @param buffer
+	 *            the buffer, with room for {@link #getStateSize()} bytes.
+	 */
+	public void saveState(ByteBuffer buffer)
+	{
+		buffer.putInt(filterWindow);
+		buffer.putInt(channels);
 
-		for (int i = 0; i < dataLists.size(); i++)
+		for (int i = 0; i < channels; i++)
 		{
-			means[i] = (float) getMean(dataLists.get(i));
-		}
+			buffer.putInt(counts[i]);
+
+			int start = heads[i] - counts[i];
 
-		return means[0];
+			for (int j = 0; j < counts[i]; j++)
+			{
+				buffer.putDouble(rings[i][wrap(start + j)]);
+			}
+		}
 	}
 
 	/**
-	 * Filter the data.
+	 * Replace the window size and samples with the state written by
+	 * {@link #saveState(ByteBuffer)}.
 	 * 
-	 * @param iterator
-	 *            contains input the data.
-	 * @return the filtered output data.
+	 * @param buffer
+	 *            the buffer.
 	 */
-	public double[] filterDouble(double[] data)
+	public void restoreState(ByteBuffer buffer)
 	{
-		for (int i = 0; i < data.length; i++)
+		int window = buffer.getInt();
+		int size = buffer.getInt();
+
+		if (window < 1 || size < 0)
+		{
+			throw new IllegalArgumentException("Invalid filter state: window "
+					+ window + ", channels " + size);
+		}
+
+		// Read everything before replacing anything, so a bad state leaves
+		// the filter as it was.
+		double[][] rings = new double[size][];
+		double[] sums = new double[size];
+		int[] heads = new int[size];
+		int[] counts = new int[size];
+
+		for (int i = 0; i < size; i++)
 		{
-			// Initialize the data structures for the data set.
-			if (!dataInit)
+			int count = buffer.getInt();
+
+			if (count < 0 || count > window)
 			{
-				dataLists.add(new LinkedList<Number>());
+				throw new IllegalArgumentException(
+						"Invalid filter state: count " + count);
 			}
 
-			dataLists.get(i).addLast(data[i]);
+			rings[i] = new double[window];
 
-			if (dataLists.get(i).size() > filterWindow)
+			for (int j = 0; j < count; j++)
 			{
-				dataLists.get(i).removeFirst();
+				rings[i][j] = buffer.getDouble();
 			}
+
+			counts[i] = count;
+			heads[i] = count % window;
+			sums[i] = sumRing(rings[i], count);
 		}
 
-		dataInit = true;
+		this.rings = rings;
+		this.sums = sums;
+		this.heads = heads;
+		this.counts = counts;
 
-		double[] means = new double[dataLists.size()];
+		filterWindow = window;
+		channels = size;
+		dataInit = size > 0;
+	}
 
-		for (int i = 0; i < dataLists.size(); i++)
+	/**
+	 * Get the size of the mean filters rolling window.
+	 *
+	 * @return the window size.
+	 */
+	public int getWindowSize()
+	{
+		return filterWindow;
+	}
+
+	/**
+	 * Set the size of the mean filters rolling window. The window can be
+	 * resized at any time; the most recent samples are kept, up to the new
+	 * window size.
+	 *
+	 * @param size
+	 *            the window size, at least 1.
+	 */
+	public void setWindowSize(int size)
+	{
+		if (size < 1)
 		{
-			means[i] = getMean(dataLists.get(i));
+			throw new IllegalArgumentException("Window size must be at least 1: "
+					+ size);
 		}
 
-		return means;
+		if (dataInit && size != filterWindow)
+		{
+			for (int i = 0; i < channels; i++)
+			{
+				int keep = Math.min(counts[i], size);
+				int start = heads[i] - keep;
+
+				double[] ring = new double[size];
+
+				for (int j = 0; j < keep; j++)
+				{
+					ring[j] = rings[i][wrap(start + j)];
+				}
+
+				rings[i] = ring;
+				counts[i] = keep;
+				heads[i] = keep % size;
+				sums[i] = sumRing(ring, keep);
+			}
+		}
+
+		this.filterWindow = size;
 	}
-	
-	public ArrayList<LinkedList<Number>> getDataLists()
+
+	/**
+	 * Add a sample to a channel and get the new mean of the channel.
+	 *
+	 * @param channel
+	 *            the channel.
+	 * @param value
+	 *            the sample.
+	 * @return the mean of the channel.
+	 */
+	private double add(int channel, double value)
 	{
-		return dataLists;
+		double[] ring = rings[channel];
+		int head = heads[channel];
+		int count = counts[channel];
+
+		if (count == filterWindow)
+		{
+			// The ring is full, the oldest sample is overwritten.
+			sums[channel] += value - ring[head];
+		}
+		else
+		{
+			sums[channel] += value;
+			count++;
+			counts[channel] = count;
+		}
+
+		ring[head] = value;
+
+		head++;
+
+		if (head == filterWindow)
+		{
+			head = 0;
+
+			// Re-sum once per pass of the ring to correct for drift.
+			sums[channel] = sumRing(ring, count);
+		}
+
+		heads[channel] = head;
+
+		return sums[channel] / count;
 	}
 
 	/**
-	 * Get the mean of the data set.
-	 * 
-	 * @param data
-	 *            the data set.
-	 * @return the mean of the data set.
+	 * Initialize the data structures for the data set. The number of channels
+	 * can grow, but never shrinks.
+	 *
+	 * @param size
+	 *            the number of channels in the data set.
 	 */
-	private float getMean(List<Number> data)
+	private void initChannels(int size)
 	{
-		float m = 0;
-		float count = 0;
+		if (dataInit && size <= channels)
+		{
+			return;
+		}
+
+		double[][] rings = new double[size][];
+		double[] sums = new double[size];
+		int[] heads = new int[size];
+		int[] counts = new int[size];
 
-		for (int i = 0; i < data.size(); i++)
+		if (dataInit)
 		{
-			m += data.get(i).floatValue();
-			count++;
+			System.arraycopy(this.rings, 0, rings, 0, channels);
+			System.arraycopy(this.sums, 0, sums, 0, channels);
+			System.arraycopy(this.heads, 0, heads, 0, channels);
+			System.arraycopy(this.counts, 0, counts, 0, channels);
 		}
 
-		if (count != 0)
+		for (int i = channels; i < size; i++)
 		{
-			m = m / count;
+			rings[i] = new double[filterWindow];
 		}
 
-		return m;
+		this.rings = rings;
+		this.sums = sums;
+		this.heads = heads;
+		this.counts = counts;
+
+		channels = size;
+		dataInit = true;
 	}
 
-	public void setWindowSize(int size)
+	/**
+	 * Make sure a block fits in the input and output arrays.
+	 */
+	private static void checkBlock(int inLength, int offset, int outLength,
+			int outOffset, int frames, int channels)
 	{
-		this.filterWindow = size;
+		if (channels < 1 || frames < 0 || offset < 0 || outOffset < 0)
+		{
+			throw new IllegalArgumentException("Invalid block: offset "
+					+ offset + ", frames " + frames + ", channels " + channels);
+		}
+
+		long samples = (long) frames * channels;
+
+		if (offset + samples > inLength || outOffset + samples > outLength)
+		{
+			throw new ArrayIndexOutOfBoundsException("Block of " + frames
+					+ " frames does not fit the input or output");
+		}
+	}
+
+	/**
+	 * Wrap an index into the ring.
+	 *
+	 * @param index
+	 *            the index, may be negative.
+	 * @return the index in the ring.
+	 */
+	private int wrap(int index)
+	{
+		int i = index % filterWindow;
+
+		return (i < 0) ? i + filterWindow : i;
+	}
+
+	/**
+	 * Sum the first count samples of the ring.
+	 *
+	 * @param ring
+	 *            the ring.
+	 * @param count
+	 *            the number of samples.
+	 * @return the sum.
+	 */
+	private static double sumRing(double[] ring, int count)
+	{
+		double s = 0;
+
+		for (int i = 0; i < count; i++)
+		{
+			s += ring[i];
+		}
+
+		return s;
 	}
 }
@@ -0,0 +1,467 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A robust companion to the MeanFilter: a sliding median, and a Hampel
+ * filter that replaces outliers with the median. A sample is an outlier when
+ * it is further from the median of the window than the threshold times a
+ * robust estimate of the standard deviation. The estimate is the
+ * interquartile range divided by 1.349, which is consistent with the standard
+ * deviation for normal data like the usual 1.4826 MAD, but can be read
+ * straight from the order statistics. The estimate has a floor, so a
+ * quantized signal at rest, whose interquartile range is zero, doesn't make
+ * every sample off the median an outlier.
+ *
+ * Each channel keeps its window in a ring buffer for expiry and in an
+ * IndexableSkipList for the order statistics, so an update costs O(log n) in
+ * the window size and does not allocate.
+ *
+ * NaN and infinite samples are never added to a window, where they could not
+ * be ordered or expired. The filters return the previous output of the
+ * channel instead, and the Hampel filter counts them as outliers.
+ *
+ * @author Kaleb
+ * @version 1.0
+ *
+ */
+public class MedianFilter
+{
+	// Converts the interquartile range of normal data to a standard
+	// deviation.
+	private static final double IQR_TO_SIGMA = 1.349;
+
+	// The size of the median filters rolling window, odd so the median is a
+	// sample.
+	private int filterWindow = 21;
+
+	// The smallest robust standard deviation used by the Hampel filter, in
+	// the units of the samples.
+	public static final double DEFAULT_MIN_SIGMA = 0.001;
+
+	// The distance from the median, in standard deviations, beyond which a
+	// sample is an outlier.
+	private double threshold = 3;
+
+	private double minSigma = DEFAULT_MIN_SIGMA;
+
+	private boolean dataInit;
+
+	// The number of channels, set by the widest frame filtered so far.
+	private int channels;
+
+	// The ring buffer for each channel, [channel][sample].
+	private double[][] rings;
+
+	// The samples currently in each ring, in order.
+	private IndexableSkipList[] lists;
+
+	// The next write index for each ring.
+	private int[] heads;
+
+	// The last output of each channel, NaN before the first.
+	private double[] previous;
+
+	// Whether the last sample or frame had an outlier.
+	private boolean outlier;
+
+	// The number of outliers replaced.
+	private long outliers;
+
+	/**
+	 * Initialize a new MedianFilter object.
+	 */
+	public MedianFilter()
+	{
+		dataInit = false;
+		channels = 0;
+	}
+
+	/**
+	 * Filter the data with the sliding median.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the median.
+	 */
+	public float filterFloat(float data)
+	{
+		initChannels(1);
+
+		return (float) median(0, data);
+	}
+
+	/**
+	 * Filter the data with the sliding median.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the median.
+	 */
+	public double filterDouble(double data)
+	{
+		initChannels(1);
+
+		return median(0, data);
+	}
+
+	/**
+	 * Filter a frame with the sliding median, one channel per element.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @param out
+	 *            the medians, may be the same array as data.
+	 */
+	public void filterFloat(float[] data, float[] out)
+	{
+		initChannels(data.length);
+
+		for (int i = 0; i < data.length; i++)
+		{
+			out[i] = (float) median(i, data[i]);
+		}
+	}
+
+	/**
+	 * Filter the data with the Hampel filter. Check {@link #isOutlier()} to
+	 * find out whether the sample was replaced.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the sample, or the median if the sample is an outlier.
+	 */
+	public float hampelFloat(float data)
+	{
+		initChannels(1);
+
+		outlier = false;
+
+		return (float) hampel(0, data);
+	}
+
+	/**
+	 * Filter the data with the Hampel filter. Check {@link #isOutlier()} to
+	 * find out whether the sample was replaced.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @return the sample, or the median if the sample is an outlier.
+	 */
+	public double hampelDouble(double data)
+	{
+		initChannels(1);
+
+		outlier = false;
+
+		return hampel(0, data);
+	}
+
+	/**
+	 * Filter a frame with the Hampel filter, one channel per element. Check
+	 * {@link #isOutlier()} to find out whether any sample was replaced.
+	 *
+	 * @param data
+	 *            contains input the data.
+	 * @param out
+	 *            the samples, with outliers replaced by the median; may be the
+	 *            same array as data.
+	 */
+	public void hampelFloat(float[] data, float[] out)
+	{
+		initChannels(data.length);
+
+		outlier = false;
+
+		for (int i = 0; i < data.length; i++)
+		{
+			out[i] = (float) hampel(i, data[i]);
+		}
+	}
+
+	/**
+	 * Get whether the last sample or frame given to the Hampel filter had an
+	 * outlier.
+	 *
+	 * @return true if a sample was replaced.
+	 */
+	public boolean isOutlier()
+	{
+		return outlier;
+	}
+
+	/**
+	 * Get the number of samples the Hampel filter has replaced.
+	 *
+	 * @return the count.
+	 */
+	public long getOutlierCount()
+	{
+		return outliers;
+	}
+
+	public double getThreshold()
+	{
+		return threshold;
+	}
+
+	public double getMinSigma()
+	{
+		return minSigma;
+	}
+
+	/**
+	 * Set the floor of the robust standard deviation. The default suits
+	 * signals of order one, like the magnitude of the acceleration in g.
+	 *
+	 * @param minSigma
+	 *            the floor in the units of the samples, at least 0.
+	 */
+	public void setMinSigma(double minSigma)
+	{
+		if (!(minSigma >= 0))
+		{
+			throw new IllegalArgumentException(
+					"Minimum sigma must be at least 0: " + minSigma);
+		}
+
+		this.minSigma = minSigma;
+	}
+
+	/**
+	 * Get the size of the median filters rolling window.
+	 *
+	 * @return the window size.
+	 */
+	public int getWindowSize()
+	{
+		return filterWindow;
+	}
+
+	/**
+	 * Set how far from the median a sample must be to be an outlier.
+	 *
+	 * @param threshold
+	 *            the distance in standard deviations, greater than 0.
+	 */
+	public void setThreshold(double threshold)
+	{
+		if (!(threshold > 0))
+		{
+			throw new IllegalArgumentException(
+					"Threshold must be greater than 0: " + threshold);
+		}
+
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Set the size of the median filters rolling window. The window can be
+	 * resized at any time; the most recent samples are kept, up to the new
+	 * window size.
+	 *
+	 * @param size
+	 *            the window size, at least 1.
+	 */
+	public void setWindowSize(int size)
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("Window size must be at least 1: "
+					+ size);
+		}
+
+		if (dataInit && size != filterWindow)
+		{
+			for (int i = 0; i < channels; i++)
+			{
+				int count = lists[i].size();
+				int keep = Math.min(count, size);
+				int start = heads[i] - keep;
+
+				double[] ring = new double[size];
+				IndexableSkipList list = new IndexableSkipList(size);
+
+				for (int j = 0; j < keep; j++)
+				{
+					ring[j] = rings[i][wrap(start + j)];
+					list.insert(ring[j]);
+				}
+
+				rings[i] = ring;
+				lists[i] = list;
+				heads[i] = keep % size;
+			}
+		}
+
+		this.filterWindow = size;
+	}
+
+	/**
+	 * Add a sample to a channel, expiring the oldest sample once the window
+	 * is full.
+	 *
+	 * @param channel
+	 *            the channel.
+	 * @param value
+	 *            the sample.
+	 */
+	private void add(int channel, double value)
+	{
+		double[] ring = rings[channel];
+		IndexableSkipList list = lists[channel];
+		int head = heads[channel];
+
+		if (list.size() == filterWindow)
+		{
+			list.remove(ring[head]);
+		}
+
+		ring[head] = value;
+		list.insert(value);
+
+		heads[channel] = (head + 1 == filterWindow) ? 0 : head + 1;
+	}
+
+	/**
+	 * Add a sample to a channel and find the median.
+	 *
+	 * @param channel
+	 *            the channel.
+	 * @param value
+	 *            the sample.
+	 * @return the median, or the previous output if the sample is not
+	 *         finite.
+	 */
+	private double median(int channel, double value)
+	{
+		if (!isFinite(value))
+		{
+			return previous[channel];
+		}
+
+		add(channel, value);
+
+		previous[channel] = lists[channel].quantile(0.5);
+
+		return previous[channel];
+	}
+
+	/**
+	 * Add a sample to a channel and replace it with the median if it is an
+	 * outlier.
+	 *
+	 * @param channel
+	 *            the channel.
+	 * @param value
+	 *            the sample.
+	 * @return the sample or the median, or the previous output if the sample
+	 *         is not finite.
+	 */
+	private double hampel(int channel, double value)
+	{
+		if (!isFinite(value))
+		{
+			outlier = true;
+			outliers++;
+
+			return previous[channel];
+		}
+
+		add(channel, value);
+
+		IndexableSkipList list = lists[channel];
+
+		double median = list.quantile(0.5);
+		double sigma = Math.max((list.quantile(0.75) - list.quantile(0.25))
+				/ IQR_TO_SIGMA, minSigma);
+
+		if (Math.abs(value - median) > threshold * sigma)
+		{
+			outlier = true;
+			outliers++;
+
+			value = median;
+		}
+
+		previous[channel] = value;
+
+		return value;
+	}
+
+	private static boolean isFinite(double value)
+	{
+		return !Double.isNaN(value) && !Double.isInfinite(value);
+	}
+
+	/**
+	 * Initialize the data structures for the data set. The number of channels
+	 * can grow, but never shrinks.
+	 *
+	 * @param size
+	 *            the number of channels in the data set.
+	 */
+	private void initChannels(int size)
+	{
+		if (dataInit && size <= channels)
+		{
+			return;
+		}
+
+		double[][] rings = new double[size][];
+		IndexableSkipList[] lists = new IndexableSkipList[size];
+		int[] heads = new int[size];
+		double[] previous = new double[size];
+
+		if (dataInit)
+		{
+			System.arraycopy(this.rings, 0, rings, 0, channels);
+			System.arraycopy(this.lists, 0, lists, 0, channels);
+			System.arraycopy(this.heads, 0, heads, 0, channels);
+			System.arraycopy(this.previous, 0, previous, 0, channels);
+		}
+
+		for (int i = channels; i < size; i++)
+		{
+			rings[i] = new double[filterWindow];
+			lists[i] = new IndexableSkipList(filterWindow);
+			previous[i] = Double.NaN;
+		}
+
+		this.rings = rings;
+		this.lists = lists;
+		this.heads = heads;
+		this.previous = previous;
+
+		channels = size;
+		dataInit = true;
+	}
+
+	/**
+	 * Wrap an index into the ring.
+	 *
+	 * @param index
+	 *            the index, may be negative.
+	 * @return the index in the ring.
+	 */
+	private int wrap(int index)
+	{
+		int i = index % filterWindow;
+
+		return (i < 0) ? i + filterWindow : i;
+	}
+}
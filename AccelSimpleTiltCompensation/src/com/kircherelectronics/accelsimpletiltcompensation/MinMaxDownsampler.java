@@ -0,0 +1,204 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Downsamples frames into a FloatRingBuffer by min/max bucketing. Each bucket
+ * of bucketSize frames becomes two frames in the output, the minimum and the
+ * maximum of each column in the order they occurred, so peaks survive however
+ * long the window is. A bucket size of 1 passes the frames straight through.
+ * 
+ * The output is updated incrementally. The bucket being filled is always the
+ * last two frames of the output and is updated in place as frames arrive, so
+ * the most recent data is visible without waiting for the bucket to fill.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class MinMaxDownsampler
+{
+	private FloatRingBuffer output;
+
+	private int columns;
+	private int bucketSize;
+
+	// The number of frames in the bucket being filled.
+	private int bucketCount;
+
+	// The extremes of the bucket being filled, and where in the bucket they
+	// occurred.
+	private float[] min;
+	private float[] max;
+	private int[] minIndex;
+	private int[] maxIndex;
+
+	/**
+	 * Initialize a new MinMaxDownsampler object.
+	 * 
+	 * @param output
+	 *            the ring buffer to write the downsampled frames to.
+	 * @param bucketSize
+	 *            the number of frames in each bucket.
+	 */
+	public MinMaxDownsampler(FloatRingBuffer output, int bucketSize)
+	{
+		this.output = output;
+
+		columns = output.getColumns();
+
+		min = new float[columns];
+		max = new float[columns];
+		minIndex = new int[columns];
+		maxIndex = new int[columns];
+
+		setBucketSize(bucketSize);
+	}
+
+	/**
+	 * Add a frame.
+	 * 
+	 * @param frame
+	 *            the frame, one value per column of the output.
+	 */
+	public void add(float[] frame)
+	{
+		if (bucketSize == 1)
+		{
+			output.add(frame);
+			return;
+		}
+
+		if (bucketCount == 0)
+		{
+			// Start a new bucket, two frames in the output.
+			output.add(frame);
+			output.add(frame);
+
+			for (int c = 0; c < columns; c++)
+			{
+				min[c] = frame[c];
+				max[c] = frame[c];
+				minIndex[c] = 0;
+				maxIndex[c] = 0;
+			}
+		}
+		else
+		{
+			int first = output.size() - 2;
+
+			for (int c = 0; c < columns; c++)
+			{
+				float value = frame[c];
+
+				if (value < min[c])
+				{
+					min[c] = value;
+					minIndex[c] = bucketCount;
+				}
+				else if (value > max[c])
+				{
+					max[c] = value;
+					maxIndex[c] = bucketCount;
+				}
+
+				// Keep the extremes in the order they occurred.
+				if (minIndex[c] <= maxIndex[c])
+				{
+					output.set(c, first, min[c]);
+					output.set(c, first + 1, max[c]);
+				}
+				else
+				{
+					output.set(c, first, max[c]);
+					output.set(c, first + 1, min[c]);
+				}
+			}
+		}
+
+		if (++bucketCount == bucketSize)
+		{
+			bucketCount = 0;
+		}
+	}
+
+	/**
+	 * Find the bucket size that fits a window of frames into a budget of
+	 * output frames.
+	 * 
+	 * @param windowSize
+	 *            the number of frames in the window.
+	 * @param budget
+	 *            the maximum number of output frames, at least 2.
+	 * @return the bucket size.
+	 */
+	public static int bucketSizeFor(int windowSize, int budget)
+	{
+		if (windowSize <= budget)
+		{
+			return 1;
+		}
+
+		// Each bucket becomes two frames, the minimum and the maximum.
+		int buckets = budget / 2;
+
+		return (windowSize + buckets - 1) / buckets;
+	}
+
+	/**
+	 * Find the number of output frames a window of frames downsamples to.
+	 * 
+	 * @param windowSize
+	 *            the number of frames in the window.
+	 * @param bucketSize
+	 *            the bucket size.
+	 * @return the number of output frames.
+	 */
+	public static int outputSizeFor(int windowSize, int bucketSize)
+	{
+		if (bucketSize == 1)
+		{
+			return windowSize;
+		}
+
+		return ((windowSize + bucketSize - 1) / bucketSize) * 2;
+	}
+
+	public int getBucketSize()
+	{
+		return bucketSize;
+	}
+
+	/**
+	 * Set the number of frames in each bucket. The bucket being filled is
+	 * finished early.
+	 * 
+	 * @param bucketSize
+	 *            the number of frames in each bucket, at least 1.
+	 */
+	public void setBucketSize(int bucketSize)
+	{
+		if (bucketSize < 1)
+		{
+			throw new IllegalArgumentException("Invalid bucket size: "
+					+ bucketSize);
+		}
+
+		this.bucketSize = bucketSize;
+
+		bucketCount = 0;
+	}
+}
@@ -0,0 +1,525 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Exports the output of a TiltCompensationEngine, the raw, gravity and linear
+ * acceleration, to a file. The thread running the engine only copies each
+ * output into one of two direct buffers; when the buffer fills it is swapped
+ * with the other and handed to a writer thread, which writes it as CSV or
+ * binary and syncs the file to disk on a fixed cadence. If the writer still
+ * has the other buffer when a swap is due, outputs are dropped and counted
+ * rather than waited for, so the engine thread never blocks or allocates.
+ * 
+ * The binary format is little-endian: a header of the magic number, the
+ * version, the frame size and the creation time, followed by one frame per
+ * output of the timestamp in nanoseconds and the raw, gravity and linear x/y/z
+ * as floats.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class OutputExporter implements TiltCompensationEngine.OutputListener
+{
+	public static final int FORMAT_BINARY = 0;
+	public static final int FORMAT_CSV = 1;
+
+	// "ASCO"
+	public static final int MAGIC = 0x4153434F;
+	public static final short VERSION = 1;
+
+	public static final int HEADER_SIZE = 16;
+
+	// The timestamp and the raw, gravity and linear x/y/z.
+	public static final int FRAME_SIZE = 8 + 9 * 4;
+
+	public static final int DEFAULT_BUFFER_SIZE = FRAME_SIZE * 1024;
+
+	// Sync the file to disk about once a second by default.
+	public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+	// The longest an output waits in a buffer that is not full before the
+	// buffer is handed to the writer, in nanoseconds of sensor time.
+	private static final long FLUSH_INTERVAL = 1000000000L;
+
+	// How long the writer waits for a buffer between checks, in nanoseconds.
+	private static final long PARK_NANOS = 10000000L;
+
+	// The longest CSV line: a timestamp of up to 20 characters, then nine
+	// commas and floats of up to 15 characters, like -1.17549435E-38, and
+	// the newline.
+	private static final int CSV_LINE_SIZE = 20 + 9 * 16 + 1;
+
+	private static final String CSV_HEADER = "timestamp,rawX,rawY,rawZ,gravityX,gravityY,gravityZ,linearX,linearY,linearZ\n";
+
+	private final int format;
+	private final long syncInterval;
+
+	private final FileOutputStream stream;
+	private final FileChannel channel;
+
+	// The buffer being filled, only used by the engine thread.
+	private ByteBuffer active;
+
+	// The timestamp of the first output in the active buffer.
+	private long activeTimestamp;
+
+	// A full buffer waiting for the writer, or null.
+	private final AtomicReference<ByteBuffer> pending = new AtomicReference<ByteBuffer>();
+
+	// The empty buffer the writer has handed back, or null while it has it.
+	private final AtomicReference<ByteBuffer> free = new AtomicReference<ByteBuffer>();
+
+	private final AtomicLong exported = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong syncs = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean closing;
+
+	// The reason the writer stopped, if it failed.
+	private volatile IOException failure;
+
+	/**
+	 * Create a new export with the default buffer size and sync interval,
+	 * replacing any existing file.
+	 * 
+	 * @param path
+	 *            the file to write.
+	 * @param format
+	 *            FORMAT_BINARY or FORMAT_CSV.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public OutputExporter(File path, int format) throws IOException
+	{
+		this(path, format, DEFAULT_BUFFER_SIZE, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Create a new export, replacing any existing file, and start its writer
+	 * thread.
+	 * 
+	 * @param path
+	 *            the file to write.
+	 * @param format
+	 *            FORMAT_BINARY or FORMAT_CSV.
+	 * @param bufferSize
+	 *            the size of each of the two buffers in bytes, rounded down to
+	 *            whole frames.
+	 * @param syncInterval
+	 *            the minimum time between syncs of the file to disk in
+	 *            milliseconds, 0 to sync after every buffer or -1 to sync only
+	 *            when the export is closed.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public OutputExporter(File path, int format, int bufferSize,
+			long syncInterval) throws IOException
+	{
+		if (format != FORMAT_BINARY && format != FORMAT_CSV)
+		{
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+
+		if (bufferSize < FRAME_SIZE)
+		{
+			throw new IllegalArgumentException("The buffers must hold a frame");
+		}
+
+		this.format = format;
+		this.syncInterval = syncInterval;
+
+		int size = bufferSize - bufferSize % FRAME_SIZE;
+
+		active = ByteBuffer.allocateDirect(size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		free.set(ByteBuffer.allocateDirect(size).order(
+				ByteOrder.LITTLE_ENDIAN));
+
+		stream = new FileOutputStream(path);
+		channel = stream.getChannel();
+
+		try
+		{
+			writeHeader();
+		}
+		catch (IOException e)
+		{
+			stream.close();
+			throw e;
+		}
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runWriter();
+			}
+		}, "Output Export");
+		writer.start();
+	}
+
+	/**
+	 * Add an output to the export, called by the thread running the engine.
+	 * The output is dropped if the active buffer is full and the writer has
+	 * not yet finished with the other one.
+	 */
+	@Override
+	public void onOutput(long timestamp, float[] raw, float[] gravity,
+			float[] linearAcceleration)
+	{
+		ByteBuffer buffer = active;
+
+		if (!buffer.hasRemaining() && !swap())
+		{
+			dropped.lazySet(dropped.get() + 1);
+			return;
+		}
+
+		buffer = active;
+
+		if (buffer.position() == 0)
+		{
+			activeTimestamp = timestamp;
+		}
+
+		buffer.putLong(timestamp);
+		buffer.putFloat(raw[0]);
+		buffer.putFloat(raw[1]);
+		buffer.putFloat(raw[2]);
+		buffer.putFloat(gravity[0]);
+		buffer.putFloat(gravity[1]);
+		buffer.putFloat(gravity[2]);
+		buffer.putFloat(linearAcceleration[0]);
+		buffer.putFloat(linearAcceleration[1]);
+		buffer.putFloat(linearAcceleration[2]);
+
+		exported.lazySet(exported.get() + 1);
+
+		// Don't let a slow sensor keep the outputs from the file for long.
+		// If the writer is busy the buffer just keeps filling.
+		if (timestamp - activeTimestamp >= FLUSH_INTERVAL)
+		{
+			swap();
+		}
+	}
+
+	/**
+	 * Hand the active buffer to the writer and take the free one, called by
+	 * the thread running the engine.
+	 * 
+	 * @return false if the writer still has the other buffer.
+	 */
+	private boolean swap()
+	{
+		ByteBuffer next = free.getAndSet(null);
+
+		if (next == null)
+		{
+			return false;
+		}
+
+		active.flip();
+		pending.set(active);
+
+		LockSupport.unpark(writer);
+
+		active = next;
+
+		return true;
+	}
+
+	/**
+	 * Write the outputs still in the active buffer, stop the writer, sync and
+	 * close the file. Only called once the engine thread has stopped handing
+	 * out outputs.
+	 * 
+	 * @throws IOException
+	 *             if the writer failed or the file could not be closed.
+	 */
+	public void close() throws IOException
+	{
+		// Wait for the writer to hand back the other buffer, unless it has
+		// failed and never will.
+		while (active.position() > 0 && !swap() && writer.isAlive())
+		{
+			LockSupport.parkNanos(PARK_NANOS / 10);
+		}
+
+		closing = true;
+
+		LockSupport.unpark(writer);
+
+		boolean interrupted = false;
+
+		while (true)
+		{
+			try
+			{
+				writer.join();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		try
+		{
+			if (failure != null)
+			{
+				throw failure;
+			}
+
+			channel.force(false);
+			syncs.incrementAndGet();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Get the number of outputs added to the buffers.
+	 * 
+	 * @return the number of outputs.
+	 */
+	public long getExported()
+	{
+		return exported.get();
+	}
+
+	/**
+	 * Get the number of outputs dropped because the writer fell behind, or
+	 * failed.
+	 * 
+	 * @return the number of dropped outputs.
+	 */
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Get the number of bytes written to the file, including the header.
+	 * 
+	 * @return the number of bytes.
+	 */
+	public long getBytesWritten()
+	{
+		return bytesWritten.get();
+	}
+
+	/**
+	 * Get the number of times the file has been synced to disk.
+	 * 
+	 * @return the number of syncs.
+	 */
+	public long getSyncs()
+	{
+		return syncs.get();
+	}
+
+	/**
+	 * Get the reason the writer stopped, if it failed.
+	 * 
+	 * @return the failure, or null.
+	 */
+	public IOException getFailure()
+	{
+		return failure;
+	}
+
+	/**
+	 * Write the buffers handed over until the export is closed, on the
+	 * writer thread.
+	 */
+	private void runWriter()
+	{
+		// Only used by the writer, for formatting CSV.
+		StringBuilder text = new StringBuilder(CSV_LINE_SIZE);
+		ByteBuffer encoded = (format == FORMAT_CSV) ? ByteBuffer
+				.allocate(active.capacity() / FRAME_SIZE * CSV_LINE_SIZE)
+				: null;
+
+		long lastSync = System.currentTimeMillis();
+
+		try
+		{
+			while (true)
+			{
+				// Read the flag before taking the buffer, so a buffer handed
+				// over before close set it is not left behind.
+				boolean stop = closing;
+
+				ByteBuffer buffer = pending.getAndSet(null);
+
+				if (buffer == null)
+				{
+					if (stop)
+					{
+						return;
+					}
+
+					LockSupport.parkNanos(PARK_NANOS);
+					continue;
+				}
+
+				if (format == FORMAT_CSV)
+				{
+					writeCsv(buffer, encoded, text);
+				}
+				else
+				{
+					write(buffer);
+				}
+
+				buffer.clear();
+				free.set(buffer);
+
+				long now = System.currentTimeMillis();
+
+				if (syncInterval >= 0 && now - lastSync >= syncInterval)
+				{
+					channel.force(false);
+					syncs.incrementAndGet();
+
+					lastSync = now;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			failure = e;
+		}
+		catch (RuntimeException e)
+		{
+			// Report a bug in the writer through close() rather than let
+			// the thread die silently and every output after be dropped.
+			IOException failure = new IOException("The export writer failed");
+			failure.initCause(e);
+
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Write the file header, CSV column names or the binary header.
+	 */
+	private void writeHeader() throws IOException
+	{
+		ByteBuffer header;
+
+		if (format == FORMAT_CSV)
+		{
+			header = ByteBuffer.wrap(CSV_HEADER.getBytes("US-ASCII"));
+		}
+		else
+		{
+			header = ByteBuffer.allocate(HEADER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putShort(VERSION);
+			header.putShort((short) FRAME_SIZE);
+			header.putLong(System.currentTimeMillis());
+			header.flip();
+		}
+
+		write(header);
+	}
+
+	/**
+	 * Write the remaining bytes of a buffer to the file.
+	 */
+	private void write(ByteBuffer buffer) throws IOException
+	{
+		int length = buffer.remaining();
+
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+
+		bytesWritten.lazySet(bytesWritten.get() + length);
+	}
+
+	/**
+	 * Format the frames of a buffer as CSV lines and write them, a buffer of
+	 * lines at a time.
+	 * 
+	 * @param frames
+	 *            the frames, flipped for reading.
+	 * @param encoded
+	 *            scratch space for the lines.
+	 * @param text
+	 *            scratch space for formatting a line.
+	 */
+	private void writeCsv(ByteBuffer frames, ByteBuffer encoded,
+			StringBuilder text) throws IOException
+	{
+		encoded.clear();
+
+		while (frames.hasRemaining())
+		{
+			text.setLength(0);
+			text.append(frames.getLong());
+
+			for (int i = 0; i < 9; i++)
+			{
+				text.append(',').append(frames.getFloat());
+			}
+
+			text.append('\n');
+
+			if (encoded.remaining() < text.length())
+			{
+				encoded.flip();
+				write(encoded);
+				encoded.clear();
+			}
+
+			for (int i = 0; i < text.length(); i++)
+			{
+				encoded.put((byte) text.charAt(i));
+			}
+		}
+
+		encoded.flip();
+		write(encoded);
+	}
+}
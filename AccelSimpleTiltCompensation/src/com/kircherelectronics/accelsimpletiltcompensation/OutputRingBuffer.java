@@ -0,0 +1,189 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A lock-free, single producer, single consumer ring buffer that hands the
+ * output of a TiltCompensationEngine from the thread running the engine to
+ * another thread. The outputs are copied into primitive arrays, so neither
+ * side allocates. If the consumer falls behind and the ring fills, new outputs
+ * are dropped and counted.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class OutputRingBuffer implements TiltCompensationEngine.OutputListener
+{
+	// The number of floats in each output: raw, gravity and linear x/y/z.
+	private static final int FRAME_SIZE = 9;
+
+	private final int capacity;
+	private final int mask;
+
+	private final long[] timestamps;
+	private final float[] frames;
+
+	// The next slot to read, only written by the consumer.
+	private final AtomicLong head = new AtomicLong();
+
+	// The next slot to write, only written by the producer.
+	private final AtomicLong tail = new AtomicLong();
+
+	// The producer's cached copy of the head.
+	private long headCache;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	// The consumer's arrays for handing out an output.
+	private final float[] raw = new float[3];
+	private final float[] gravity = new float[3];
+	private final float[] linearAcceleration = new float[3];
+
+	/**
+	 * Initialize a new OutputRingBuffer object.
+	 * 
+	 * @param capacity
+	 *            the number of outputs the ring can hold, rounded up to a
+	 *            power of two.
+	 */
+	public OutputRingBuffer(int capacity)
+	{
+		int size = 1;
+
+		while (size < capacity)
+		{
+			size <<= 1;
+		}
+
+		this.capacity = size;
+		this.mask = size - 1;
+
+		timestamps = new long[size];
+		frames = new float[size * FRAME_SIZE];
+	}
+
+	/**
+	 * Add an output to the ring, called by the producer. The output is
+	 * dropped if the ring is full.
+	 */
+	@Override
+	public void onOutput(long timestamp, float[] raw, float[] gravity,
+			float[] linearAcceleration)
+	{
+		long t = tail.get();
+
+		if (t - headCache >= capacity)
+		{
+			headCache = head.get();
+
+			if (t - headCache >= capacity)
+			{
+				dropped.lazySet(dropped.get() + 1);
+				return;
+			}
+		}
+
+		int slot = (int) t & mask;
+		int i = slot * FRAME_SIZE;
+
+		timestamps[slot] = timestamp;
+
+		frames[i] = raw[0];
+		frames[i + 1] = raw[1];
+		frames[i + 2] = raw[2];
+		frames[i + 3] = gravity[0];
+		frames[i + 4] = gravity[1];
+		frames[i + 5] = gravity[2];
+		frames[i + 6] = linearAcceleration[0];
+		frames[i + 7] = linearAcceleration[1];
+		frames[i + 8] = linearAcceleration[2];
+
+		// Publish the output after it has been written.
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Hand the outputs in the ring to a listener, oldest first, called by the
+	 * consumer. The arrays passed to the listener are only valid for the
+	 * duration of each call.
+	 * 
+	 * @param listener
+	 *            the listener.
+	 * @param max
+	 *            the maximum number of outputs to hand out.
+	 * @return the number of outputs handed out.
+	 */
+	public int drain(TiltCompensationEngine.OutputListener listener, int max)
+	{
+		long h = head.get();
+		long available = tail.get() - h;
+
+		int count = (int) Math.min(available, max);
+
+		for (int n = 0; n < count; n++)
+		{
+			int slot = (int) (h + n) & mask;
+			int i = slot * FRAME_SIZE;
+
+			raw[0] = frames[i];
+			raw[1] = frames[i + 1];
+			raw[2] = frames[i + 2];
+			gravity[0] = frames[i + 3];
+			gravity[1] = frames[i + 4];
+			gravity[2] = frames[i + 5];
+			linearAcceleration[0] = frames[i + 6];
+			linearAcceleration[1] = frames[i + 7];
+			linearAcceleration[2] = frames[i + 8];
+
+			long timestamp = timestamps[slot];
+
+			// Free the slot before the listener runs.
+			head.lazySet(h + n + 1);
+
+			listener.onOutput(timestamp, raw, gravity, linearAcceleration);
+		}
+
+		return count;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Get the number of outputs dropped because the ring was full.
+	 * 
+	 * @return the number of dropped outputs.
+	 */
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Get the number of outputs waiting in the ring.
+	 * 
+	 * @return the number of outputs.
+	 */
+	public int size()
+	{
+		return (int) (tail.get() - head.get());
+	}
+}
@@ -0,0 +1,155 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Latency histograms for each stage of the sensor pipeline, from the sensor
+ * event arriving to the plot being drawn. Each stage is recorded by one
+ * thread: the event record, threshold and gravity stages on the sensor
+ * thread, the history append and draw stages on the UI thread.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class PipelineLatency
+{
+	// Recording the sensor event to the trace and the timing statistics,
+	// before it reaches the engine.
+	public static final int EVENT_RECORD = 0;
+	// The magnitude and adaptive threshold update.
+	public static final int THRESHOLD = 1;
+	// The gravity component update and the subtraction.
+	public static final int GRAVITY = 2;
+	// Appending the output to the plot history.
+	public static final int HISTORY_APPEND = 3;
+	// Drawing the plot, in its onDraw().
+	public static final int DRAW = 4;
+
+	public static final int STAGES = 5;
+
+	private static final String[] NAMES =
+	{ "Event record", "Threshold", "Gravity", "History", "Draw" };
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES];
+
+	// Reused by format().
+	private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+
+	/**
+	 * Initialize a new PipelineLatency object.
+	 */
+	public PipelineLatency()
+	{
+		for (int i = 0; i < STAGES; i++)
+		{
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Record the latency of a stage. Only call from the thread that owns the
+	 * stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @param nanos
+	 *            the latency in nanoseconds.
+	 */
+	public void record(int stage, long nanos)
+	{
+		histograms[stage].record(nanos);
+	}
+
+	/**
+	 * Get the histogram for a stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the histogram.
+	 */
+	public LatencyHistogram getHistogram(int stage)
+	{
+		return histograms[stage];
+	}
+
+	/**
+	 * Get the name of a stage.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 * @return the name.
+	 */
+	public static String getName(int stage)
+	{
+		return NAMES[stage];
+	}
+
+	/**
+	 * Clear all of the histograms. Only call while nothing is being recorded.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < STAGES; i++)
+		{
+			histograms[i].reset();
+		}
+	}
+
+	/**
+	 * Format the p50, p99, p99.9 and max latency of each stage in
+	 * microseconds, one stage per line. Only call from one thread at a time.
+	 * 
+	 * @param out
+	 *            the builder to append to.
+	 * @return the builder.
+	 */
+	public StringBuilder format(StringBuilder out)
+	{
+		for (int i = 0; i < STAGES; i++)
+		{
+			histograms[i].snapshot(snapshot);
+
+			if (i > 0)
+			{
+				out.append('\n');
+			}
+
+			out.append(NAMES[i]).append(": p50 ");
+			appendMicros(out, snapshot.getPercentile(50));
+			out.append(" p99 ");
+			appendMicros(out, snapshot.getPercentile(99));
+			out.append(" p99.9 ");
+			appendMicros(out, snapshot.getPercentile(99.9));
+			out.append(" max ");
+			appendMicros(out, snapshot.getMax());
+			out.append(" us");
+		}
+
+		return out;
+	}
+
+	/**
+	 * Append nanoseconds as microseconds with one decimal place.
+	 */
+	private static void appendMicros(StringBuilder out, long nanos)
+	{
+		long tenths = (nanos + 50) / 100;
+
+		out.append(tenths / 10).append('.').append(tenths % 10);
+	}
+}
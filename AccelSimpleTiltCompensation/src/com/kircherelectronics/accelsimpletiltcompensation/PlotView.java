@@ -1,13 +1,8 @@
 package com.kircherelectronics.accelsimpletiltcompensation;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-
 import com.androidplot.xy.BoundaryMode;
 import com.androidplot.xy.LineAndPointFormatter;
 import com.androidplot.xy.LineAndPointRenderer;
-import com.androidplot.xy.SimpleXYSeries;
-import com.androidplot.xy.XYPlot;
 import android.graphics.Color;
 
 /*
@@ -30,6 +25,15 @@ import android.graphics.Color;
  * Acceleration View is responsible for creating and managing all of the plotter
  * components related to Acceleration.
  * 
+ * The history of all nine series is kept in one primitive ring buffer, which
+ * the series read directly. Windows longer than the point budget are
+ * downsampled into the ring by min/max bucketing, so the number of points
+ * drawn stays fixed however long the window is and peaks are preserved.
+ * 
+ * In coalescing mode the samples are added to the history as they arrive,
+ * but the plot is only redrawn from {@link #onFrame(long)}, at most once per
+ * frame of the target frame rate.
+ * 
  * @author Kaleb
  * 
  */
@@ -37,36 +41,45 @@ public class PlotView
 {
 	private int windowSize = 100;
 
+	// The maximum number of points drawn for each series.
+	private int pointBudget = 200;
+
 	private double maxRange = 10;
 	private double minRange = -10;
 
-	private XYPlot dynamicAPlot;
+	private TimedXYPlot dynamicAPlot;
 
-	private SimpleXYSeries gravityXAxisSeries;
-	private SimpleXYSeries gravityYAxisSeries;
-	private SimpleXYSeries gravityZAxisSeries;
+	// The columns of the history.
+	private static final int GRAVITY_X = 0;
+	private static final int GRAVITY_Y = 1;
+	private static final int GRAVITY_Z = 2;
+	private static final int ACCEL_X = 3;
+	private static final int ACCEL_Y = 4;
+	private static final int ACCEL_Z = 5;
+	private static final int RAW_X = 6;
+	private static final int RAW_Y = 7;
+	private static final int RAW_Z = 8;
 
-	private SimpleXYSeries accelXAxisSeries;
-	private SimpleXYSeries accelYAxisSeries;
-	private SimpleXYSeries accelZAxisSeries;
+	private RingBufferXYSeries gravityXAxisSeries;
+	private RingBufferXYSeries gravityYAxisSeries;
+	private RingBufferXYSeries gravityZAxisSeries;
 
-	private SimpleXYSeries rawXAxisSeries;
-	private SimpleXYSeries rawYAxisSeries;
-	private SimpleXYSeries rawZAxisSeries;
+	private RingBufferXYSeries accelXAxisSeries;
+	private RingBufferXYSeries accelYAxisSeries;
+	private RingBufferXYSeries accelZAxisSeries;
 
-	private LinkedList<Number> gravityXAxisHistory;
-	private LinkedList<Number> gravityYAxisHistory;
-	private LinkedList<Number> gravityZAxisHistory;
+	private RingBufferXYSeries rawXAxisSeries;
+	private RingBufferXYSeries rawYAxisSeries;
+	private RingBufferXYSeries rawZAxisSeries;
 
-	private LinkedList<Number> accelXAxisHistory;
-	private LinkedList<Number> accelYAxisHistory;
-	private LinkedList<Number> accelZAxisHistory;
+	// The history of all of the series, one column per series.
+	private FloatRingBuffer history;
 
-	private LinkedList<Number> rawXAxisHistory;
-	private LinkedList<Number> rawYAxisHistory;
-	private LinkedList<Number> rawZAxisHistory;
+	// Downsamples the frames into the history.
+	private MinMaxDownsampler downsampler;
 
-	private ArrayList<LinkedList<Number>> histories;
+	// The frame being added to the history.
+	private float[] frame = new float[9];
 
 	private boolean drawXAxis = true;
 	private boolean drawYAxis = true;
@@ -76,52 +89,58 @@ public class PlotView
 	private boolean drawGravity = true;
 	private boolean drawAccel = true;
 
-	/**
-	 * Initialize a new Acceleration View object.
-	 * 
-	 * @param activity
-	 *            the Activity that owns this View.
-	 */
-	public PlotView(XYPlot dynamicAPlot)
-	{
-		histories = new ArrayList<LinkedList<Number>>();
+	// Redraw from onFrame() instead of for every sample.
+	private boolean coalescing = false;
+
+	// The minimum time between redraws in coalescing mode, in nanoseconds.
+	private long frameInterval = 1000000000L / 60;
 
-		gravityXAxisHistory = new LinkedList<Number>();
-		gravityYAxisHistory = new LinkedList<Number>();
-		gravityZAxisHistory = new LinkedList<Number>();
+	// The time of the last redraw, in nanoseconds.
+	private long timeRedraw;
 
-		histories.add(gravityXAxisHistory);
-		histories.add(gravityYAxisHistory);
-		histories.add(gravityZAxisHistory);
+	// The time the oldest sample not yet drawn arrived, in nanoseconds.
+	private long timePending;
 
+	// The number of samples not yet drawn.
+	private int pendingSamples;
 
-		accelXAxisHistory = new LinkedList<Number>();
-		accelYAxisHistory = new LinkedList<Number>();
-		accelZAxisHistory = new LinkedList<Number>();
+	// The number of redraws.
+	private long redraws;
 
-		histories.add(accelXAxisHistory);
-		histories.add(accelYAxisHistory);
-		histories.add(accelZAxisHistory);
+	// The number of samples drawn by a redraw for a later sample.
+	private long coalescedSamples;
 
-		rawXAxisHistory = new LinkedList<Number>();
-		rawYAxisHistory = new LinkedList<Number>();
-		rawZAxisHistory = new LinkedList<Number>();
+	// The number of frames that passed with samples waiting to be drawn.
+	private long droppedFrames;
 
-		histories.add(rawXAxisHistory);
-		histories.add(rawYAxisHistory);
-		histories.add(rawZAxisHistory);
+	// Records the latency of the history append stage, or null.
+	private PipelineLatency latency;
+
+	/**
+	 * Initialize a new Acceleration View object.
+	 * 
+	 * @param activity
+	 *            the Activity that owns this View.
+	 */
+	public PlotView(TimedXYPlot dynamicAPlot)
+	{
+		history = new FloatRingBuffer(frame.length, windowSize);
+		downsampler = new MinMaxDownsampler(history, 1);
 
-		rawXAxisSeries = new SimpleXYSeries("xRaw");
-		rawYAxisSeries = new SimpleXYSeries("yRaw");
-		rawZAxisSeries = new SimpleXYSeries("zRaw");
+		rawXAxisSeries = new RingBufferXYSeries("xRaw", history, RAW_X);
+		rawYAxisSeries = new RingBufferXYSeries("yRaw", history, RAW_Y);
+		rawZAxisSeries = new RingBufferXYSeries("zRaw", history, RAW_Z);
 
-		gravityXAxisSeries = new SimpleXYSeries("xGrav");
-		gravityYAxisSeries = new SimpleXYSeries("yGrav");
-		gravityZAxisSeries = new SimpleXYSeries("zGrav");
+		gravityXAxisSeries = new RingBufferXYSeries("xGrav", history,
+				GRAVITY_X);
+		gravityYAxisSeries = new RingBufferXYSeries("yGrav", history,
+				GRAVITY_Y);
+		gravityZAxisSeries = new RingBufferXYSeries("zGrav", history,
+				GRAVITY_Z);
 
-		accelXAxisSeries = new SimpleXYSeries("xAccel");
-		accelYAxisSeries = new SimpleXYSeries("yAccel");
-		accelZAxisSeries = new SimpleXYSeries("zAccel");
+		accelXAxisSeries = new RingBufferXYSeries("xAccel", history, ACCEL_X);
+		accelYAxisSeries = new RingBufferXYSeries("yAccel", history, ACCEL_Y);
+		accelZAxisSeries = new RingBufferXYSeries("zAccel", history, ACCEL_Z);
 
 		this.dynamicAPlot = dynamicAPlot;
 
@@ -200,6 +219,43 @@ public class PlotView
 		return windowSize;
 	}
 
+	public int getPointBudget()
+	{
+		return pointBudget;
+	}
+
+	/**
+	 * Get the number of samples that were drawn by a redraw for a later
+	 * sample, rather than a redraw of their own.
+	 * 
+	 * @return the number of coalesced samples.
+	 */
+	public long getCoalescedSamples()
+	{
+		return coalescedSamples;
+	}
+
+	/**
+	 * Get the number of frames that passed while samples were waiting to be
+	 * drawn.
+	 * 
+	 * @return the number of dropped frames.
+	 */
+	public long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+
+	public long getRedraws()
+	{
+		return redraws;
+	}
+
+	public boolean isCoalescing()
+	{
+		return coalescing;
+	}
+
 	public boolean isDrawXAxis()
 	{
 		return drawXAxis;
@@ -232,88 +288,57 @@ public class PlotView
 
 	public void setDrawXAxis(boolean drawXAxis)
 	{
-		if (!drawXAxis)
-		{
-			accelXAxisHistory.removeAll(accelXAxisHistory);
-			gravityXAxisHistory.removeAll(gravityXAxisHistory);
-
-			rawXAxisHistory.removeAll(rawXAxisHistory);
-		}
-
 		this.drawXAxis = drawXAxis;
+
+		updateVisibility();
 	}
 
 	public void setDrawYAxis(boolean drawYAxis)
 	{
-		if (!drawYAxis)
-		{
-			accelYAxisHistory.removeAll(accelYAxisHistory);
-			gravityYAxisHistory.removeAll(gravityYAxisHistory);
-			rawYAxisHistory.removeAll(rawYAxisHistory);
-		}
-
 		this.drawYAxis = drawYAxis;
+
+		updateVisibility();
 	}
 
 	public void setDrawZAxis(boolean drawZAxis)
 	{
-		if (!drawZAxis)
-		{
-			accelZAxisHistory.removeAll(accelZAxisHistory);
-			gravityZAxisHistory.removeAll(gravityZAxisHistory);
-			rawZAxisHistory.removeAll(rawZAxisHistory);
-		}
-
 		this.drawZAxis = drawZAxis;
+
+		updateVisibility();
 	}
 
 	public void setDrawRaw(boolean drawRaw)
 	{
-		if (!drawRaw)
-		{
-			rawXAxisHistory.removeAll(rawXAxisHistory);
-			rawYAxisHistory.removeAll(rawYAxisHistory);
-			rawZAxisHistory.removeAll(rawZAxisHistory);
-		}
-
 		this.drawRaw = drawRaw;
+
+		updateVisibility();
 	}
 
 	public void setDrawGravity(boolean drawGravity)
 	{
-		if (!drawGravity)
-		{
-			gravityXAxisHistory.removeAll(gravityXAxisHistory);
-			gravityYAxisHistory.removeAll(gravityYAxisHistory);
-			gravityZAxisHistory.removeAll(gravityZAxisHistory);
-		}
-
 		this.drawGravity = drawGravity;
+
+		updateVisibility();
 	}
 
 	public void setDrawAccel(boolean drawAccel)
 	{
-		if (!drawAccel)
-		{
-			accelXAxisHistory.removeAll(accelXAxisHistory);
-			accelYAxisHistory.removeAll(accelYAxisHistory);
-			accelZAxisHistory.removeAll(accelZAxisHistory);
-		}
-
 		this.drawAccel = drawAccel;
+
+		updateVisibility();
 	}
 
 	public void setDraw(boolean drawWikiLP)
 	{
 		if (!drawWikiLP)
 		{
-			gravityXAxisHistory.removeAll(gravityXAxisHistory);
-			gravityYAxisHistory.removeAll(gravityYAxisHistory);
-			gravityZAxisHistory.removeAll(gravityZAxisHistory);
+			gravityXAxisSeries.clear();
+			gravityYAxisSeries.clear();
+			gravityZAxisSeries.clear();
 
-			accelXAxisHistory.removeAll(accelXAxisHistory);
-			accelYAxisHistory.removeAll(accelYAxisHistory);
-			accelZAxisHistory.removeAll(accelZAxisHistory);
+			accelXAxisSeries.clear();
+			accelYAxisSeries.clear();
+			accelZAxisSeries.clear();
 		}
 	}
 
@@ -329,9 +354,101 @@ public class PlotView
 		dynamicAPlot.setRangeBoundaries(minRange, maxRange, BoundaryMode.FIXED);
 	}
 
+	/**
+	 * Set the number of samples shown in the plot.
+	 * 
+	 * @param windowSize
+	 *            the number of samples.
+	 */
 	public void setWindowSize(int windowSize)
 	{
 		this.windowSize = windowSize;
+
+		configureHistory();
+	}
+
+	/**
+	 * Set the maximum number of points drawn for each series. Windows with
+	 * more samples than this are downsampled.
+	 * 
+	 * @param pointBudget
+	 *            the number of points, at least 2.
+	 */
+	public void setPointBudget(int pointBudget)
+	{
+		if (pointBudget < 2)
+		{
+			throw new IllegalArgumentException("Invalid point budget: "
+					+ pointBudget);
+		}
+
+		this.pointBudget = pointBudget;
+
+		configureHistory();
+	}
+
+	/**
+	 * Set whether the plot is redrawn from {@link #onFrame(long)} instead of
+	 * for every sample.
+	 * 
+	 * @param coalescing
+	 *            true to coalesce redraws.
+	 */
+	public void setCoalescing(boolean coalescing)
+	{
+		this.coalescing = coalescing;
+	}
+
+	/**
+	 * Set where the latency of the history append and draw stages is
+	 * recorded.
+	 * 
+	 * @param latency
+	 *            the latency histograms, or null to stop recording.
+	 */
+	public void setLatency(PipelineLatency latency)
+	{
+		this.latency = latency;
+
+		dynamicAPlot.setLatency(latency);
+	}
+
+	/**
+	 * Set the maximum rate the plot is redrawn at in coalescing mode.
+	 * 
+	 * @param fps
+	 *            the target frames per second, or 0 to redraw on every call to
+	 *            {@link #onFrame(long)}.
+	 */
+	public void setTargetFps(int fps)
+	{
+		frameInterval = (fps > 0) ? 1000000000L / fps : 0;
+	}
+
+	/**
+	 * Redraw the plot if samples have arrived since the last redraw and a
+	 * frame has passed. Call once per display frame in coalescing mode.
+	 * 
+	 * @param now
+	 *            the current time in nanoseconds, from System.nanoTime().
+	 */
+	public void onFrame(long now)
+	{
+		if (pendingSamples == 0 || now - timeRedraw < frameInterval)
+		{
+			return;
+		}
+
+		if (frameInterval > 0)
+		{
+			droppedFrames += (now - timePending) / frameInterval;
+		}
+
+		coalescedSamples += pendingSamples - 1;
+
+		redraw();
+
+		timeRedraw = now;
 	}
 
 	/**
@@ -347,89 +464,106 @@ public class PlotView
 	public void setData(float[] raw, float[] gravity,
 			float[] linearAccel)
 	{
-		for (int i = 0; i < histories.size(); i++)
+		if (coalescing && pendingSamples == 0)
 		{
-			enforceWindowLimit(histories.get(i));
+			timePending = System.nanoTime();
 		}
 
-		if (drawXAxis)
+		frame[GRAVITY_X] = gravity[0];
+		frame[GRAVITY_Y] = gravity[1];
+		frame[GRAVITY_Z] = gravity[2];
+
+		frame[ACCEL_X] = linearAccel[0];
+		frame[ACCEL_Y] = linearAccel[1];
+		frame[ACCEL_Z] = linearAccel[2];
+
+		frame[RAW_X] = raw[0];
+		frame[RAW_Y] = raw[1];
+		frame[RAW_Z] = raw[2];
+
+		long start = (latency != null) ? System.nanoTime() : 0;
+
+		downsampler.add(frame);
+
+		if (latency != null)
 		{
-			if (drawAccel)
-			{
-				
-					accelXAxisHistory.addLast(linearAccel[0]);
-			}
-			if (drawGravity)
-			{
-					gravityXAxisHistory.addLast(gravity[0]);
-			}
-			if (drawRaw)
-			{
-				rawXAxisHistory.addLast(raw[0]);
-			}
+			latency.record(PipelineLatency.HISTORY_APPEND, System.nanoTime()
+					- start);
 		}
 
-		if (drawYAxis)
+		pendingSamples++;
+
+		if (!coalescing)
 		{
-			if (drawAccel)
-			{
-					accelYAxisHistory.addLast(linearAccel[1]);
-			}
-			if (drawGravity)
-			{
-					gravityYAxisHistory.addLast(gravity[1]);
-			}
-			if (drawRaw)
-			{
-				rawYAxisHistory.addLast(raw[1]);
-			}
+			redraw();
 		}
+	}
+
+	/**
+	 * Redraw the plot. The series read the history directly, so there is
+	 * nothing to bind. This only invalidates the plot; the draw itself is
+	 * timed by the plot.
+	 */
+	private void redraw()
+	{
+		dynamicAPlot.redraw();
 
-		if (drawZAxis)
+		pendingSamples = 0;
+		redraws++;
+	}
+
+	/**
+	 * Size the history and the downsampling for the window size and point
+	 * budget.
+	 */
+	private void configureHistory()
+	{
+		int bucketSize = MinMaxDownsampler.bucketSizeFor(windowSize,
+				pointBudget);
+		int capacity = MinMaxDownsampler.outputSizeFor(windowSize, bucketSize);
+
+		if (bucketSize != downsampler.getBucketSize())
 		{
-			if (drawAccel)
-			{
-					accelZAxisHistory.addLast(linearAccel[2]);
-			}
-			if (drawGravity)
-			{
-					gravityZAxisHistory.addLast(gravity[2]);
-			}
-			if (drawRaw)
-			{
-				rawZAxisHistory.addLast(raw[2]);
-			}
+			// Points from a different bucket size don't belong on the same
+			// axis.
+			history.clear();
+			downsampler.setBucketSize(bucketSize);
 		}
 
-		accelXAxisSeries.setModel(accelXAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		accelYAxisSeries.setModel(accelYAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		accelZAxisSeries.setModel(accelZAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-
-		gravityXAxisSeries.setModel(gravityXAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		gravityYAxisSeries.setModel(gravityYAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		gravityZAxisSeries.setModel(gravityZAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-
-		rawXAxisSeries.setModel(rawXAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		rawYAxisSeries.setModel(rawYAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
-		rawZAxisSeries.setModel(rawZAxisHistory,
-				SimpleXYSeries.ArrayFormat.Y_VALS_ONLY);
+		history.setCapacity(capacity);
 
-		dynamicAPlot.redraw();
+		dynamicAPlot.setDomainBoundaries(0, capacity, BoundaryMode.FIXED);
 	}
 
-	private void enforceWindowLimit(LinkedList<Number> data)
+	/**
+	 * Show the series for the axes and data that are drawn, and hide the
+	 * rest.
+	 */
+	private void updateVisibility()
 	{
-		if (data.size() > windowSize)
+		setVisible(rawXAxisSeries, drawXAxis && drawRaw);
+		setVisible(rawYAxisSeries, drawYAxis && drawRaw);
+		setVisible(rawZAxisSeries, drawZAxis && drawRaw);
+
+		setVisible(gravityXAxisSeries, drawXAxis && drawGravity);
+		setVisible(gravityYAxisSeries, drawYAxis && drawGravity);
+		setVisible(gravityZAxisSeries, drawZAxis && drawGravity);
+
+		setVisible(accelXAxisSeries, drawXAxis && drawAccel);
+		setVisible(accelYAxisSeries, drawYAxis && drawAccel);
+		setVisible(accelZAxisSeries, drawZAxis && drawAccel);
+	}
+
+	/**
+	 * Show or hide a series. A series that is shown again starts empty.
+	 */
+	private void setVisible(RingBufferXYSeries series, boolean visible)
+	{
+		if (visible && !series.isVisible())
 		{
-			data.removeFirst();
+			series.clear();
 		}
+
+		series.setVisible(visible);
 	}
 }
@@ -0,0 +1,109 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import com.androidplot.series.XYSeries;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * An XYSeries that reads one column of a FloatRingBuffer directly, so the plot
+ * always sees the current contents of the ring without copying or re-binding.
+ * The y values are the column, oldest first, and the x values are their
+ * indexes.
+ * 
+ * A series can be hidden, and cleared so that it only shows the frames added
+ * after the clear.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class RingBufferXYSeries implements XYSeries
+{
+	private String title;
+
+	private FloatRingBuffer buffer;
+	private int column;
+
+	private boolean visible = true;
+
+	// The total frame count of the buffer when the series was cleared.
+	private long start;
+
+	/**
+	 * Initialize a new RingBufferXYSeries object.
+	 * 
+	 * @param title
+	 *            the title of the series.
+	 * @param buffer
+	 *            the ring buffer.
+	 * @param column
+	 *            the column of the ring buffer to plot.
+	 */
+	public RingBufferXYSeries(String title, FloatRingBuffer buffer, int column)
+	{
+		this.title = title;
+		this.buffer = buffer;
+		this.column = column;
+	}
+
+	/**
+	 * Hide the frames currently in the buffer, the series will only show
+	 * frames added from now on.
+	 */
+	public void clear()
+	{
+		start = buffer.getTotal();
+	}
+
+	@Override
+	public String getTitle()
+	{
+		return title;
+	}
+
+	@Override
+	public Number getX(int index)
+	{
+		return index;
+	}
+
+	@Override
+	public Number getY(int index)
+	{
+		return buffer.get(column, buffer.size() - size() + index);
+	}
+
+	public boolean isVisible()
+	{
+		return visible;
+	}
+
+	public void setVisible(boolean visible)
+	{
+		this.visible = visible;
+	}
+
+	@Override
+	public int size()
+	{
+		if (!visible)
+		{
+			return 0;
+		}
+
+		return (int) Math.min(buffer.size(), buffer.getTotal() - start);
+	}
+}
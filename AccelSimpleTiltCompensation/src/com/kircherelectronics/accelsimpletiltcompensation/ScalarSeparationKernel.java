@@ -0,0 +1,81 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The reference implementation of the SeparationKernel, a plain loop per
+ * sample with the same arithmetic as the TiltCompensationEngine. It runs on
+ * any JVM, including Android.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class ScalarSeparationKernel implements SeparationKernel
+{
+	@Override
+	public void magnitudes(float[] x, float[] y, float[] z,
+			float[] magnitude, int offset, int length)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; i++)
+		{
+			float ax = x[i];
+			float ay = y[i];
+			float az = z[i];
+
+			magnitude[i] = (float) (Math.sqrt(ax * ax + ay * ay + az * az)
+					/ TiltCompensationEngine.GRAVITY_EARTH);
+		}
+	}
+
+	@Override
+	public void band(float[] magnitude, double low, double high,
+			boolean[] inBand, int offset, int length)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; i++)
+		{
+			float m = magnitude[i];
+
+			inBand[i] = m <= high && m > low;
+		}
+	}
+
+	@Override
+	public void subtract(float[] x, float[] y, float[] z, float[] gx,
+			float[] gy, float[] gz, float[] lx, float[] ly, float[] lz,
+			int offset, int length)
+	{
+		int end = offset + length;
+
+		for (int i = offset; i < end; i++)
+		{
+			lx[i] = x[i] - gx[i];
+			ly[i] = y[i] - gy[i];
+			lz[i] = z[i] - gz[i];
+		}
+	}
+
+	@Override
+	public String getName()
+	{
+		return "scalar";
+	}
+}
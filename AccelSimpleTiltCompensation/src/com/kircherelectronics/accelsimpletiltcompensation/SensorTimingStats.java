@@ -0,0 +1,293 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Streaming statistics of the sample period of one sensor. The running mean
+ * and variance are kept with Welford's method and the quantiles with a
+ * {@link LatencyHistogram}, so each sample costs O(1) time and the memory is
+ * fixed. Samples with a repeated timestamp are counted as duplicates, samples
+ * with an earlier timestamp as out of order, and periods much longer than the
+ * mean as gaps.
+ * 
+ * Samples are added from a single thread. The statistics can be read from
+ * any thread, but values read together may be from different samples.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class SensorTimingStats
+{
+	// The number of periods needed before gaps are detected.
+	private static final int MIN_PERIODS = 8;
+
+	private String name;
+
+	// A period longer than this many times the mean is a gap.
+	private double gapFactor = 2.0;
+
+	private long timestamp;
+
+	// The number of samples with a new timestamp.
+	private volatile long samples;
+
+	// The running mean and sum of squared differences of the period, in
+	// nanoseconds.
+	private volatile double mean;
+	private volatile double m2;
+
+	private volatile long gaps;
+	private volatile long duplicates;
+	private volatile long outOfOrder;
+
+	// The distribution of the period.
+	private final LatencyHistogram periods = new LatencyHistogram();
+
+	// Reused by format().
+	private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+
+	/**
+	 * Initialize a new SensorTimingStats object.
+	 * 
+	 * @param name
+	 *            the name of the sensor, used by format().
+	 */
+	public SensorTimingStats(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Add a sample.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 */
+	public void onSample(long timestamp)
+	{
+		long n = samples;
+
+		if (n > 0)
+		{
+			long period = timestamp - this.timestamp;
+
+			if (period == 0)
+			{
+				duplicates++;
+				return;
+			}
+
+			if (period < 0)
+			{
+				outOfOrder++;
+				return;
+			}
+
+			double mean = this.mean;
+
+			// n samples so far make n - 1 periods.
+			if (n - 1 >= MIN_PERIODS && period > gapFactor * mean)
+			{
+				gaps++;
+			}
+
+			double delta = period - mean;
+
+			mean += delta / n;
+
+			this.m2 += delta * (period - mean);
+			this.mean = mean;
+
+			periods.record(period);
+		}
+
+		this.timestamp = timestamp;
+
+		samples = n + 1;
+	}
+
+	/**
+	 * Clear the statistics. Only call while no samples are being added.
+	 */
+	public void reset()
+	{
+		timestamp = 0;
+		samples = 0;
+		mean = 0;
+		m2 = 0;
+		gaps = 0;
+		duplicates = 0;
+		outOfOrder = 0;
+
+		periods.reset();
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Get the number of samples with a new timestamp.
+	 * 
+	 * @return the count.
+	 */
+	public long getSamples()
+	{
+		return samples;
+	}
+
+	/**
+	 * Get the mean sample period.
+	 * 
+	 * @return the period in nanoseconds.
+	 */
+	public double getMeanPeriod()
+	{
+		return mean;
+	}
+
+	/**
+	 * Get the variance of the sample period.
+	 * 
+	 * @return the variance in square nanoseconds.
+	 */
+	public double getVariance()
+	{
+		long periods = samples - 1;
+
+		return (periods > 1) ? m2 / (periods - 1) : 0;
+	}
+
+	/**
+	 * Get the standard deviation of the sample period, the jitter.
+	 * 
+	 * @return the standard deviation in nanoseconds.
+	 */
+	public double getStandardDeviation()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Get the sustained sample rate, from the mean period.
+	 * 
+	 * @return the rate in Hz.
+	 */
+	public double getRate()
+	{
+		double mean = this.mean;
+
+		return (mean > 0) ? 1000000000.0 / mean : 0;
+	}
+
+	public long getGaps()
+	{
+		return gaps;
+	}
+
+	public long getDuplicates()
+	{
+		return duplicates;
+	}
+
+	public long getOutOfOrder()
+	{
+		return outOfOrder;
+	}
+
+	public double getGapFactor()
+	{
+		return gapFactor;
+	}
+
+	/**
+	 * Copy the distribution of the sample period into a snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot to fill, or null to allocate a new one.
+	 * @return the snapshot, in nanoseconds.
+	 */
+	public LatencyHistogram.Snapshot getPeriods(
+			LatencyHistogram.Snapshot snapshot)
+	{
+		return periods.snapshot(snapshot);
+	}
+
+	/**
+	 * Set how much longer than the mean a period must be to count as a gap.
+	 * 
+	 * @param gapFactor
+	 *            the factor, greater than 1.
+	 */
+	public void setGapFactor(double gapFactor)
+	{
+		if (!(gapFactor > 1))
+		{
+			throw new IllegalArgumentException("Gap factor must be greater than 1: "
+					+ gapFactor);
+		}
+
+		this.gapFactor = gapFactor;
+	}
+
+	/**
+	 * Format the rate, the mean, jitter and quantiles of the period in
+	 * milliseconds, and the gap and duplicate counts on one line. Only call
+	 * from one thread at a time.
+	 * 
+	 * @param out
+	 *            the builder to append to.
+	 * @return the builder.
+	 */
+	public StringBuilder format(StringBuilder out)
+	{
+		periods.snapshot(snapshot);
+
+		out.append(name).append(": ");
+		appendFixed(out, getRate(), 10);
+		out.append(" Hz, period ");
+		appendFixed(out, mean / 1000000, 100);
+		out.append(" +/- ");
+		appendFixed(out, getStandardDeviation() / 1000000, 100);
+		out.append(" p50 ");
+		appendFixed(out, snapshot.getPercentile(50) / 1000000.0, 100);
+		out.append(" p99 ");
+		appendFixed(out, snapshot.getPercentile(99) / 1000000.0, 100);
+		out.append(" ms, gaps ").append(gaps);
+		out.append(", dups ").append(duplicates);
+
+		return out;
+	}
+
+	/**
+	 * Append a value with a fixed number of decimal places without
+	 * allocating.
+	 */
+	private static void appendFixed(StringBuilder out, double value, int scale)
+	{
+		long fixed = Math.round(value * scale);
+
+		out.append(fixed / scale).append('.');
+
+		for (int s = scale / 10; s > 0; s /= 10)
+		{
+			out.append((fixed / s) % 10);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Describes the binary sensor trace format. A trace is a fixed size header
+ * followed by fixed width records, all little endian.
+ * 
+ * The header is 32 bytes:
+ * 
+ * <pre>
+ * int   magic        'ASTR'
+ * short version      1
+ * short record size  24
+ * long  created      wall clock time in milliseconds
+ * long  record count written when the trace is closed, 0 if it was not
+ * long  reserved
+ * </pre>
+ * 
+ * Each record is 24 bytes:
+ * 
+ * <pre>
+ * long  timestamp    nanoseconds
+ * int   sensor type  TYPE_ACCELEROMETER or TYPE_MAGNETIC_FIELD
+ * float x, y, z
+ * </pre>
+ * 
+ * A record with a sensor type of 0 marks the end of a trace that was not
+ * closed cleanly.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public final class SensorTrace
+{
+	public static final int MAGIC = 0x41535452;
+	public static final short VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+	public static final int RECORD_SIZE = 24;
+
+	// The offset of the record count in the header.
+	public static final int RECORD_COUNT_OFFSET = 16;
+
+	// The sensor types, the same values as Sensor.TYPE_ACCELEROMETER and
+	// Sensor.TYPE_MAGNETIC_FIELD.
+	public static final int TYPE_ACCELEROMETER = 1;
+	public static final int TYPE_MAGNETIC_FIELD = 2;
+
+	private SensorTrace()
+	{
+	}
+}
@@ -0,0 +1,196 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reads a binary sensor trace, see {@link SensorTrace}. The trace is streamed
+ * through a fixed size direct buffer, so traces of any length can be read
+ * without loading them whole.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class SensorTraceReader
+{
+	private static final int BUFFER_SIZE = SensorTrace.RECORD_SIZE * 2731;
+
+	private FileInputStream stream;
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	private long created;
+	private long recordCount;
+
+	private long timestamp;
+	private int type;
+	private float x;
+	private float y;
+	private float z;
+
+	/**
+	 * Open a trace.
+	 * 
+	 * @param path
+	 *            the file to read.
+	 * @throws IOException
+	 *             if the file could not be read or is not a trace.
+	 */
+	public SensorTraceReader(File path) throws IOException
+	{
+		stream = new FileInputStream(path);
+		channel = stream.getChannel();
+
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		fill();
+
+		if (buffer.remaining() < SensorTrace.HEADER_SIZE
+				|| buffer.getInt() != SensorTrace.MAGIC)
+		{
+			close();
+			throw new IOException("Not a sensor trace: " + path);
+		}
+
+		short version = buffer.getShort();
+		short recordSize = buffer.getShort();
+
+		if (version != SensorTrace.VERSION
+				|| recordSize != SensorTrace.RECORD_SIZE)
+		{
+			close();
+			throw new IOException("Unsupported sensor trace version "
+					+ version + ": " + path);
+		}
+
+		created = buffer.getLong();
+		recordCount = buffer.getLong();
+
+		// Skip the reserved field.
+		buffer.getLong();
+	}
+
+	/**
+	 * Read the next record.
+	 * 
+	 * @return true if a record was read, false at the end of the trace.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public boolean next() throws IOException
+	{
+		if (buffer.remaining() < SensorTrace.RECORD_SIZE)
+		{
+			fill();
+
+			if (buffer.remaining() < SensorTrace.RECORD_SIZE)
+			{
+				return false;
+			}
+		}
+
+		timestamp = buffer.getLong();
+		type = buffer.getInt();
+		x = buffer.getFloat();
+		y = buffer.getFloat();
+		z = buffer.getFloat();
+
+		// An unused record marks the end of a trace that was not closed.
+		return type != 0;
+	}
+
+	/**
+	 * Get the wall clock time the trace was created.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getCreated()
+	{
+		return created;
+	}
+
+	/**
+	 * Get the number of records in the trace.
+	 * 
+	 * @return the number of records, or 0 if the trace was not closed
+	 *         cleanly.
+	 */
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	public int getType()
+	{
+		return type;
+	}
+
+	public float getX()
+	{
+		return x;
+	}
+
+	public float getY()
+	{
+		return y;
+	}
+
+	public float getZ()
+	{
+		return z;
+	}
+
+	public void close() throws IOException
+	{
+		stream.close();
+	}
+
+	/**
+	 * Move any unread bytes to the start of the buffer and fill the rest from
+	 * the file.
+	 */
+	private void fill() throws IOException
+	{
+		if (buffer.position() > 0 || buffer.limit() < buffer.capacity())
+		{
+			buffer.compact();
+		}
+
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				break;
+			}
+		}
+
+		buffer.flip();
+	}
+}
@@ -0,0 +1,261 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Feeds a recorded sensor trace to a TiltCompensationEngine, either as fast as
+ * possible or paced to the timestamps of the recording.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class SensorTraceReplayer
+{
+	private TiltCompensationEngine engine;
+
+	private boolean realTime;
+
+	/**
+	 * Initialize a new SensorTraceReplayer object.
+	 * 
+	 * @param engine
+	 *            the engine to feed.
+	 */
+	public SensorTraceReplayer(TiltCompensationEngine engine)
+	{
+		this.engine = engine;
+	}
+
+	/**
+	 * Replay a trace into the engine. The trace is not closed.
+	 * 
+	 * @param reader
+	 *            the trace.
+	 * @return the number of records replayed.
+	 * @throws IOException
+	 *             if the trace could not be read.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while pacing the replay.
+	 */
+	public long replay(SensorTraceReader reader) throws IOException,
+			InterruptedException
+	{
+		long records = 0;
+
+		long firstTimestamp = 0;
+		long start = System.nanoTime();
+
+		while (reader.next())
+		{
+			long timestamp = reader.getTimestamp();
+
+			if (records == 0)
+			{
+				firstTimestamp = timestamp;
+			}
+
+			pace(timestamp - firstTimestamp, start);
+
+			dispatch(reader.getType(), timestamp, reader.getX(),
+					reader.getY(), reader.getZ());
+
+			records++;
+		}
+
+		// Process the samples still waiting at the end of the trace.
+		engine.flush();
+
+		return records;
+	}
+
+	/**
+	 * Replay a trace file into the engine, compressed if its name ends with
+	 * {@link CompressedTrace#EXTENSION}.
+	 * 
+	 * @param path
+	 *            the trace.
+	 * @return the number of records replayed.
+	 * @throws IOException
+	 *             if the trace could not be read.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while pacing the replay.
+	 */
+	public long replay(File path) throws IOException, InterruptedException
+	{
+		if (path.getName().endsWith(CompressedTrace.EXTENSION))
+		{
+			CompressedTraceReader reader = new CompressedTraceReader(path);
+
+			try
+			{
+				return replay(reader);
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+
+		SensorTraceReader reader = new SensorTraceReader(path);
+
+		try
+		{
+			return replay(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Replay a compressed trace into the engine, from the position of the
+	 * reader. The blocks of the two sensors are decoded one at a time and
+	 * merged by timestamp. The trace is not closed.
+	 * 
+	 * @param reader
+	 *            the trace.
+	 * @return the number of records replayed.
+	 * @throws IOException
+	 *             if the trace could not be read.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while pacing the replay.
+	 */
+	public long replay(CompressedTraceReader reader) throws IOException,
+			InterruptedException
+	{
+		CompressedTrace.Block accel = new CompressedTrace.Block(
+				reader.getBlockSize());
+		CompressedTrace.Block mag = new CompressedTrace.Block(
+				reader.getBlockSize());
+
+		boolean moreAccel = reader.nextBlock(SensorTrace.TYPE_ACCELEROMETER,
+				accel);
+		boolean moreMag = reader.nextBlock(SensorTrace.TYPE_MAGNETIC_FIELD,
+				mag);
+
+		int a = 0;
+		int m = 0;
+
+		long records = 0;
+
+		long firstTimestamp = 0;
+		long start = System.nanoTime();
+
+		while (moreAccel || moreMag)
+		{
+			// Take the magnetometer first on a tie, so the accelerometer
+			// sample it brackets is processed at once.
+			boolean takeMag = moreMag
+					&& (!moreAccel || mag.getTimestamps()[m] <= accel
+							.getTimestamps()[a]);
+
+			CompressedTrace.Block block = takeMag ? mag : accel;
+			int i = takeMag ? m++ : a++;
+
+			long timestamp = block.getTimestamps()[i];
+
+			if (records == 0)
+			{
+				firstTimestamp = timestamp;
+			}
+
+			pace(timestamp - firstTimestamp, start);
+
+			dispatch(block.getType(), timestamp, block.getX()[i],
+					block.getY()[i], block.getZ()[i]);
+
+			records++;
+
+			if (a == accel.getCount() && moreAccel)
+			{
+				moreAccel = reader.nextBlock(SensorTrace.TYPE_ACCELEROMETER,
+						accel);
+				a = 0;
+			}
+
+			if (m == mag.getCount() && moreMag)
+			{
+				moreMag = reader.nextBlock(SensorTrace.TYPE_MAGNETIC_FIELD,
+						mag);
+				m = 0;
+			}
+		}
+
+		// Process the samples still waiting at the end of the trace.
+		engine.flush();
+
+		return records;
+	}
+
+	/**
+	 * Wait until a sample is due, when replaying in real time.
+	 * 
+	 * @param elapsed
+	 *            the time of the sample since the first, in nanoseconds.
+	 * @param start
+	 *            the time the replay started, from System.nanoTime().
+	 */
+	private void pace(long elapsed, long start) throws InterruptedException
+	{
+		if (realTime)
+		{
+			long wait = elapsed - (System.nanoTime() - start);
+
+			if (wait > 0)
+			{
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+		}
+	}
+
+	/**
+	 * Hand a sample to the engine.
+	 */
+	private void dispatch(int type, long timestamp, float x, float y, float z)
+	{
+		switch (type)
+		{
+		case SensorTrace.TYPE_ACCELEROMETER:
+			engine.onAccelerometer(timestamp, x, y, z);
+			break;
+		case SensorTrace.TYPE_MAGNETIC_FIELD:
+			engine.onMagneticField(timestamp, x, y, z);
+			break;
+		}
+	}
+
+	public boolean isRealTime()
+	{
+		return realTime;
+	}
+
+	/**
+	 * Set whether the replay is paced to the timestamps of the recording.
+	 * 
+	 * @param realTime
+	 *            true to replay in real time, false to replay as fast as
+	 *            possible.
+	 */
+	public void setRealTime(boolean realTime)
+	{
+		this.realTime = realTime;
+	}
+}
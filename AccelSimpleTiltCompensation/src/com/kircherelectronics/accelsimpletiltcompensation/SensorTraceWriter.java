@@ -0,0 +1,160 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Records sensor samples to a binary trace, see {@link SensorTrace}. The file
+ * is memory mapped in large segments so writing a sample is a handful of
+ * stores into the mapping; the kernel writes the pages back in the
+ * background. A new segment is mapped only once every few tens of thousands
+ * of samples.
+ * 
+ * The app now records compressed traces with CompressedTraceWriter; this
+ * writer makes the plain traces TraceCompressor checks its conversion with.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class SensorTraceWriter
+{
+	// The size of each mapped segment, a multiple of the record size.
+	private static final int SEGMENT_SIZE = SensorTrace.RECORD_SIZE * 43690;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	// The file position of the start of the mapped segment.
+	private long segmentPosition;
+
+	private long recordCount;
+
+	/**
+	 * Create a new trace, replacing any existing file.
+	 * 
+	 * @param path
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public SensorTraceWriter(File path) throws IOException
+	{
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+
+		channel = file.getChannel();
+
+		map(0);
+
+		buffer.putInt(SensorTrace.MAGIC);
+		buffer.putShort(SensorTrace.VERSION);
+		buffer.putShort((short) SensorTrace.RECORD_SIZE);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.putLong(0);
+		buffer.putLong(0);
+	}
+
+	/**
+	 * Write a sensor sample.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param type
+	 *            the sensor type.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 * @throws IOException
+	 *             if the next segment of the file could not be mapped.
+	 */
+	public void write(long timestamp, int type, float x, float y, float z)
+			throws IOException
+	{
+		if (buffer.remaining() < SensorTrace.RECORD_SIZE)
+		{
+			map(segmentPosition + buffer.position());
+		}
+
+		buffer.putLong(timestamp);
+		buffer.putInt(type);
+		buffer.putFloat(x);
+		buffer.putFloat(y);
+		buffer.putFloat(z);
+
+		recordCount++;
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	/**
+	 * Write the record count to the header, trim the file to the records
+	 * written and close it.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be closed.
+	 */
+	public void close() throws IOException
+	{
+		long length = segmentPosition + buffer.position();
+
+		buffer.force();
+		buffer = null;
+
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE,
+				0, SensorTrace.HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(SensorTrace.RECORD_COUNT_OFFSET, recordCount);
+		header.force();
+
+		channel.truncate(length);
+
+		// Sync the earlier segments too, which were left to the kernel.
+		channel.force(false);
+		file.close();
+	}
+
+	/**
+	 * Map the next segment of the file. The old segment is not forced here,
+	 * which would block the sensor thread on the disk; the kernel writes its
+	 * pages back in the background and close() forces the last one.
+	 * 
+	 * @param position
+	 *            the file position of the start of the segment.
+	 */
+	private void map(long position) throws IOException
+	{
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, position,
+				SEGMENT_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		segmentPosition = position;
+	}
+}
@@ -0,0 +1,111 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The per-sample arithmetic of the tilt compensation, run over batches of
+ * samples in structure-of-arrays form: one array per axis, all indexed from
+ * the same offset. Every implementation must produce results identical to
+ * {@link ScalarSeparationKernel}, which matches the arithmetic of the
+ * TiltCompensationEngine exactly.
+ * 
+ * The adaptive threshold depends on every sample before it, so it can't be
+ * batched; {@link #band(float[], double, double, boolean[], int, int)} checks
+ * a fixed band, such as the band of the current threshold for a batch.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public interface SeparationKernel
+{
+	/**
+	 * Find the magnitudes of the acceleration, normalized to gravity.
+	 * 
+	 * @param x
+	 *            the x-axis acceleration.
+	 * @param y
+	 *            the y-axis acceleration.
+	 * @param z
+	 *            the z-axis acceleration.
+	 * @param magnitude
+	 *            the magnitudes.
+	 * @param offset
+	 *            the index of the first sample.
+	 * @param length
+	 *            the number of samples.
+	 */
+	public void magnitudes(float[] x, float[] y, float[] z,
+			float[] magnitude, int offset, int length);
+
+	/**
+	 * Check whether the magnitudes are in a band, low < magnitude <= high.
+	 * 
+	 * @param magnitude
+	 *            the magnitudes.
+	 * @param low
+	 *            the bottom of the band, exclusive.
+	 * @param high
+	 *            the top of the band, inclusive.
+	 * @param inBand
+	 *            set to true for each magnitude in the band.
+	 * @param offset
+	 *            the index of the first sample.
+	 * @param length
+	 *            the number of samples.
+	 */
+	public void band(float[] magnitude, double low, double high,
+			boolean[] inBand, int offset, int length);
+
+	/**
+	 * Subtract the gravity components from the acceleration to find the
+	 * linear acceleration.
+	 * 
+	 * @param x
+	 *            the x-axis acceleration.
+	 * @param y
+	 *            the y-axis acceleration.
+	 * @param z
+	 *            the z-axis acceleration.
+	 * @param gx
+	 *            the x-axis gravity.
+	 * @param gy
+	 *            the y-axis gravity.
+	 * @param gz
+	 *            the z-axis gravity.
+	 * @param lx
+	 *            the x-axis linear acceleration.
+	 * @param ly
+	 *            the y-axis linear acceleration.
+	 * @param lz
+	 *            the z-axis linear acceleration.
+	 * @param offset
+	 *            the index of the first sample.
+	 * @param length
+	 *            the number of samples.
+	 */
+	public void subtract(float[] x, float[] y, float[] z, float[] gx,
+			float[] gy, float[] gz, float[] lx, float[] ly, float[] lz,
+			int offset, int length);
+
+	/**
+	 * Get a short name of the implementation, for reports.
+	 * 
+	 * @return the name.
+	 */
+	public String getName();
+}
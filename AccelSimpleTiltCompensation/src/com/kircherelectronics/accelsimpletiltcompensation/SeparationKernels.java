@@ -0,0 +1,85 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Selects the fastest SeparationKernel the JVM supports. The SIMD kernel,
+ * VectorSeparationKernel, is built from the simd source folder against the
+ * incubating Vector API and is only used if it is on the class path and the
+ * jdk.incubator.vector module is present; otherwise, as on Android, the
+ * scalar kernel is used. The choice is made once, when this class is loaded.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public final class SeparationKernels
+{
+	private static final String VECTOR_KERNEL = "com.kircherelectronics.accelsimpletiltcompensation.VectorSeparationKernel";
+
+	private static final SeparationKernel SCALAR = new ScalarSeparationKernel();
+
+	private static final SeparationKernel DEFAULT = select();
+
+	private SeparationKernels()
+	{
+	}
+
+	/**
+	 * Get the fastest kernel the JVM supports.
+	 * 
+	 * @return the kernel.
+	 */
+	public static SeparationKernel getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * Get the scalar reference kernel.
+	 * 
+	 * @return the kernel.
+	 */
+	public static SeparationKernel getScalar()
+	{
+		return SCALAR;
+	}
+
+	/**
+	 * Load the SIMD kernel if it is available.
+	 * 
+	 * @return the kernel.
+	 */
+	private static SeparationKernel select()
+	{
+		try
+		{
+			return (SeparationKernel) Class.forName(VECTOR_KERNEL)
+					.getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e)
+		{
+			// Not on the class path, or no useful vector shape.
+			return SCALAR;
+		}
+		catch (LinkageError e)
+		{
+			// The jdk.incubator.vector module is missing.
+			return SCALAR;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The original gravity estimator. The gravity components are snapped to the
+ * acceleration once the device has been free of linear acceleration for the
+ * count threshold, and held otherwise.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class ThresholdGravityEstimator implements GravityEstimator
+{
+	@Override
+	public void update(float ax, float ay, float az, float dt,
+			float magnitude, boolean steady, float[] gravity)
+	{
+		// There are certain singularities in the calculation
+		// of the magnitude that can cause the magnitude to be
+		// equal to gravity despite linear acceleration. We filter
+		// out singularities by assuming they won't occur more than
+		// a defined number of times in a row. A smaller threshold
+		// count will result in faster response, but a greater
+		// likelihood of a singularity passing though the filter and
+		// distorting the estimation.
+		if (steady)
+		{
+			// Find the gravity component of the X-axis
+			gravity[0] = ax;
+
+			// Find the gravity component of the Y-axis
+			gravity[1] = ay;
+
+			// Find the gravity component of the Z-axis
+			gravity[2] = az;
+		}
+	}
+
+	@Override
+	public void reset(float[] gravity)
+	{
+		// Nothing to reset, the estimate is held as it is.
+	}
+}
@@ -1,11 +1,17 @@
 package com.kircherelectronics.accelsimpletiltcompensation;
 
-import com.androidplot.xy.XYPlot;
+import java.io.File;
+import java.io.IOException;
+
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.app.Activity;
 import android.app.Dialog;
 import android.util.Log;
@@ -18,6 +24,7 @@ import android.view.ViewGroup;
 import android.view.View.OnClickListener;
 import android.view.View.OnTouchListener;
 import android.widget.Button;
+import android.widget.RadioGroup;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.ToggleButton;
@@ -48,34 +55,149 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
  * @version 1.0
  */
 public class TiltCompensationActivity extends Activity implements
-		SensorEventListener, OnSeekBarChangeListener, OnTouchListener
+		SensorEventListener, OnSeekBarChangeListener, OnTouchListener,
+		TiltCompensationEngine.OutputListener
 {
 
-	private double alpha = 0.5;
-	private float timestampAccel;
-	private float timestampAccelOld;
+	// The minimum time between updates of the sample period text, in
+	// nanoseconds.
+	private static final long TEXT_UPDATE_INTERVAL = 250000000;
+
+	// The time between checks for new outputs and plot redraws on the UI
+	// thread, in milliseconds.
+	private static final long FRAME_INTERVAL = 16;
+
+	// The number of outputs shown in the plot, about ten seconds at the
+	// fastest accelerometer rate. The plot downsamples them to its point
+	// budget.
+	private static final int PLOT_WINDOW = 2000;
 
-	private float timestampMag;
-	private float timestampMagOld;
+	// The number of outputs that can wait for the UI thread.
+	private static final int OUTPUT_CAPACITY = 1024;
 
-	private float dt;
+	// The file the calibration is kept in between sessions.
+	private static final String CALIBRATION_FILE = "calibration.snapshot";
 
-	// Raw accelerometer data
-	private float[] inputAccel = new float[3];
-	private float[] inputMag = new float[3];
-	// The gravity components of the acceleration signal.
-	private float[] components = new float[3];
+	// The number of diagnostic records kept for each thread.
+	private static final int DIAGNOSTIC_CAPACITY = 1024;
+
+	// Record the engine state every this many engine outputs, as well
+	// as whenever the device starts or stops being at rest.
+	private static final int DIAGNOSTIC_INTERVAL = 16;
 
 	private String tag = "Sensor Rotation";
 
 	private SensorManager sensorManager;
 
-	private double threshold = 1.05;
+	// Finds the gravity and linear acceleration components, on the sensor
+	// thread.
+	private TiltCompensationEngine engine;
+
+	// The settings last published to the engine.
+	private TiltCompensationConfig config = TiltCompensationConfig.DEFAULT;
+
+	// Delivers the sensor events and runs the engine off the UI thread.
+	private HandlerThread sensorThread;
+	private Handler sensorHandler;
+
+	// Hands the engine output from the sensor thread to the UI thread.
+	private OutputRingBuffer outputRing;
+
+	private Handler uiHandler;
+
+	// Drains the engine output on the UI thread.
+	private Runnable frameRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			outputRing.drain(TiltCompensationActivity.this, OUTPUT_CAPACITY);
+
+			long now = System.nanoTime();
+
+			plotView.onFrame(now);
+
+			// Building the text allocates, so only do it a few times a
+			// second.
+			if (now - timestampText >= TEXT_UPDATE_INTERVAL)
+			{
+				updateText();
+
+				timestampText = now;
+			}
+
+			uiHandler.postDelayed(this, FRAME_INTERVAL);
+		}
+	};
+
+	// The timestamp of the last output on the UI thread.
+	private long timestampOutput;
 
-	private MeanFilter meanFilterMagnitude;
+	// The sample period between the last two outputs, in seconds.
+	private float dtOutput;
 
-	private int accelerationCount = 0;
-	private int countThreshold = 5;
+	// The time of the last update of the text, from System.nanoTime().
+	private long timestampText;
+
+	// The timing of the samples of each sensor, updated on the sensor thread.
+	private SensorTimingStats accelTiming;
+	private SensorTimingStats magTiming;
+
+	// Reused to build the sensor timing text.
+	private StringBuilder timingText = new StringBuilder();
+
+	// The latency of each stage of the sensor pipeline.
+	private PipelineLatency latency;
+
+	// The latency while the overlay is shown, otherwise null. Read on the
+	// sensor thread.
+	private volatile PipelineLatency activeLatency;
+
+	// Reused to build the latency overlay text.
+	private StringBuilder latencyText = new StringBuilder();
+
+	// The engine state, recorded on the sensor thread.
+	private DiagnosticRing sensorDiagnostics;
+
+	// The touches of the plot, recorded on the UI thread.
+	private DiagnosticRing touchDiagnostics;
+
+	// Records the sensor samples while recording is on, otherwise null. Only
+	// used on the sensor thread.
+	private CompressedTraceWriter traceWriter;
+
+	// Whether recording is on, on the UI thread.
+	private boolean recording;
+
+	// Exports the engine output while exporting is on, otherwise null. Only
+	// used on the sensor thread.
+	private OutputExporter exporter;
+
+	// Whether exporting is on, on the UI thread.
+	private boolean exporting;
+
+	// Hands each engine output to the UI thread, and to the export while it
+	// is on, and samples the engine state. Called on the sensor thread.
+	private TiltCompensationEngine.OutputListener sensorOutput = new TiltCompensationEngine.OutputListener()
+	{
+		@Override
+		public void onOutput(long timestamp, float[] raw, float[] gravity,
+				float[] linearAcceleration)
+		{
+			outputRing.onOutput(timestamp, raw, gravity, linearAcceleration);
+
+			int count = engine.getAccelerationCount();
+
+			sensorDiagnostics.sample(timestamp, engine.getMagnitude(),
+					engine.getThreshold(), count, count >= engine.getConfig()
+							.getCountThreshold(), gravity);
+
+			if (exporter != null)
+			{
+				exporter.onOutput(timestamp, raw, gravity, linearAcceleration);
+			}
+		}
+	};
 
 	// Touch to zoom constants
 	private float distance = 0;
@@ -88,6 +210,8 @@ public class TiltCompensationActivity extends Activity implements
 	private TextView tvWindow;
 	private TextView tvSamplePeroid;
 	private TextView tvUpdateFrequency;
+	private TextView tvSensorTiming;
+	private TextView tvLatency;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState)
@@ -95,27 +219,49 @@ public class TiltCompensationActivity extends Activity implements
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_tilt_compensation);
 
-		meanFilterMagnitude = new MeanFilter();
-		meanFilterMagnitude.setWindowSize(20);
+		outputRing = new OutputRingBuffer(OUTPUT_CAPACITY);
+
+		latency = new PipelineLatency();
+
+		sensorDiagnostics = new DiagnosticRing(DIAGNOSTIC_CAPACITY,
+				DIAGNOSTIC_INTERVAL, true);
+		touchDiagnostics = new DiagnosticRing(DIAGNOSTIC_CAPACITY, 0, false);
+
+		accelTiming = new SensorTimingStats("Accel");
+		magTiming = new SensorTimingStats("Mag");
+
+		engine = new TiltCompensationEngine();
+		engine.setConfig(config);
+		engine.setOutputListener(sensorOutput);
+
+		// Carry on with the calibration of the last session, including its
+		// settings.
+		restoreCalibration();
+		config = engine.getConfig();
+
+		uiHandler = new Handler();
 
 		plotView = new PlotView(
-				(XYPlot) this.findViewById(R.id.dynamicLinePlot));
+				(TimedXYPlot) this.findViewById(R.id.dynamicLinePlot));
 		plotView.setMaxRange(zoom);
 		plotView.setMinRange(-zoom);
+		plotView.setWindowSize(PLOT_WINDOW);
+		plotView.setCoalescing(true);
 
 		SeekBar sbw = (SeekBar) findViewById(R.id.sliderWindow);
-		sbw.setProgress(countThreshold);
+		sbw.setProgress(config.getCountThreshold());
 		sbw.setOnSeekBarChangeListener(this);
 
 		SeekBar sba = (SeekBar) findViewById(R.id.sliderAlpha);
-		sba.setProgress(500);
+		sba.setProgress((int) Math.round(config.getAlpha() * 1000));
 		sba.setOnSeekBarChangeListener(this);
 
 		tvAlpha = (TextView) findViewById(R.id.alpha);
-		tvAlpha.setText("Alpha: " + Double.toString(alpha));
+		tvAlpha.setText("Alpha: " + Double.toString(config.getAlpha()));
 
 		tvWindow = (TextView) findViewById(R.id.window);
-		tvWindow.setText("Count Threshold: " + Integer.toString(countThreshold));
+		tvWindow.setText("Count Threshold: "
+				+ Integer.toString(config.getCountThreshold()));
 
 		tvSamplePeroid = (TextView) findViewById(R.id.samplePeriod);
 		tvSamplePeroid.setText(Float.toString(0));
@@ -123,6 +269,10 @@ public class TiltCompensationActivity extends Activity implements
 		tvUpdateFrequency = (TextView) findViewById(R.id.updateFrequency);
 		tvUpdateFrequency.setText(Float.toString(0));
 
+		tvSensorTiming = (TextView) findViewById(R.id.sensorTiming);
+
+		tvLatency = (TextView) findViewById(R.id.latencyOverlay);
+
 		sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 	}
 
@@ -139,14 +289,71 @@ public class TiltCompensationActivity extends Activity implements
 	{
 		super.onResume();
 
-		// Register for sensor updates.
+		// Nothing is recording until the sensor thread and the frames start.
+		latency.reset();
+		accelTiming.reset();
+		magTiming.reset();
+
+		sensorThread = new HandlerThread("Sensor Thread",
+				Process.THREAD_PRIORITY_MORE_FAVORABLE);
+		sensorThread.start();
+
+		sensorHandler = new Handler(sensorThread.getLooper());
+
+		// Register for sensor updates, delivered on the sensor thread.
 		sensorManager.registerListener(this,
 				sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-				SensorManager.SENSOR_DELAY_FASTEST);
+				SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
 
 		sensorManager.registerListener(this,
 				sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-				SensorManager.SENSOR_DELAY_FASTEST);
+				SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
+
+		uiHandler.post(frameRunnable);
+	}
+
+	@Override
+	protected void onPause()
+	{
+		super.onPause();
+
+		uiHandler.removeCallbacks(frameRunnable);
+
+		sensorManager.unregisterListener(this);
+
+		// Quit the sensor thread behind the messages already posted to it,
+		// rather than discarding them, so a recording or export handed to it
+		// is taken before it is closed below.
+		sensorHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Looper.myLooper().quit();
+			}
+		});
+
+		try
+		{
+			sensorThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		sensorThread = null;
+		sensorHandler = null;
+
+		// The engine is idle now the sensor thread is gone.
+		saveCalibration();
+
+		// The sensor thread is gone, so the trace can be closed here.
+		closeTrace();
+		recording = false;
+
+		closeExport();
+		exporting = false;
 	}
 
 	@Override
@@ -159,99 +366,56 @@ public class TiltCompensationActivity extends Activity implements
 	@Override
 	public void onSensorChanged(SensorEvent event)
 	{
+		PipelineLatency latency = activeLatency;
+
+		long start = (latency != null) ? System.nanoTime() : 0;
+
+		if (traceWriter != null)
+		{
+			record(event);
+		}
+
 		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER)
 		{
-			timestampAccel = event.timestamp;
+			accelTiming.onSample(event.timestamp);
 
-			// Make sure the timestamp for the event has changed.
-			if (timestampAccel != timestampAccelOld)
+			// The engine records the stages of the processing itself.
+			if (latency != null)
 			{
-				// Get a local copy of the sensor values
-				System.arraycopy(event.values, 0, inputAccel, 0,
-						event.values.length);
+				latency.record(PipelineLatency.EVENT_RECORD, System.nanoTime()
+						- start);
 			}
 
+			engine.onAccelerometer(event.timestamp, event.values[0],
+					event.values[1], event.values[2]);
 		}
 
 		if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD)
 		{
-			timestampMag = event.timestamp;
+			magTiming.onSample(event.timestamp);
 
-			// Make sure the timestamp for the event has changed.
-			if (timestampMag != timestampMagOld)
+			if (latency != null)
 			{
-				// Get a local copy of the sensor values
-				System.arraycopy(event.values, 0, inputMag, 0,
-						event.values.length);
-
-				// Find the sample period (between updates).
-				// Convert from nanoseconds to seconds
-				dt = (timestampMag - timestampMagOld) / 1000000000.0f;
-
-				tvSamplePeroid.setText("Sample Peroid: " + Float.toString(dt));
-				tvUpdateFrequency.setText("Update Frequency: "
-						+ Float.toString(1 / dt));
-
-				float magnitude = (float) (Math.sqrt(Math.pow(inputAccel[0], 2)
-						+ Math.pow(inputAccel[1], 2)
-						+ Math.pow(inputAccel[2], 2)) / SensorManager.GRAVITY_EARTH);
-
-				// Dynamically calculate a threshold for detecting linear
-				// acceleration
-				// from the magnitude.
-				if (magnitude <= threshold && magnitude > 0.95)
-				{
-					double mean = meanFilterMagnitude.filterFloat(magnitude);
-
-					// Use a weighted average to "push" the threshold
-					// towards the mean, plus a small constant.
-					threshold += (alpha * (mean - threshold)) + 0.01;
-
-					accelerationCount++;
-				} else
-				{
-					accelerationCount = 0;
-				}
-				
-				Log.d(tag, "Mag: " + Double.toString(magnitude));
-				Log.d(tag, "Thresh: " + Double.toString(threshold));
-
-				// There are certain singularities in the calculation
-				// of the magnitude that can cause the magnitude to be
-				// equal to gravity despite linear acceleration. We filter
-				// out singularities by assuming they won't occur more than
-				// a defined number of times in a row. A smaller threshold
-				// count will result in faster response, but a greater
-				// likelihood of a singularity passing though the filter and
-				// distorting the estimation.
-				if (accelerationCount >= countThreshold)
-				{
-					// Find the gravity component of the X-axis
-					components[0] = inputAccel[0];
-
-					// Find the gravity component of the Y-axis
-					components[1] = inputAccel[1];
-
-					// Find the gravity component of the Z-axis
-					components[2] = inputAccel[2];
-				}
-
-				float[] tiltAccel = new float[3];
-
-				// Subtract the gravity component of the signal
-				// from the input acceleration signal to get the
-				// tilt compensated output.
-				tiltAccel[0] = inputAccel[0] - components[0];
-				tiltAccel[1] = inputAccel[1] - components[1];
-				tiltAccel[2] = inputAccel[2] - components[2];
-
-				plotView.setData(inputAccel, components, tiltAccel);
+				latency.record(PipelineLatency.EVENT_RECORD, System.nanoTime()
+						- start);
 			}
 
+			engine.onMagneticField(event.timestamp, event.values[0],
+					event.values[1], event.values[2]);
 		}
+	}
+
+	@Override
+	public void onOutput(long timestamp, float[] raw, float[] gravity,
+			float[] linearAcceleration)
+	{
+		// Find the sample period (between updates).
+		// Convert from nanoseconds to seconds
+		dtOutput = (timestamp - timestampOutput) / 1000000000.0f;
+
+		timestampOutput = timestamp;
 
-		this.timestampAccelOld = this.timestampAccel;
-		this.timestampMagOld = this.timestampMag;
+		plotView.setData(raw, gravity, linearAcceleration);
 	}
 
 	@Override
@@ -260,21 +424,25 @@ public class TiltCompensationActivity extends Activity implements
 	{
 		if (seekBar.equals((SeekBar) findViewById(R.id.sliderWindow)))
 		{
-			countThreshold = progress;
-			tvWindow.setText("Time Constant: "
-					+ Integer.toString(countThreshold));
+			config = config.withCountThreshold(progress);
+			engine.setConfig(config);
+			tvWindow.setText("Time Constant: " + Integer.toString(progress));
 		}
 		if (seekBar.equals((SeekBar) findViewById(R.id.sliderAlpha)))
 		{
-			alpha = progress / 1000.0f;
-			tvAlpha.setText("Alpha: " + Double.toString(alpha));
+			config = config.withAlpha(progress / 1000.0f);
+			engine.setConfig(config);
+			tvAlpha.setText("Alpha: " + Double.toString(config.getAlpha()));
 		}
 	}
 
 	@Override
 	public boolean onTouch(View v, MotionEvent e)
 	{
-		Log.d(tag, "test");
+		touchDiagnostics.record(DiagnosticRing.KIND_TOUCH,
+				e.getEventTime() * 1000000, e.getAction(), zoom, 0, false, 0,
+				0, 0);
+
 		// MotionEvent reports input details from the touch screen
 		// and other input controls.
 		float newDist = 0;
@@ -321,11 +489,389 @@ public class TiltCompensationActivity extends Activity implements
 			showSettingsDialog();
 			return true;
 
+		case R.id.menu_record:
+			if (!recording)
+			{
+				startRecording();
+			}
+			else
+			{
+				stopRecording();
+			}
+
+			item.setTitle(!recording ? R.string.menu_record
+					: R.string.menu_stop_recording);
+			return true;
+
+		case R.id.menu_latency:
+			setLatencyOverlay(activeLatency == null);
+
+			item.setTitle(activeLatency == null ? R.string.menu_latency
+					: R.string.menu_hide_latency);
+			return true;
+
+		case R.id.menu_export:
+			if (!exporting)
+			{
+				startExport();
+			}
+			else
+			{
+				stopExport();
+			}
+
+			item.setTitle(!exporting ? R.string.menu_export
+					: R.string.menu_stop_export);
+			return true;
+
+		case R.id.menu_diagnostics:
+			dumpDiagnostics();
+			return true;
+
 		default:
 			return super.onOptionsItemSelected(item);
 		}
 	}
 
+	/**
+	 * Show or hide the latency overlay. The latency is only recorded while
+	 * the overlay is shown.
+	 * 
+	 * @param show
+	 *            true to show the overlay.
+	 */
+	private void setLatencyOverlay(boolean show)
+	{
+		activeLatency = show ? latency : null;
+
+		engine.setLatency(activeLatency);
+		plotView.setLatency(activeLatency);
+
+		tvLatency.setVisibility(show ? View.VISIBLE : View.GONE);
+	}
+
+	/**
+	 * Update the sample period and sensor timing text and the latency
+	 * overlay.
+	 */
+	private void updateText()
+	{
+		tvSamplePeroid.setText("Sample Peroid: " + Float.toString(dtOutput));
+		tvUpdateFrequency.setText("Update Frequency: "
+				+ Float.toString(1 / dtOutput));
+
+		timingText.setLength(0);
+		accelTiming.format(timingText).append('\n');
+		magTiming.format(timingText);
+
+		tvSensorTiming.setText(timingText.toString());
+
+		if (activeLatency != null)
+		{
+			latencyText.setLength(0);
+
+			tvLatency.setText(activeLatency.format(latencyText).toString());
+		}
+	}
+
+	/**
+	 * Decode the diagnostic records of the sensor and UI threads to the log.
+	 */
+	private void dumpDiagnostics()
+	{
+		dumpDiagnostics("Sensor", sensorDiagnostics);
+		dumpDiagnostics("Touch", touchDiagnostics);
+	}
+
+	/**
+	 * Decode the records of a diagnostic ring to the log, one line each.
+	 * 
+	 * @param name
+	 *            the name of the ring.
+	 * @param ring
+	 *            the ring.
+	 */
+	private void dumpDiagnostics(String name, DiagnosticRing ring)
+	{
+		DiagnosticRing.Snapshot snapshot = ring.snapshot();
+
+		Log.i(tag, name + " diagnostics: " + snapshot.size() + " records, "
+				+ snapshot.getLost() + " overwritten");
+
+		StringBuilder line = new StringBuilder();
+
+		for (int i = 0; i < snapshot.size(); i++)
+		{
+			line.setLength(0);
+
+			Log.i(tag, snapshot.format(i, line).toString());
+		}
+	}
+
+	/**
+	 * Restore the engine from the calibration of the last session, if there
+	 * is one. Only called before the sensor thread starts.
+	 */
+	private void restoreCalibration()
+	{
+		File file = new File(getFilesDir(), CALIBRATION_FILE);
+
+		long start = System.nanoTime();
+
+		try
+		{
+			if (CalibrationSnapshot.read(engine, file))
+			{
+				Log.i(tag, "Restored the calibration in "
+						+ ((System.nanoTime() - start) / 1000) + " us");
+			}
+		}
+		catch (IOException e)
+		{
+			Log.w(tag, "Could not read the calibration", e);
+		}
+	}
+
+	/**
+	 * Save the calibration of the engine for the next session. Only called
+	 * while the sensor thread is stopped.
+	 */
+	private void saveCalibration()
+	{
+		try
+		{
+			CalibrationSnapshot.write(engine, new File(getFilesDir(),
+					CALIBRATION_FILE));
+		}
+		catch (IOException e)
+		{
+			Log.w(tag, "Could not save the calibration", e);
+		}
+	}
+
+	/**
+	 * Start recording the sensor samples to a new trace file.
+	 */
+	private void startRecording()
+	{
+		File dir = getExternalFilesDir(null);
+
+		if (dir == null)
+		{
+			dir = getFilesDir();
+		}
+
+		File path = new File(dir, "sensors-" + System.currentTimeMillis()
+				+ CompressedTrace.EXTENSION);
+
+		final CompressedTraceWriter writer;
+
+		try
+		{
+			writer = new CompressedTraceWriter(path);
+		}
+		catch (IOException e)
+		{
+			Log.e(tag, "Could not start recording to " + path, e);
+			return;
+		}
+
+		// Hand the trace to the sensor thread. The sensor thread runs this
+		// before it quits, so the trace is closed in onPause() at the latest.
+		sensorHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				traceWriter = writer;
+			}
+		});
+
+		recording = true;
+	}
+
+	/**
+	 * Stop recording the sensor samples.
+	 */
+	private void stopRecording()
+	{
+		// Close the trace on the sensor thread, after any pending events.
+		sensorHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				closeTrace();
+			}
+		});
+
+		recording = false;
+	}
+
+	/**
+	 * Stop recording to the trace, if recording, and close it on a
+	 * background thread, which waits for the last blocks to reach the disk.
+	 * Only called on the sensor thread, or once the sensor thread has
+	 * stopped.
+	 */
+	private void closeTrace()
+	{
+		if (traceWriter == null)
+		{
+			return;
+		}
+
+		final CompressedTraceWriter writer = traceWriter;
+
+		traceWriter = null;
+
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					writer.close();
+				}
+				catch (IOException e)
+				{
+					Log.e(tag, "Could not close the recording", e);
+				}
+
+				long dropped = writer.getDroppedRecords();
+
+				if (dropped > 0)
+				{
+					Log.w(tag, "The recording dropped " + dropped + " of "
+							+ writer.getRecordCount() + " samples");
+				}
+			}
+		}, "Close Trace").start();
+	}
+
+	/**
+	 * Record a sensor sample to the trace.
+	 * 
+	 * @param event
+	 *            the sensor sample.
+	 */
+	private void record(SensorEvent event)
+	{
+		try
+		{
+			traceWriter.write(event.timestamp, event.sensor.getType(),
+					event.values[0], event.values[1], event.values[2]);
+		}
+		catch (IOException e)
+		{
+			Log.e(tag, "Recording failed", e);
+
+			closeTrace();
+		}
+	}
+
+	/**
+	 * Start exporting the raw, gravity and linear acceleration to a new CSV
+	 * file.
+	 */
+	private void startExport()
+	{
+		File dir = getExternalFilesDir(null);
+
+		if (dir == null)
+		{
+			dir = getFilesDir();
+		}
+
+		File path = new File(dir, "output-" + System.currentTimeMillis()
+				+ ".csv");
+
+		final OutputExporter export;
+
+		try
+		{
+			export = new OutputExporter(path, OutputExporter.FORMAT_CSV);
+		}
+		catch (IOException e)
+		{
+			Log.e(tag, "Could not start exporting to " + path, e);
+			return;
+		}
+
+		// Hand the export to the sensor thread. The sensor thread runs this
+		// before it quits, so the export is closed in onPause() at the latest.
+		sensorHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				exporter = export;
+			}
+		});
+
+		exporting = true;
+	}
+
+	/**
+	 * Stop exporting the engine output.
+	 */
+	private void stopExport()
+	{
+		// Detach the export on the sensor thread, after any pending events.
+		sensorHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				closeExport();
+			}
+		});
+
+		exporting = false;
+	}
+
+	/**
+	 * Stop exporting, if exporting, and close the export on a background
+	 * thread, which waits for the last outputs to reach the disk. Only called
+	 * on the sensor thread, or once the sensor thread has stopped.
+	 */
+	private void closeExport()
+	{
+		if (exporter == null)
+		{
+			return;
+		}
+
+		final OutputExporter export = exporter;
+
+		exporter = null;
+
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					export.close();
+				}
+				catch (IOException e)
+				{
+					Log.e(tag, "Could not close the export", e);
+				}
+
+				long dropped = export.getDropped();
+
+				if (dropped > 0)
+				{
+					Log.w(tag, "The export dropped " + dropped + " of "
+							+ (export.getExported() + dropped) + " outputs");
+				}
+			}
+		}, "Close Export").start();
+	}
+
 	/**
 	 * Build a setting dialog and display it.
 	 */
@@ -454,9 +1000,81 @@ public class TiltCompensationActivity extends Activity implements
 			}
 		});
 
+		final RadioGroup gravityRadioGroup = (RadioGroup) layout
+				.findViewById(R.id.gravityradiogroup);
+		gravityRadioGroup.check(getGravityRadioId(config
+				.getGravityEstimator()));
+		gravityRadioGroup
+				.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener()
+				{
+					public void onCheckedChanged(RadioGroup group, int checkedId)
+					{
+						config = config
+								.withGravityEstimator(getGravityEstimator(checkedId));
+						engine.setConfig(config);
+					}
+				});
+
+		final ToggleButton outlierToggleButton = (ToggleButton) layout
+				.findViewById(R.id.outliertogglebutton);
+		outlierToggleButton.setChecked(config.isOutlierRejection());
+		outlierToggleButton.setOnClickListener(new OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				config = config.withOutlierRejection(outlierToggleButton
+						.isChecked());
+				engine.setConfig(config);
+			}
+		});
+
 		setOffsetDialog.show();
 	}
 
+	/**
+	 * Get the radio button for a gravity estimator.
+	 * 
+	 * @param gravityEstimator
+	 *            the gravity estimator.
+	 * @return the id of the radio button.
+	 */
+	private int getGravityRadioId(int gravityEstimator)
+	{
+		switch (gravityEstimator)
+		{
+		case TiltCompensationConfig.GRAVITY_LOW_PASS:
+			return R.id.gravitylowpassradio;
+		case TiltCompensationConfig.GRAVITY_BIQUAD:
+			return R.id.gravitybiquadradio;
+		case TiltCompensationConfig.GRAVITY_COMPLEMENTARY:
+			return R.id.gravitycomplementaryradio;
+		default:
+			return R.id.gravitythresholdradio;
+		}
+	}
+
+	/**
+	 * Get the gravity estimator for a radio button.
+	 * 
+	 * @param id
+	 *            the id of the radio button.
+	 * @return the gravity estimator.
+	 */
+	private int getGravityEstimator(int id)
+	{
+		switch (id)
+		{
+		case R.id.gravitylowpassradio:
+			return TiltCompensationConfig.GRAVITY_LOW_PASS;
+		case R.id.gravitybiquadradio:
+			return TiltCompensationConfig.GRAVITY_BIQUAD;
+		case R.id.gravitycomplementaryradio:
+			return TiltCompensationConfig.GRAVITY_COMPLEMENTARY;
+		default:
+			return TiltCompensationConfig.GRAVITY_THRESHOLD;
+		}
+	}
+
 	private final float fingerDist(MotionEvent event)
 	{
 		float x = event.getX(0) - event.getX(1);
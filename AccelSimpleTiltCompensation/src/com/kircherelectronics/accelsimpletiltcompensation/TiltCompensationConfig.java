@@ -0,0 +1,193 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * An immutable snapshot of the settings of a TiltCompensationEngine. The
+ * settings are changed by publishing a new snapshot, so the thread running the
+ * engine always sees a consistent set of values.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public final class TiltCompensationConfig
+{
+	// Snap gravity to the acceleration after enough samples without linear
+	// acceleration.
+	public static final int GRAVITY_THRESHOLD = 0;
+	// A first order IIR low-pass filter.
+	public static final int GRAVITY_LOW_PASS = 1;
+	// A cascade of two biquad low-pass sections.
+	public static final int GRAVITY_BIQUAD = 2;
+	// A low-pass filter that backs off during linear acceleration.
+	public static final int GRAVITY_COMPLEMENTARY = 3;
+
+	// The number of gravity estimators.
+	public static final int GRAVITY_ESTIMATORS = 4;
+
+	// The default settings.
+	public static final TiltCompensationConfig DEFAULT = new TiltCompensationConfig(
+			0.5, 5);
+
+	// How hard the threshold is pushed towards the mean magnitude.
+	private final double alpha;
+
+	// The number of consecutive samples without linear acceleration before
+	// the gravity components are updated.
+	private final int countThreshold;
+
+	// How the gravity components are estimated.
+	private final int gravityEstimator;
+
+	// Whether magnitudes the Hampel filter finds to be outliers are treated
+	// as linear acceleration.
+	private final boolean outlierRejection;
+
+	/**
+	 * Initialize a new TiltCompensationConfig object.
+	 * 
+	 * @param alpha
+	 *            how hard the threshold is pushed towards the mean magnitude.
+	 * @param countThreshold
+	 *            the number of consecutive samples without linear acceleration
+	 *            before the gravity components are updated.
+	 */
+	public TiltCompensationConfig(double alpha, int countThreshold)
+	{
+		this(alpha, countThreshold, GRAVITY_THRESHOLD);
+	}
+
+	/**
+	 * Initialize a new TiltCompensationConfig object.
+	 * 
+	 * @param alpha
+	 *            how hard the threshold is pushed towards the mean magnitude.
+	 * @param countThreshold
+	 *            the number of consecutive samples without linear acceleration
+	 *            before the gravity components are updated.
+	 * @param gravityEstimator
+	 *            how the gravity components are estimated, one of the
+	 *            GRAVITY_ constants.
+	 */
+	public TiltCompensationConfig(double alpha, int countThreshold,
+			int gravityEstimator)
+	{
+		this(alpha, countThreshold, gravityEstimator, false);
+	}
+
+	/**
+	 * Initialize a new TiltCompensationConfig object.
+	 * 
+	 * @param alpha
+	 *            how hard the threshold is pushed towards the mean magnitude.
+	 * @param countThreshold
+	 *            the number of consecutive samples without linear acceleration
+	 *            before the gravity components are updated.
+	 * @param gravityEstimator
+	 *            how the gravity components are estimated, one of the
+	 *            GRAVITY_ constants.
+	 * @param outlierRejection
+	 *            true to treat magnitudes the Hampel filter finds to be
+	 *            outliers as linear acceleration.
+	 */
+	public TiltCompensationConfig(double alpha, int countThreshold,
+			int gravityEstimator, boolean outlierRejection)
+	{
+		if (gravityEstimator < 0 || gravityEstimator >= GRAVITY_ESTIMATORS)
+		{
+			throw new IllegalArgumentException("Unknown gravity estimator: "
+					+ gravityEstimator);
+		}
+
+		this.alpha = alpha;
+		this.countThreshold = countThreshold;
+		this.gravityEstimator = gravityEstimator;
+		this.outlierRejection = outlierRejection;
+	}
+
+	public double getAlpha()
+	{
+		return alpha;
+	}
+
+	public int getCountThreshold()
+	{
+		return countThreshold;
+	}
+
+	public int getGravityEstimator()
+	{
+		return gravityEstimator;
+	}
+
+	public boolean isOutlierRejection()
+	{
+		return outlierRejection;
+	}
+
+	/**
+	 * Get a copy of this snapshot with a different alpha.
+	 * 
+	 * @param alpha
+	 *            the new alpha.
+	 * @return the new snapshot.
+	 */
+	public TiltCompensationConfig withAlpha(double alpha)
+	{
+		return new TiltCompensationConfig(alpha, countThreshold,
+				gravityEstimator, outlierRejection);
+	}
+
+	/**
+	 * Get a copy of this snapshot with a different count threshold.
+	 * 
+	 * @param countThreshold
+	 *            the new count threshold.
+	 * @return the new snapshot.
+	 */
+	public TiltCompensationConfig withCountThreshold(int countThreshold)
+	{
+		return new TiltCompensationConfig(alpha, countThreshold,
+				gravityEstimator, outlierRejection);
+	}
+
+	/**
+	 * Get a copy of this snapshot with a different gravity estimator.
+	 * 
+	 * @param gravityEstimator
+	 *            the new gravity estimator, one of the GRAVITY_ constants.
+	 * @return the new snapshot.
+	 */
+	public TiltCompensationConfig withGravityEstimator(int gravityEstimator)
+	{
+		return new TiltCompensationConfig(alpha, countThreshold,
+				gravityEstimator, outlierRejection);
+	}
+
+	/**
+	 * Get a copy of this snapshot with outlier rejection on or off.
+	 * 
+	 * @param outlierRejection
+	 *            true to treat outlying magnitudes as linear acceleration.
+	 * @return the new snapshot.
+	 */
+	public TiltCompensationConfig withOutlierRejection(boolean outlierRejection)
+	{
+		return new TiltCompensationConfig(alpha, countThreshold,
+				gravityEstimator, outlierRejection);
+	}
+}
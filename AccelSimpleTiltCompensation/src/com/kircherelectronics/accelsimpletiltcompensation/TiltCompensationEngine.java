@@ -0,0 +1,898 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Separates the gravity and linear acceleration components of the
+ * acceleration signal. The gravity components are found by taking the
+ * acceleration when it is determined that the device is not experiencing
+ * linear acceleration, and the linear acceleration is found by subtracting the
+ * gravity components from the acceleration.
+ *
+ * How the gravity components are found is chosen by the
+ * {@link GravityEstimator} set in the config; the threshold method above is
+ * the default.
+ *
+ * The accelerometer and magnetometer samples are aligned by a
+ * {@link TimestampAligner}, so the engine produces one output per
+ * accelerometer sample with the magnetic field interpolated to its timestamp.
+ *
+ * The adaptive state can be saved and restored with {@link CalibrationSnapshot}
+ * so the gravity estimate is usable from the first sample of a new session.
+ *
+ * Samples can also be handed over in bulk with
+ * {@link #processBatch(long[], float[], int, long[], float[], int, long[], float[], float[], float[])},
+ * for sensor FIFO deliveries and recorded data. The outputs are written to
+ * arrays owned by the caller and are the same as those of the per-sample
+ * calls, bit for bit.
+ *
+ * The engine has no Android dependencies so the same code can run on the
+ * device and over recorded sensor streams on the JVM. Processing a sample does
+ * not allocate.
+ *
+ * @author Kaleb
+ * @version 1.0
+ */
+public class TiltCompensationEngine
+{
+	/**
+	 * Receives the output of the engine.
+	 */
+	public interface OutputListener
+	{
+		/**
+		 * Called each time the engine produces an output. The arrays are owned
+		 * by the engine and are only valid for the duration of the call.
+		 *
+		 * @param timestamp
+		 *            the timestamp of the output in nanoseconds.
+		 * @param raw
+		 *            the raw acceleration.
+		 * @param gravity
+		 *            the gravity components of the acceleration.
+		 * @param linearAcceleration
+		 *            the linear acceleration.
+		 */
+		public void onOutput(long timestamp, float[] raw, float[] gravity,
+				float[] linearAcceleration);
+	}
+
+	// Standard gravity in m/s^2, the same as SensorManager.GRAVITY_EARTH.
+	public static final float GRAVITY_EARTH = 9.80665f;
+
+	// The number of aligned samples a batch processes at a time.
+	private static final int CHUNK_SIZE = 256;
+
+	// The settings, replaced as a whole so a sample is always processed with
+	// a consistent set of values.
+	private volatile TiltCompensationConfig config = TiltCompensationConfig.DEFAULT;
+
+	// Buffers the sensor streams and aligns them to the accelerometer.
+	private TimestampAligner aligner;
+
+	// The timestamp of the last output.
+	private long timestampOutput;
+
+	// The state was restored and there has been no output since.
+	private boolean restored;
+
+	private float dt;
+
+	// Raw accelerometer data
+	private float[] inputAccel = new float[3];
+	private float[] inputMag = new float[3];
+	// The gravity components of the acceleration signal.
+	private float[] components = new float[3];
+	// The linear acceleration, the tilt compensated output.
+	private float[] tiltAccel = new float[3];
+
+	private float magnitude;
+
+	private double threshold = 1.05;
+
+	private MeanFilter meanFilterMagnitude;
+
+	// Finds outlying magnitudes, when outlier rejection is on.
+	private MedianFilter hampelMagnitude;
+
+	// An instance of each gravity estimator, indexed by the GRAVITY_
+	// constants of TiltCompensationConfig.
+	private GravityEstimator[] gravityEstimators;
+
+	// The gravity estimator used for the last sample.
+	private GravityEstimator gravityEstimator;
+
+	private int accelerationCount = 0;
+
+	private OutputListener outputListener;
+
+	// Records the latency of the threshold and gravity stages, or null.
+	private volatile PipelineLatency latency;
+
+	// Finds the magnitudes and the linear acceleration of a batch.
+	private SeparationKernel kernel = SeparationKernels.getDefault();
+
+	// The aligned samples of a batch waiting to be processed, in columns.
+	// Only allocated by the first batch, so engines that are never used in
+	// bulk stay small.
+	private long[] chunkTimestamps;
+	private float[] chunkDt;
+	private float[] chunkX;
+	private float[] chunkY;
+	private float[] chunkZ;
+	private float[] chunkMagnitude;
+	private float[] chunkGravityX;
+	private float[] chunkGravityY;
+	private float[] chunkGravityZ;
+	private float[] chunkLinearX;
+	private float[] chunkLinearY;
+	private float[] chunkLinearZ;
+	private int chunkSize;
+
+	/**
+	 * Initialize a new TiltCompensationEngine object.
+	 */
+	public TiltCompensationEngine()
+	{
+		meanFilterMagnitude = new MeanFilter();
+		meanFilterMagnitude.setWindowSize(20);
+
+		hampelMagnitude = new MedianFilter();
+		hampelMagnitude.setWindowSize(21);
+
+		aligner = new TimestampAligner(16);
+
+		gravityEstimators = new GravityEstimator[TiltCompensationConfig.GRAVITY_ESTIMATORS];
+		gravityEstimators[TiltCompensationConfig.GRAVITY_THRESHOLD] = new ThresholdGravityEstimator();
+		gravityEstimators[TiltCompensationConfig.GRAVITY_LOW_PASS] = new LowPassGravityEstimator();
+		gravityEstimators[TiltCompensationConfig.GRAVITY_BIQUAD] = new BiquadGravityEstimator();
+		gravityEstimators[TiltCompensationConfig.GRAVITY_COMPLEMENTARY] = new ComplementaryGravityEstimator();
+	}
+
+	/**
+	 * Handle an accelerometer sample. The sample is processed once a
+	 * magnetometer sample at or after its timestamp has arrived. Samples with
+	 * a repeated or earlier timestamp are ignored.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 */
+	public void onAccelerometer(long timestamp, float x, float y, float z)
+	{
+		if (aligner.addAccelerometer(timestamp, x, y, z))
+		{
+			drain(false);
+		}
+	}
+
+	/**
+	 * Handle a magnetometer sample. Any accelerometer samples it brackets are
+	 * processed with the magnetic field interpolated to their timestamps.
+	 * Samples with a repeated or earlier timestamp are ignored.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 */
+	public void onMagneticField(long timestamp, float x, float y, float z)
+	{
+		if (aligner.addMagneticField(timestamp, x, y, z))
+		{
+			drain(false);
+		}
+	}
+
+	/**
+	 * Process the accelerometer samples still waiting for a later
+	 * magnetometer sample, holding the latest magnetic field. Call at the end
+	 * of a stream.
+	 */
+	public void flush()
+	{
+		drain(true);
+	}
+
+	/**
+	 * Process the aligned samples.
+	 * 
+	 * @param flush
+	 *            true to process the samples still waiting for the
+	 *            magnetometer.
+	 */
+	private void drain(boolean flush)
+	{
+		while (aligner.next(flush))
+		{
+			long timestamp = aligner.getTimestamp();
+			float[] accel = aligner.getAcceleration();
+			float[] mag = aligner.getMagneticField();
+
+			process(timestamp, accel[0], accel[1], accel[2], mag[0], mag[1],
+					mag[2]);
+		}
+	}
+
+	/**
+	 * Find the sample period up to an output.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the output in nanoseconds.
+	 * @return the sample period in seconds.
+	 */
+	private float period(long timestamp)
+	{
+		float period;
+
+		if (restored)
+		{
+			// There is no previous output to measure the period from, and a
+			// made up one would pull the restored estimate towards the first
+			// sample.
+			period = 0;
+			restored = false;
+		}
+		else
+		{
+			// Find the sample period (between outputs).
+			// Convert from nanoseconds to seconds
+			period = (timestamp - timestampOutput) / 1000000000.0f;
+		}
+
+		timestampOutput = timestamp;
+
+		return period;
+	}
+
+	/**
+	 * Get the number of outputs a batch can produce, the size the output
+	 * arrays of
+	 * {@link #processBatch(long[], float[], int, long[], float[], int, long[], float[], float[], float[])}
+	 * must have room for. Accelerometer samples still waiting from earlier
+	 * calls may be released by the batch too.
+	 * 
+	 * @param accelCount
+	 *            the number of accelerometer samples in the batch.
+	 * @return the number of outputs, at most.
+	 */
+	public int getBatchCapacity(int accelCount)
+	{
+		return accelCount + aligner.getCapacity();
+	}
+
+	/**
+	 * Process a batch of samples of each sensor in one pass. The two streams
+	 * are merged by timestamp, the magnetometer first on a tie, and go
+	 * through the same alignment as the per-sample calls, so a batch can be
+	 * mixed with them and split anywhere. The outputs are written to the
+	 * arrays given rather than to the output listener, and the latency is
+	 * not recorded. The settings are read once for every few hundred
+	 * outputs.
+	 * 
+	 * @param accelTimestamps
+	 *            the timestamps of the accelerometer samples in nanoseconds.
+	 * @param accelValues
+	 *            the x, y and z-axis of each accelerometer sample.
+	 * @param accelCount
+	 *            the number of accelerometer samples.
+	 * @param magTimestamps
+	 *            the timestamps of the magnetometer samples in nanoseconds.
+	 * @param magValues
+	 *            the x, y and z-axis of each magnetometer sample.
+	 * @param magCount
+	 *            the number of magnetometer samples.
+	 * @param timestamps
+	 *            the timestamps of the outputs.
+	 * @param raw
+	 *            the raw acceleration of each output, x, y and z, or null.
+	 * @param gravity
+	 *            the gravity components of each output, x, y and z.
+	 * @param linearAcceleration
+	 *            the linear acceleration of each output, x, y and z.
+	 * @return the number of outputs.
+	 * @throws IllegalArgumentException
+	 *             if the output arrays have less room than
+	 *             {@link #getBatchCapacity(int)}.
+	 */
+	public int processBatch(long[] accelTimestamps, float[] accelValues,
+			int accelCount, long[] magTimestamps, float[] magValues,
+			int magCount, long[] timestamps, float[] raw, float[] gravity,
+			float[] linearAcceleration)
+	{
+		checkBatchOutputs(getBatchCapacity(accelCount), timestamps, raw,
+				gravity, linearAcceleration);
+
+		int outputs = 0;
+
+		int a = 0;
+		int m = 0;
+
+		while (a < accelCount || m < magCount)
+		{
+			if (m < magCount
+					&& (a == accelCount || magTimestamps[m] <= accelTimestamps[a]))
+			{
+				int i = m * 3;
+
+				if (aligner.addMagneticField(magTimestamps[m], magValues[i],
+						magValues[i + 1], magValues[i + 2]))
+				{
+					outputs = collect(false, timestamps, raw, gravity,
+							linearAcceleration, outputs);
+				}
+
+				m++;
+			}
+			else
+			{
+				int i = a * 3;
+
+				if (aligner.addAccelerometer(accelTimestamps[a],
+						accelValues[i], accelValues[i + 1], accelValues[i + 2]))
+				{
+					outputs = collect(false, timestamps, raw, gravity,
+							linearAcceleration, outputs);
+				}
+
+				a++;
+			}
+		}
+
+		return processChunk(timestamps, raw, gravity, linearAcceleration,
+				outputs);
+	}
+
+	/**
+	 * Process the accelerometer samples still waiting for a later
+	 * magnetometer sample, like {@link #flush()}, but write the outputs to
+	 * the arrays given as a batch does.
+	 * 
+	 * @param timestamps
+	 *            the timestamps of the outputs.
+	 * @param raw
+	 *            the raw acceleration of each output, x, y and z, or null.
+	 * @param gravity
+	 *            the gravity components of each output, x, y and z.
+	 * @param linearAcceleration
+	 *            the linear acceleration of each output, x, y and z.
+	 * @return the number of outputs.
+	 * @throws IllegalArgumentException
+	 *             if the output arrays have less room than
+	 *             {@link #getBatchCapacity(int)} of no samples.
+	 */
+	public int flushBatch(long[] timestamps, float[] raw, float[] gravity,
+			float[] linearAcceleration)
+	{
+		checkBatchOutputs(getBatchCapacity(0), timestamps, raw, gravity,
+				linearAcceleration);
+
+		int outputs = collect(true, timestamps, raw, gravity,
+				linearAcceleration, 0);
+
+		return processChunk(timestamps, raw, gravity, linearAcceleration,
+				outputs);
+	}
+
+	/**
+	 * Check that the output arrays of a batch are large enough, and allocate
+	 * the columns of the batch the first time.
+	 */
+	private void checkBatchOutputs(int capacity, long[] timestamps,
+			float[] raw, float[] gravity, float[] linearAcceleration)
+	{
+		if (timestamps.length < capacity
+				|| (raw != null && raw.length < capacity * 3)
+				|| gravity.length < capacity * 3
+				|| linearAcceleration.length < capacity * 3)
+		{
+			throw new IllegalArgumentException(
+					"The output arrays must have room for " + capacity
+							+ " outputs");
+		}
+
+		if (chunkTimestamps == null)
+		{
+			chunkTimestamps = new long[CHUNK_SIZE];
+			chunkDt = new float[CHUNK_SIZE];
+			chunkX = new float[CHUNK_SIZE];
+			chunkY = new float[CHUNK_SIZE];
+			chunkZ = new float[CHUNK_SIZE];
+			chunkMagnitude = new float[CHUNK_SIZE];
+			chunkGravityX = new float[CHUNK_SIZE];
+			chunkGravityY = new float[CHUNK_SIZE];
+			chunkGravityZ = new float[CHUNK_SIZE];
+			chunkLinearX = new float[CHUNK_SIZE];
+			chunkLinearY = new float[CHUNK_SIZE];
+			chunkLinearZ = new float[CHUNK_SIZE];
+		}
+	}
+
+	/**
+	 * Move the aligned samples into the columns of the batch, processing
+	 * them each time the columns fill.
+	 * 
+	 * @param flush
+	 *            true to release the samples still waiting for the
+	 *            magnetometer.
+	 * @param outputs
+	 *            the number of outputs written so far.
+	 * @return the number of outputs written.
+	 */
+	private int collect(boolean flush, long[] timestamps, float[] raw,
+			float[] gravity, float[] linearAcceleration, int outputs)
+	{
+		while (aligner.next(flush))
+		{
+			long timestamp = aligner.getTimestamp();
+			float[] accel = aligner.getAcceleration();
+
+			int i = chunkSize++;
+
+			chunkTimestamps[i] = timestamp;
+			chunkDt[i] = period(timestamp);
+			chunkX[i] = accel[0];
+			chunkY[i] = accel[1];
+			chunkZ[i] = accel[2];
+
+			if (chunkSize == CHUNK_SIZE)
+			{
+				outputs = processChunk(timestamps, raw, gravity,
+						linearAcceleration, outputs);
+			}
+		}
+
+		return outputs;
+	}
+
+	/**
+	 * Process the samples in the columns of the batch, the same steps as
+	 * {@link #process(long, float, float, float, float, float, float)}, and
+	 * append the outputs.
+	 * 
+	 * @param outputs
+	 *            the number of outputs written so far.
+	 * @return the number of outputs written.
+	 */
+	private int processChunk(long[] timestamps, float[] raw, float[] gravity,
+			float[] linearAcceleration, int outputs)
+	{
+		int n = chunkSize;
+
+		if (n == 0)
+		{
+			return outputs;
+		}
+
+		chunkSize = 0;
+
+		TiltCompensationConfig config = this.config;
+
+		boolean outlierRejection = config.isOutlierRejection();
+		double alpha = config.getAlpha();
+		int countThreshold = config.getCountThreshold();
+
+		GravityEstimator estimator = gravityEstimators[config
+				.getGravityEstimator()];
+
+		if (estimator != gravityEstimator)
+		{
+			// Carry the estimate over to the new estimator.
+			estimator.reset(components);
+			gravityEstimator = estimator;
+		}
+
+		kernel.magnitudes(chunkX, chunkY, chunkZ, chunkMagnitude, 0, n);
+
+		double threshold = this.threshold;
+		int accelerationCount = this.accelerationCount;
+
+		// The threshold and the gravity estimate depend on every sample
+		// before, so this part is sequential.
+		for (int i = 0; i < n; i++)
+		{
+			float magnitude = chunkMagnitude[i];
+
+			boolean outlier = false;
+
+			if (outlierRejection)
+			{
+				hampelMagnitude.hampelFloat(magnitude);
+				outlier = hampelMagnitude.isOutlier();
+			}
+
+			if (!outlier && magnitude <= threshold && magnitude > 0.95)
+			{
+				double mean = meanFilterMagnitude.filterFloat(magnitude);
+
+				threshold += (alpha * (mean - threshold)) + 0.01;
+
+				accelerationCount++;
+			}
+			else
+			{
+				accelerationCount = 0;
+			}
+
+			estimator.update(chunkX[i], chunkY[i], chunkZ[i], chunkDt[i],
+					magnitude, accelerationCount >= countThreshold,
+					components);
+
+			chunkGravityX[i] = components[0];
+			chunkGravityY[i] = components[1];
+			chunkGravityZ[i] = components[2];
+		}
+
+		this.threshold = threshold;
+		this.accelerationCount = accelerationCount;
+
+		kernel.subtract(chunkX, chunkY, chunkZ, chunkGravityX, chunkGravityY,
+				chunkGravityZ, chunkLinearX, chunkLinearY, chunkLinearZ, 0, n);
+
+		System.arraycopy(chunkTimestamps, 0, timestamps, outputs, n);
+
+		for (int i = 0; i < n; i++)
+		{
+			int j = (outputs + i) * 3;
+
+			if (raw != null)
+			{
+				raw[j] = chunkX[i];
+				raw[j + 1] = chunkY[i];
+				raw[j + 2] = chunkZ[i];
+			}
+
+			gravity[j] = chunkGravityX[i];
+			gravity[j + 1] = chunkGravityY[i];
+			gravity[j + 2] = chunkGravityZ[i];
+
+			linearAcceleration[j] = chunkLinearX[i];
+			linearAcceleration[j + 1] = chunkLinearY[i];
+			linearAcceleration[j + 2] = chunkLinearZ[i];
+		}
+
+		// Leave the getters reporting the last output, as after a sample.
+		int last = n - 1;
+
+		dt = chunkDt[last];
+		magnitude = chunkMagnitude[last];
+
+		inputAccel[0] = chunkX[last];
+		inputAccel[1] = chunkY[last];
+		inputAccel[2] = chunkZ[last];
+
+		tiltAccel[0] = chunkLinearX[last];
+		tiltAccel[1] = chunkLinearY[last];
+		tiltAccel[2] = chunkLinearZ[last];
+
+		return outputs + n;
+	}
+
+	/**
+	 * Process one sample of acceleration and magnetic field and notify the
+	 * output listener.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds, which the sample
+	 *            period is measured from.
+	 * @param ax
+	 *            the x-axis acceleration.
+	 * @param ay
+	 *            the y-axis acceleration.
+	 * @param az
+	 *            the z-axis acceleration.
+	 * @param mx
+	 *            the x-axis magnetic field.
+	 * @param my
+	 *            the y-axis magnetic field.
+	 * @param mz
+	 *            the z-axis magnetic field.
+	 */
+	public void process(long timestamp, float ax, float ay, float az,
+			float mx, float my, float mz)
+	{
+		TiltCompensationConfig config = this.config;
+		PipelineLatency latency = this.latency;
+
+		long start = (latency != null) ? System.nanoTime() : 0;
+
+		dt = period(timestamp);
+
+		inputAccel[0] = ax;
+		inputAccel[1] = ay;
+		inputAccel[2] = az;
+
+		inputMag[0] = mx;
+		inputMag[1] = my;
+		inputMag[2] = mz;
+
+		magnitude = (float) (Math.sqrt(ax * ax + ay * ay + az * az)
+				/ GRAVITY_EARTH);
+
+		// A spike in the magnitude is linear acceleration even if it lands in
+		// the band.
+		boolean outlier = false;
+
+		if (config.isOutlierRejection())
+		{
+			hampelMagnitude.hampelFloat(magnitude);
+			outlier = hampelMagnitude.isOutlier();
+		}
+
+		// Dynamically calculate a threshold for detecting linear
+		// acceleration
+		// from the magnitude.
+		if (!outlier && magnitude <= threshold && magnitude > 0.95)
+		{
+			double mean = meanFilterMagnitude.filterFloat(magnitude);
+
+			// Use a weighted average to "push" the threshold
+			// towards the mean, plus a small constant.
+			threshold += (config.getAlpha() * (mean - threshold)) + 0.01;
+
+			accelerationCount++;
+		}
+		else
+		{
+			accelerationCount = 0;
+		}
+
+		long split = 0;
+
+		if (latency != null)
+		{
+			split = System.nanoTime();
+			latency.record(PipelineLatency.THRESHOLD, split - start);
+		}
+
+		GravityEstimator estimator = gravityEstimators[config
+				.getGravityEstimator()];
+
+		if (estimator != gravityEstimator)
+		{
+			// Carry the estimate over to the new estimator.
+			estimator.reset(components);
+			gravityEstimator = estimator;
+		}
+
+		estimator.update(ax, ay, az, dt, magnitude,
+				accelerationCount >= config.getCountThreshold(), components);
+
+		// Subtract the gravity component of the signal
+		// from the input acceleration signal to get the
+		// tilt compensated output.
+		tiltAccel[0] = ax - components[0];
+		tiltAccel[1] = ay - components[1];
+		tiltAccel[2] = az - components[2];
+
+		if (latency != null)
+		{
+			latency.record(PipelineLatency.GRAVITY, System.nanoTime() - split);
+		}
+
+		if (outputListener != null)
+		{
+			outputListener.onOutput(timestamp, inputAccel, components,
+					tiltAccel);
+		}
+	}
+
+	public int getAccelerationCount()
+	{
+		return accelerationCount;
+	}
+
+	/**
+	 * Get the sample period between the last two outputs.
+	 *
+	 * @return the sample period in seconds.
+	 */
+	public float getDt()
+	{
+		return dt;
+	}
+
+	/**
+	 * Get the gravity components of the last output. The array is owned by the
+	 * engine and must not be modified.
+	 *
+	 * @return the gravity components.
+	 */
+	public float[] getGravity()
+	{
+		return components;
+	}
+
+	/**
+	 * Get the linear acceleration of the last output. The array is owned by
+	 * the engine and must not be modified.
+	 *
+	 * @return the linear acceleration.
+	 */
+	public float[] getLinearAcceleration()
+	{
+		return tiltAccel;
+	}
+
+	/**
+	 * Get the magnitude of the last acceleration sample, normalized to
+	 * gravity.
+	 *
+	 * @return the magnitude.
+	 */
+	public float getMagnitude()
+	{
+		return magnitude;
+	}
+
+	/**
+	 * Get the number of accelerometer samples dropped because the
+	 * magnetometer had not started.
+	 * 
+	 * @return the count.
+	 */
+	public long getDroppedSamples()
+	{
+		return aligner.getDropped();
+	}
+
+	public double getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * Get the instance of a gravity estimator, for example to tune it. Only
+	 * change it on the thread that processes the samples.
+	 * 
+	 * @param kind
+	 *            the estimator, one of the GRAVITY_ constants of
+	 *            TiltCompensationConfig.
+	 * @return the estimator.
+	 */
+	public GravityEstimator getGravityEstimator(int kind)
+	{
+		return gravityEstimators[kind];
+	}
+
+	/**
+	 * Get the number of bytes {@link #saveState(ByteBuffer)} writes.
+	 * 
+	 * @return the size of the state.
+	 */
+	public int getStateSize()
+	{
+		return 38 + meanFilterMagnitude.getStateSize();
+	}
+
+	/**
+	 * Write the settings and the adaptive state: the threshold, the
+	 * acceleration count, the gravity components and the history of the mean
+	 * filter. Only call on the thread that processes the samples, or while
+	 * no samples are processed.
+	 * 
+	 * @param buffer
+	 *            the buffer, with room for {@link #getStateSize()} bytes.
+	 * @see CalibrationSnapshot
+	 */
+	public void saveState(ByteBuffer buffer)
+	{
+		TiltCompensationConfig config = this.config;
+
+		buffer.putDouble(config.getAlpha());
+		buffer.putInt(config.getCountThreshold());
+		buffer.put((byte) config.getGravityEstimator());
+		buffer.put((byte) (config.isOutlierRejection() ? 1 : 0));
+
+		buffer.putDouble(threshold);
+		buffer.putInt(accelerationCount);
+
+		buffer.putFloat(components[0]);
+		buffer.putFloat(components[1]);
+		buffer.putFloat(components[2]);
+
+		meanFilterMagnitude.saveState(buffer);
+	}
+
+	/**
+	 * Replace the settings and the adaptive state with those written by
+	 * {@link #saveState(ByteBuffer)}. The gravity estimator is restarted from
+	 * the restored components, and the Hampel filter starts empty. Only call
+	 * while no samples are processed.
+	 * 
+	 * @param buffer
+	 *            the buffer.
+	 * @see CalibrationSnapshot
+	 */
+	public void restoreState(ByteBuffer buffer)
+	{
+		double alpha = buffer.getDouble();
+		int countThreshold = buffer.getInt();
+		int estimator = buffer.get();
+		boolean outlierRejection = buffer.get() != 0;
+
+		TiltCompensationConfig config = new TiltCompensationConfig(alpha,
+				countThreshold, estimator, outlierRejection);
+
+		double threshold = buffer.getDouble();
+		int accelerationCount = buffer.getInt();
+
+		float x = buffer.getFloat();
+		float y = buffer.getFloat();
+		float z = buffer.getFloat();
+
+		meanFilterMagnitude.restoreState(buffer);
+
+		this.config = config;
+		this.threshold = threshold;
+		this.accelerationCount = accelerationCount;
+
+		components[0] = x;
+		components[1] = y;
+		components[2] = z;
+
+		gravityEstimator = gravityEstimators[estimator];
+		gravityEstimator.reset(components);
+
+		restored = true;
+	}
+
+	public TiltCompensationConfig getConfig()
+	{
+		return config;
+	}
+
+	/**
+	 * Publish new settings. This is safe to call from any thread; the new
+	 * settings take effect from the next sample.
+	 * 
+	 * @param config
+	 *            the settings.
+	 */
+	public void setConfig(TiltCompensationConfig config)
+	{
+		this.config = config;
+	}
+
+	/**
+	 * Set where the latency of the threshold and gravity stages is recorded.
+	 * The stages are recorded on the thread that processes the samples.
+	 * 
+	 * @param latency
+	 *            the latency histograms, or null to stop recording.
+	 */
+	public void setLatency(PipelineLatency latency)
+	{
+		this.latency = latency;
+	}
+
+	public void setOutputListener(OutputListener outputListener)
+	{
+		this.outputListener = outputListener;
+	}
+}
@@ -0,0 +1,79 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+
+import com.androidplot.xy.XYPlot;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * An XYPlot that records how long drawing it takes. Redrawing an XYPlot only
+ * invalidates the view, and the plot is rendered later in onDraw() on the UI
+ * thread, so this is where the cost of the draw can be measured.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class TimedXYPlot extends XYPlot
+{
+	// Records the latency of the draw stage, or null. Only used on the UI
+	// thread.
+	private PipelineLatency latency;
+
+	public TimedXYPlot(Context context, String title)
+	{
+		super(context, title);
+	}
+
+	public TimedXYPlot(Context context, AttributeSet attributes)
+	{
+		super(context, attributes);
+	}
+
+	public TimedXYPlot(Context context, AttributeSet attributes, int defStyle)
+	{
+		super(context, attributes, defStyle);
+	}
+
+	/**
+	 * Set where the latency of the draw stage is recorded.
+	 * 
+	 * @param latency
+	 *            the latency histograms, or null to stop recording.
+	 */
+	public void setLatency(PipelineLatency latency)
+	{
+		this.latency = latency;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas)
+	{
+		PipelineLatency latency = this.latency;
+
+		long start = (latency != null) ? System.nanoTime() : 0;
+
+		super.onDraw(canvas);
+
+		if (latency != null)
+		{
+			latency.record(PipelineLatency.DRAW, System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package com.kircherelectronics.accelsimpletiltcompensation;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Aligns the magnetometer stream to the accelerometer timestamps. Both
+ * streams are buffered in small primitive ring buffers. Each accelerometer
+ * sample is released by {@link #next(boolean)} once a magnetometer sample at
+ * or after its timestamp has arrived, together with the magnetic field
+ * linearly interpolated to its timestamp. This gives one output per
+ * accelerometer sample, at the accelerometer rate.
+ * 
+ * If the magnetometer falls behind so far that the accelerometer buffer
+ * fills, the oldest accelerometer sample is released with the latest magnetic
+ * field held. Samples with a repeated or earlier timestamp than the last
+ * sample of the same sensor are ignored. Nothing is allocated after
+ * construction.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ */
+public class TimestampAligner
+{
+	private final int capacity;
+	private final int mask;
+
+	// The accelerometer samples waiting for the magnetometer.
+	private final long[] accelTimestamps;
+	private final float[] accelValues;
+	private int accelHead;
+	private int accelSize;
+
+	// The recent magnetometer samples.
+	private final long[] magTimestamps;
+	private final float[] magValues;
+	private int magHead;
+	private int magSize;
+
+	// The last timestamp of each sensor, and whether there has been one.
+	private long lastAccel;
+	private long lastMag;
+	private boolean accelStarted;
+	private boolean magStarted;
+
+	// The accelerometer samples dropped because no magnetometer sample
+	// arrived before the buffer filled.
+	private long dropped;
+
+	// The last aligned sample.
+	private long timestamp;
+	private float[] acceleration = new float[3];
+	private float[] magneticField = new float[3];
+
+	/**
+	 * Initialize a new TimestampAligner object.
+	 * 
+	 * @param capacity
+	 *            the number of samples buffered for each sensor, a power of
+	 *            two.
+	 */
+	public TimestampAligner(int capacity)
+	{
+		if (capacity < 2 || Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException(
+					"Capacity must be a power of two of at least 2: "
+							+ capacity);
+		}
+
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+
+		accelTimestamps = new long[capacity];
+		accelValues = new float[capacity * 3];
+
+		magTimestamps = new long[capacity];
+		magValues = new float[capacity * 3];
+	}
+
+	/**
+	 * Add an accelerometer sample. Call {@link #next(boolean)} until it
+	 * returns false after each sample added.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 * @return false if the sample was ignored for its timestamp.
+	 */
+	public boolean addAccelerometer(long timestamp, float x, float y, float z)
+	{
+		if (accelStarted && timestamp <= lastAccel)
+		{
+			return false;
+		}
+
+		if (accelSize == capacity)
+		{
+			// Only before the first magnetometer sample, nothing can be
+			// released.
+			accelHead = (accelHead + 1) & mask;
+			accelSize--;
+			dropped++;
+		}
+
+		int slot = (accelHead + accelSize) & mask;
+
+		accelTimestamps[slot] = timestamp;
+		accelValues[slot * 3] = x;
+		accelValues[slot * 3 + 1] = y;
+		accelValues[slot * 3 + 2] = z;
+
+		accelSize++;
+
+		lastAccel = timestamp;
+		accelStarted = true;
+
+		return true;
+	}
+
+	/**
+	 * Add a magnetometer sample. Call {@link #next(boolean)} until it returns
+	 * false after each sample added.
+	 * 
+	 * @param timestamp
+	 *            the timestamp of the sample in nanoseconds.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 * @return false if the sample was ignored for its timestamp.
+	 */
+	public boolean addMagneticField(long timestamp, float x, float y, float z)
+	{
+		if (magStarted && timestamp <= lastMag)
+		{
+			return false;
+		}
+
+		if (magSize == capacity)
+		{
+			// The oldest sample is no longer needed for interpolation.
+			magHead = (magHead + 1) & mask;
+			magSize--;
+		}
+
+		int slot = (magHead + magSize) & mask;
+
+		magTimestamps[slot] = timestamp;
+		magValues[slot * 3] = x;
+		magValues[slot * 3 + 1] = y;
+		magValues[slot * 3 + 2] = z;
+
+		magSize++;
+
+		lastMag = timestamp;
+		magStarted = true;
+
+		return true;
+	}
+
+	/**
+	 * Release the oldest accelerometer sample if it can be aligned. The
+	 * sample is then available from {@link #getTimestamp()},
+	 * {@link #getAcceleration()} and {@link #getMagneticField()}.
+	 * 
+	 * @param flush
+	 *            true to release the sample even if no later magnetometer
+	 *            sample has arrived, holding the latest magnetic field. Use at
+	 *            the end of a stream.
+	 * @return true if a sample was released.
+	 */
+	public boolean next(boolean flush)
+	{
+		if (accelSize == 0 || magSize == 0)
+		{
+			return false;
+		}
+
+		int a = accelHead;
+		long t = accelTimestamps[a];
+
+		// Drop the magnetometer samples before the last one at or before the
+		// accelerometer sample.
+		while (magSize >= 2 && magTimestamps[(magHead + 1) & mask] <= t)
+		{
+			magHead = (magHead + 1) & mask;
+			magSize--;
+		}
+
+		int m0 = magHead;
+
+		if (magTimestamps[m0] >= t)
+		{
+			// The accelerometer sample is no later than the magnetometer
+			// history, use the nearest sample.
+			setMagneticField(m0, m0, 0);
+		}
+		else if (magSize >= 2)
+		{
+			int m1 = (m0 + 1) & mask;
+
+			double weight = (double) (t - magTimestamps[m0])
+					/ (magTimestamps[m1] - magTimestamps[m0]);
+
+			setMagneticField(m0, m1, weight);
+		}
+		else if (flush || accelSize == capacity)
+		{
+			// Hold the latest magnetic field rather than wait any longer.
+			setMagneticField(m0, m0, 0);
+		}
+		else
+		{
+			return false;
+		}
+
+		timestamp = t;
+
+		acceleration[0] = accelValues[a * 3];
+		acceleration[1] = accelValues[a * 3 + 1];
+		acceleration[2] = accelValues[a * 3 + 2];
+
+		accelHead = (accelHead + 1) & mask;
+		accelSize--;
+
+		return true;
+	}
+
+	/**
+	 * Clear the buffered samples and timestamps.
+	 */
+	public void reset()
+	{
+		accelHead = 0;
+		accelSize = 0;
+		magHead = 0;
+		magSize = 0;
+
+		accelStarted = false;
+		magStarted = false;
+	}
+
+	/**
+	 * Get the timestamp of the last sample released.
+	 * 
+	 * @return the timestamp in nanoseconds.
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * Get the acceleration of the last sample released. The array is owned by
+	 * the aligner and must not be modified.
+	 * 
+	 * @return the acceleration.
+	 */
+	public float[] getAcceleration()
+	{
+		return acceleration;
+	}
+
+	/**
+	 * Get the magnetic field interpolated to the last sample released. The
+	 * array is owned by the aligner and must not be modified.
+	 * 
+	 * @return the magnetic field.
+	 */
+	public float[] getMagneticField()
+	{
+		return magneticField;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Get the number of accelerometer samples dropped because no
+	 * magnetometer sample had arrived before the buffer filled.
+	 * 
+	 * @return the count.
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Interpolate the magnetic field between two buffered samples.
+	 */
+	private void setMagneticField(int m0, int m1, double weight)
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			float v0 = magValues[m0 * 3 + i];
+			float v1 = magValues[m1 * 3 + i];
+
+			magneticField[i] = (float) (v0 + (v1 - v0) * weight);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.kircherelectronics.accelsimpletiltcompensation.CompressedTrace;
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTraceReplayer;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Runs the tilt compensation over recorded sensor traces offline, plain or
+ * compressed. Each trace is processed by its own TiltCompensationEngine on a
+ * pool of one thread per core, streamed from disk, and written to a CSV file
+ * of the raw, gravity and linear acceleration in the output directory.
+ * 
+ * Usage: BatchProcessor [-threads n] -out directory trace-file-or-directory...
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class BatchProcessor
+{
+	private static final String TRACE_EXTENSION = ".trace";
+
+	/**
+	 * Processes one trace. Every task has its own engine, so the filter and
+	 * threshold state of one trace never leaks into another.
+	 */
+	private static class TraceTask implements Callable<Long>,
+			TiltCompensationEngine.OutputListener
+	{
+		private File input;
+		private File output;
+
+		private Writer writer;
+		private StringBuilder line = new StringBuilder(128);
+
+		private IOException writeError;
+
+		public TraceTask(File input, File output)
+		{
+			this.input = input;
+			this.output = output;
+		}
+
+		@Override
+		public Long call() throws IOException, InterruptedException
+		{
+			TiltCompensationEngine engine = new TiltCompensationEngine();
+			engine.setOutputListener(this);
+
+			writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(output), "US-ASCII"), 1 << 16);
+
+			try
+			{
+				writer.write("timestamp,rawX,rawY,rawZ,gravityX,gravityY,gravityZ,linearX,linearY,linearZ\n");
+
+				long records = new SensorTraceReplayer(engine).replay(input);
+
+				if (writeError != null)
+				{
+					throw writeError;
+				}
+
+				return records;
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+
+		@Override
+		public void onOutput(long timestamp, float[] raw, float[] gravity,
+				float[] linearAcceleration)
+		{
+			if (writeError != null)
+			{
+				return;
+			}
+
+			line.setLength(0);
+			line.append(timestamp);
+			append(raw);
+			append(gravity);
+			append(linearAcceleration);
+			line.append('\n');
+
+			try
+			{
+				writer.append(line);
+			}
+			catch (IOException e)
+			{
+				writeError = e;
+			}
+		}
+
+		private void append(float[] values)
+		{
+			for (int i = 0; i < values.length; i++)
+			{
+				line.append(',').append(values[i]);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		File outDir = null;
+
+		List<File> inputs = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-threads") && i + 1 < args.length)
+			{
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-out") && i + 1 < args.length)
+			{
+				outDir = new File(args[++i]);
+			}
+			else
+			{
+				addInputs(new File(args[i]), inputs);
+			}
+		}
+
+		if (outDir == null || inputs.isEmpty())
+		{
+			System.err.println("Usage: BatchProcessor [-threads n] -out directory trace-file-or-directory...");
+			System.exit(2);
+		}
+
+		outDir.mkdirs();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+
+		long start = System.nanoTime();
+
+		for (File input : inputs)
+		{
+			String name = input.getName();
+
+			if (name.endsWith(TRACE_EXTENSION))
+			{
+				name = name.substring(0, name.length()
+						- TRACE_EXTENSION.length());
+			}
+			else if (name.endsWith(CompressedTrace.EXTENSION))
+			{
+				name = name.substring(0, name.length()
+						- CompressedTrace.EXTENSION.length());
+			}
+
+			results.add(executor.submit(new TraceTask(input, new File(outDir,
+					name + ".csv"))));
+		}
+
+		executor.shutdown();
+
+		long samples = 0;
+		int failed = 0;
+
+		for (int i = 0; i < results.size(); i++)
+		{
+			try
+			{
+				samples += results.get(i).get();
+			}
+			catch (ExecutionException e)
+			{
+				System.err.println(inputs.get(i) + ": " + e.getCause());
+				failed++;
+			}
+		}
+
+		long ns = System.nanoTime() - start;
+
+		System.out.println(inputs.size() + " files, " + failed + " failed, "
+				+ samples + " samples in " + (ns / 1000000) + " ms on "
+				+ threads + " threads, " + (long) (samples * 1e9 / ns)
+				+ " samples/s");
+
+		if (failed > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Add a trace, or all of the traces in a directory, to the inputs.
+	 */
+	private static void addInputs(File file, List<File> inputs)
+	{
+		if (file.isDirectory())
+		{
+			File[] files = file.listFiles();
+
+			if (files != null)
+			{
+				for (File child : files)
+				{
+					if (child.isFile() && isTrace(child.getName()))
+					{
+						inputs.add(child);
+					}
+				}
+			}
+		}
+		else
+		{
+			inputs.add(file);
+		}
+	}
+
+	/**
+	 * Check whether a file name is that of a trace, plain or compressed.
+	 */
+	private static boolean isTrace(String name)
+	{
+		return name.endsWith(TRACE_EXTENSION)
+				|| name.endsWith(CompressedTrace.EXTENSION);
+	}
+}
@@ -0,0 +1,87 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.nio.ByteBuffer;
+
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTrace;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The framing of the sensor streams sent to the IngestionService. A
+ * connection carries any number of streams as a sequence of fixed size
+ * frames, little endian like the trace records:
+ * 
+ * <pre>
+ * offset  size  field
+ *      0     1  type, a SensorTrace TYPE_ or TYPE_END
+ *      1     4  stream id, chosen by the client
+ *      5     8  timestamp in nanoseconds
+ *     13     4  x
+ *     17     4  y
+ *     21     4  z
+ * </pre>
+ * 
+ * A TYPE_END frame closes a stream; its timestamp and values are ignored.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public final class IngestionProtocol
+{
+	// The size of a frame in bytes.
+	public static final int FRAME_SIZE = 25;
+
+	// Closes a stream.
+	public static final byte TYPE_END = 0;
+
+	public static final byte TYPE_ACCELEROMETER = SensorTrace.TYPE_ACCELEROMETER;
+	public static final byte TYPE_MAGNETIC_FIELD = SensorTrace.TYPE_MAGNETIC_FIELD;
+
+	private IngestionProtocol()
+	{
+	}
+
+	/**
+	 * Write a frame. The buffer must be little endian and have room for a
+	 * frame.
+	 * 
+	 * @param buffer
+	 *            the buffer.
+	 * @param type
+	 *            the type.
+	 * @param stream
+	 *            the stream id.
+	 * @param timestamp
+	 *            the timestamp in nanoseconds.
+	 * @param x
+	 *            the x-axis.
+	 * @param y
+	 *            the y-axis.
+	 * @param z
+	 *            the z-axis.
+	 */
+	public static void putFrame(ByteBuffer buffer, byte type, int stream,
+			long timestamp, float x, float y, float z)
+	{
+		buffer.put(type);
+		buffer.putInt(stream);
+		buffer.putLong(timestamp);
+		buffer.putFloat(x);
+		buffer.putFloat(y);
+		buffer.putFloat(z);
+	}
+}
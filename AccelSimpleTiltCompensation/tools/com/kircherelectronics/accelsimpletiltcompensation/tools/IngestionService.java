@@ -0,0 +1,749 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationConfig;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A headless service that runs the tilt compensation for many devices at
+ * once. Devices connect over TCP and send their accelerometer and
+ * magnetometer samples framed by {@link IngestionProtocol}; a connection can
+ * carry any number of streams.
+ * 
+ * Each stream has its own TiltCompensationEngine, so it keeps the same state
+ * the activity does: the threshold, the acceleration count, the gravity
+ * components and the mean filter. Connections are spread over a few event
+ * loops, each a single thread with its own Selector that reads and decodes
+ * the samples of its connections. The number of streams is bound by memory
+ * rather than threads.
+ * 
+ * By default a loop also processes the samples, and a stream belongs to the
+ * connection it arrived on. With -workers the loops hand the samples to a
+ * {@link StripedExecutor} instead, which processes each stream on the worker
+ * its key hashes to. The ids are only unique within a connection, so the loop
+ * gives each stream a key of its own, and when the connection closes, ended
+ * or not, the loop ends the streams it still carries. When a worker falls
+ * behind, its loop stops reading the connections that feed it until there is
+ * room, which pushes back on the devices through TCP.
+ * 
+ * Either way a stream is only touched by one thread, so its state needs no
+ * locks.
+ * 
+ * The throughput is printed at an interval. Run {@link LoadGenerator} against
+ * the service to stand in for the devices.
+ * 
+ * Usage: IngestionService [-port n] [-loops n] [-workers n] [-gravity n]
+ * [-interval seconds]
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class IngestionService
+{
+	public static final int DEFAULT_PORT = 9725;
+
+	// The read buffer of a connection, a whole number of frames.
+	private static final int READ_BUFFER = IngestionProtocol.FRAME_SIZE * 2048;
+
+	// The capacity of the queue of each worker.
+	private static final int WORKER_QUEUE = 1 << 16;
+
+	// How often a loop retries the connections waiting for a worker.
+	private static final long STALL_RETRY_MS = 1;
+
+	/**
+	 * The throughput counters of the streams processed on one thread. Only
+	 * written by that thread, and published for the reporter.
+	 */
+	private static class Counters
+	{
+		private long samples;
+		private long outputs;
+		private long streams;
+
+		private final AtomicLong publishedSamples = new AtomicLong();
+		private final AtomicLong publishedOutputs = new AtomicLong();
+		private final AtomicLong publishedStreams = new AtomicLong();
+
+		public void publish()
+		{
+			publishedSamples.lazySet(samples);
+			publishedOutputs.lazySet(outputs);
+			publishedStreams.lazySet(streams);
+		}
+	}
+
+	/**
+	 * The state of one stream.
+	 */
+	private static class Stream implements
+			TiltCompensationEngine.OutputListener
+	{
+		private final TiltCompensationEngine engine = new TiltCompensationEngine();
+
+		private final Counters counters;
+
+		public Stream(Counters counters, TiltCompensationConfig config)
+		{
+			this.counters = counters;
+
+			engine.setConfig(config);
+			engine.setOutputListener(this);
+		}
+
+		@Override
+		public void onOutput(long timestamp, float[] raw, float[] gravity,
+				float[] linearAcceleration)
+		{
+			counters.outputs++;
+		}
+	}
+
+	/**
+	 * The streams processed on one thread, by id, or by key on a worker.
+	 */
+	private static class StreamSet implements StripedExecutor.Handler
+	{
+		private final StreamTable<Stream> streams = new StreamTable<Stream>(16);
+
+		private final TiltCompensationConfig config;
+		private final Counters counters;
+
+		public StreamSet(TiltCompensationConfig config, Counters counters)
+		{
+			this.config = config;
+			this.counters = counters;
+		}
+
+		/**
+		 * Process a sample. The type has already been checked.
+		 */
+		@Override
+		public void onSample(byte type, int id, long timestamp, float x,
+				float y, float z)
+		{
+			Stream stream = streams.get(id);
+
+			if (type == IngestionProtocol.TYPE_END)
+			{
+				if (stream != null)
+				{
+					stream.engine.flush();
+					streams.remove(id);
+					counters.streams--;
+				}
+
+				return;
+			}
+
+			if (stream == null)
+			{
+				stream = new Stream(counters, config);
+				streams.put(id, stream);
+				counters.streams++;
+			}
+
+			if (type == IngestionProtocol.TYPE_ACCELEROMETER)
+			{
+				stream.engine.onAccelerometer(timestamp, x, y, z);
+			}
+			else
+			{
+				stream.engine.onMagneticField(timestamp, x, y, z);
+			}
+
+			counters.samples++;
+		}
+
+		@Override
+		public void onBatchEnd()
+		{
+			counters.publish();
+		}
+
+		/**
+		 * Flush and drop every stream.
+		 */
+		public void close()
+		{
+			Object[] open = new Object[streams.size()];
+			int n = streams.values(open);
+
+			for (int i = 0; i < n; i++)
+			{
+				((Stream) open[i]).engine.flush();
+			}
+
+			counters.streams -= n;
+			streams.clear();
+		}
+	}
+
+	/**
+	 * The state of one connection.
+	 */
+	private static class Connection
+	{
+		private final SocketChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer
+				.allocateDirect(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+		// The streams of the connection, or null when they are processed by
+		// the workers.
+		private final StreamSet streams;
+
+		// The worker keys of the streams of the connection by id, or null
+		// when they are processed on the loop.
+		private final StreamTable<Integer> keys;
+
+		// The buffer holds frames a worker had no room for.
+		private boolean stalled;
+
+		// The device has closed its end.
+		private boolean ended;
+
+		public Connection(SocketChannel channel, StreamSet streams,
+				StreamTable<Integer> keys)
+		{
+			this.channel = channel;
+			this.streams = streams;
+			this.keys = keys;
+		}
+	}
+
+	/**
+	 * Reads and processes the samples of its connections on one thread.
+	 */
+	private static class EventLoop implements Runnable
+	{
+		private final Selector selector;
+
+		private final TiltCompensationConfig config;
+
+		// Processes the samples, or null to process them on the loop.
+		private final StripedExecutor executor;
+
+		// The connections waiting for room in a worker queue.
+		private final List<SelectionKey> stalled = new ArrayList<SelectionKey>();
+
+		// The keys of the streams of closed connections whose end is waiting
+		// for room in a worker queue.
+		private final List<Integer> ending = new ArrayList<Integer>();
+
+		// Accepted connections waiting to be registered with the selector.
+		private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+		// The streams processed on the loop.
+		private final Counters counters = new Counters();
+
+		// Only written by the loop, published for the reporter.
+		private final AtomicLong publishedConnections = new AtomicLong();
+
+		private long connections;
+
+		// The next worker key, stepped by the number of loops so the keys of
+		// the loops never meet.
+		private int nextKey;
+		private final int keyStep;
+
+		public EventLoop(TiltCompensationConfig config,
+				StripedExecutor executor, int index, int loops)
+				throws IOException
+		{
+			this.config = config;
+			this.executor = executor;
+
+			nextKey = index;
+			keyStep = loops;
+
+			selector = Selector.open();
+		}
+
+		/**
+		 * Hand over an accepted connection. Called by the acceptor.
+		 */
+		public void add(SocketChannel channel)
+		{
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					selector.select((stalled.isEmpty() && ending.isEmpty()) ? 0
+							: STALL_RETRY_MS);
+
+					register();
+					retryStalled();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys()
+							.iterator();
+
+					while (keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						if (key.isValid() && key.isReadable())
+						{
+							read(key);
+						}
+					}
+
+					counters.publish();
+					publishedConnections.lazySet(connections);
+				}
+			}
+			catch (IOException e)
+			{
+				System.err.println("Event loop stopped: " + e);
+			}
+		}
+
+		private void register() throws ClosedChannelException
+		{
+			SocketChannel channel;
+
+			while ((channel = pending.poll()) != null)
+			{
+				StreamSet streams = (executor == null) ? new StreamSet(
+						config, counters) : null;
+				StreamTable<Integer> keys = (executor != null) ? new StreamTable<Integer>(
+						16) : null;
+
+				channel.register(selector, SelectionKey.OP_READ,
+						new Connection(channel, streams, keys));
+
+				connections++;
+			}
+		}
+
+		/**
+		 * Process the frames of the stalled connections and the ends of the
+		 * streams of closed connections again.
+		 */
+		private void retryStalled()
+		{
+			for (int i = ending.size() - 1; i >= 0; i--)
+			{
+				if (end(ending.get(i)))
+				{
+					ending.set(i, ending.get(ending.size() - 1));
+					ending.remove(ending.size() - 1);
+				}
+			}
+
+			for (int i = stalled.size() - 1; i >= 0; i--)
+			{
+				SelectionKey key = stalled.get(i);
+
+				process(key, (Connection) key.attachment());
+
+				if (!((Connection) key.attachment()).stalled)
+				{
+					// Swap the last in, the order does not matter.
+					stalled.set(i, stalled.get(stalled.size() - 1));
+					stalled.remove(stalled.size() - 1);
+				}
+			}
+		}
+
+		private void read(SelectionKey key)
+		{
+			Connection connection = (Connection) key.attachment();
+
+			try
+			{
+				if (connection.channel.read(connection.buffer) < 0)
+				{
+					connection.ended = true;
+				}
+			}
+			catch (IOException e)
+			{
+				connection.ended = true;
+			}
+
+			process(key, connection);
+		}
+
+		/**
+		 * Dispatch the whole frames in the buffer of a connection. If a worker
+		 * has no room, stop reading the connection until it does.
+		 */
+		private void process(SelectionKey key, Connection connection)
+		{
+			ByteBuffer buffer = connection.buffer;
+
+			boolean full = false;
+
+			buffer.flip();
+
+			while (buffer.remaining() >= IngestionProtocol.FRAME_SIZE)
+			{
+				int position = buffer.position();
+
+				byte type = buffer.get();
+				int id = buffer.getInt();
+				long timestamp = buffer.getLong();
+				float x = buffer.getFloat();
+				float y = buffer.getFloat();
+				float z = buffer.getFloat();
+
+				if (type != IngestionProtocol.TYPE_END
+						&& type != IngestionProtocol.TYPE_ACCELEROMETER
+						&& type != IngestionProtocol.TYPE_MAGNETIC_FIELD)
+				{
+					System.err.println(connection.channel.socket()
+							.getRemoteSocketAddress()
+							+ ": unknown frame type, closing");
+					close(key, connection);
+					return;
+				}
+
+				if (executor == null)
+				{
+					connection.streams.onSample(type, id, timestamp, x, y, z);
+				}
+				else if (!offer(connection, type, id, timestamp, x, y, z))
+				{
+					// Keep the frame for the retry.
+					buffer.position(position);
+					full = true;
+					break;
+				}
+			}
+
+			buffer.compact();
+
+			if (full != connection.stalled)
+			{
+				connection.stalled = full;
+
+				if (full)
+				{
+					stalled.add(key);
+				}
+
+				key.interestOps(full ? 0 : SelectionKey.OP_READ);
+			}
+
+			if (!full && connection.ended)
+			{
+				close(key, connection);
+			}
+		}
+
+		/**
+		 * Offer a sample to the worker of its stream under the key the stream
+		 * has on this connection.
+		 * 
+		 * @return false if the worker had no room.
+		 */
+		private boolean offer(Connection connection, byte type, int id,
+				long timestamp, float x, float y, float z)
+		{
+			Integer key = connection.keys.get(id);
+
+			if (type == IngestionProtocol.TYPE_END)
+			{
+				if (key == null)
+				{
+					return true;
+				}
+
+				if (!executor.offer(type, key, timestamp, x, y, z))
+				{
+					return false;
+				}
+
+				connection.keys.remove(id);
+
+				return true;
+			}
+
+			// A new stream takes the next key once its first sample is
+			// accepted.
+			boolean first = (key == null);
+
+			if (first)
+			{
+				key = nextKey;
+			}
+
+			if (!executor.offer(type, key, timestamp, x, y, z))
+			{
+				return false;
+			}
+
+			if (first)
+			{
+				connection.keys.put(id, key);
+				nextKey += keyStep;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Offer the end of a stream to its worker.
+		 * 
+		 * @return false if the worker had no room.
+		 */
+		private boolean end(int key)
+		{
+			return executor.offer(IngestionProtocol.TYPE_END, key, 0, 0, 0, 0);
+		}
+
+		/**
+		 * Close a connection, flushing the streams it still carries.
+		 */
+		private void close(SelectionKey key, Connection connection)
+		{
+			key.cancel();
+
+			// Stop any retry.
+			connection.stalled = false;
+
+			try
+			{
+				connection.channel.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing more to do with it.
+			}
+
+			if (connection.streams != null)
+			{
+				connection.streams.close();
+			}
+			else
+			{
+				// End the streams the device left open on their workers,
+				// retrying those that have no room.
+				Object[] open = new Object[connection.keys.size()];
+				int n = connection.keys.values(open);
+
+				for (int i = 0; i < n; i++)
+				{
+					if (!end((Integer) open[i]))
+					{
+						ending.add((Integer) open[i]);
+					}
+				}
+
+				connection.keys.clear();
+			}
+
+			connections--;
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException
+	{
+		int port = DEFAULT_PORT;
+		int loops = Runtime.getRuntime().availableProcessors();
+		int workers = 0;
+		int interval = 1;
+
+		TiltCompensationConfig config = TiltCompensationConfig.DEFAULT;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-port") && i + 1 < args.length)
+			{
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-loops") && i + 1 < args.length)
+			{
+				loops = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-workers") && i + 1 < args.length)
+			{
+				workers = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-gravity") && i + 1 < args.length)
+			{
+				config = config.withGravityEstimator(Integer
+						.parseInt(args[++i]));
+			}
+			else if (args[i].equals("-interval") && i + 1 < args.length)
+			{
+				interval = Integer.parseInt(args[++i]);
+			}
+			else
+			{
+				System.err.println("Usage: IngestionService [-port n] [-loops n] [-workers n] [-gravity n] [-interval seconds]");
+				System.exit(2);
+			}
+		}
+
+		List<Counters> counters = new ArrayList<Counters>();
+
+		StripedExecutor executor = null;
+
+		if (workers > 0)
+		{
+			StreamSet[] handlers = new StreamSet[workers];
+
+			for (int i = 0; i < workers; i++)
+			{
+				Counters shard = new Counters();
+				counters.add(shard);
+
+				handlers[i] = new StreamSet(config, shard);
+			}
+
+			executor = new StripedExecutor(handlers, WORKER_QUEUE,
+					StripedExecutor.DEFAULT_BATCH, "ingestion-worker");
+			executor.start();
+		}
+
+		final EventLoop[] eventLoops = new EventLoop[loops];
+
+		for (int i = 0; i < loops; i++)
+		{
+			eventLoops[i] = new EventLoop(config, executor, i, loops);
+			counters.add(eventLoops[i].counters);
+
+			Thread thread = new Thread(eventLoops[i], "ingestion-loop-" + i);
+			thread.start();
+		}
+
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port), 1024);
+
+		Thread acceptor = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				int next = 0;
+
+				try
+				{
+					while (true)
+					{
+						SocketChannel channel = server.accept();
+						channel.configureBlocking(false);
+						channel.socket().setTcpNoDelay(true);
+
+						// Spread the connections over the loops.
+						eventLoops[next].add(channel);
+						next = (next + 1) % eventLoops.length;
+					}
+				}
+				catch (IOException e)
+				{
+					System.err.println("Acceptor stopped: " + e);
+				}
+			}
+		}, "ingestion-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		System.out.println("Listening on port " + port + " with " + loops
+				+ " event loops"
+				+ ((executor != null) ? " and " + workers + " workers" : ""));
+
+		long lastSamples = 0;
+		long lastOutputs = 0;
+		long last = System.nanoTime();
+
+		while (true)
+		{
+			Thread.sleep(interval * 1000L);
+
+			long samples = 0;
+			long outputs = 0;
+			long streams = 0;
+			long connections = 0;
+
+			for (Counters c : counters)
+			{
+				samples += c.publishedSamples.get();
+				outputs += c.publishedOutputs.get();
+				streams += c.publishedStreams.get();
+			}
+
+			for (EventLoop loop : eventLoops)
+			{
+				connections += loop.publishedConnections.get();
+			}
+
+			long now = System.nanoTime();
+			double seconds = (now - last) / 1e9;
+
+			System.out.println(connections + " connections, " + streams
+					+ " streams, " + (long) ((samples - lastSamples) / seconds)
+					+ " samples/s, "
+					+ (long) ((outputs - lastOutputs) / seconds)
+					+ " outputs/s" + queues(executor));
+
+			lastSamples = samples;
+			lastOutputs = outputs;
+			last = now;
+		}
+	}
+
+	/**
+	 * Describe the depth of the worker queues and the refused offers.
+	 */
+	private static String queues(StripedExecutor executor)
+	{
+		if (executor == null)
+		{
+			return "";
+		}
+
+		int depth = 0;
+		long rejected = 0;
+
+		for (int i = 0; i < executor.getWorkers(); i++)
+		{
+			depth = Math.max(depth, executor.getDepth(i));
+			rejected += executor.getRejected(i);
+		}
+
+		return ", deepest queue " + depth + ", " + rejected + " offers refused";
+	}
+}
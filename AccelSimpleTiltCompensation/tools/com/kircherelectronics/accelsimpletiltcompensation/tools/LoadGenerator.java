@@ -0,0 +1,316 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Stands in for a fleet of devices streaming to the {@link IngestionService}.
+ * Opens a number of connections, each carrying a number of streams, and sends
+ * synthetic samples of a device at rest at some tilt with a little noise, one
+ * magnetometer sample for every four accelerometer samples. Each stream runs
+ * at the given rate, or as fast as the service will take them when the rate
+ * is 0.
+ * 
+ * Usage: LoadGenerator [-host name] [-port n] [-connections n] [-streams n]
+ * [-rate hz] [-threads n] [-seconds n]
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class LoadGenerator
+{
+	// The magnetometer runs at a quarter of the accelerometer rate.
+	private static final int MAG_DIVIDER = 4;
+
+	// The sample period used for the timestamps when the rate is unbounded.
+	private static final long FREE_RUNNING_PERIOD = 5000000;
+
+	private static volatile boolean running = true;
+
+	/**
+	 * Sends the streams of a share of the connections.
+	 */
+	private static class Sender implements Callable<Long>
+	{
+		private final SocketChannel[] channels;
+		private final int firstStream;
+		private final int streams;
+		private final long period;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		private int random = 0x2545F491;
+
+		public Sender(SocketChannel[] channels, int firstStream, int streams,
+				long period)
+		{
+			this.channels = channels;
+			this.firstStream = firstStream;
+			this.streams = streams;
+			this.period = period;
+		}
+
+		@Override
+		public Long call() throws IOException, InterruptedException
+		{
+			int total = channels.length * streams;
+
+			// The tilt of each device.
+			float[] gravity = new float[total * 3];
+
+			for (int i = 0; i < total; i++)
+			{
+				double pitch = (i % 90) * Math.PI / 180;
+				double roll = (i % 37) * Math.PI / 180;
+
+				gravity[i * 3] = (float) (TiltCompensationEngine.GRAVITY_EARTH * Math
+						.sin(roll));
+				gravity[i * 3 + 1] = (float) (TiltCompensationEngine.GRAVITY_EARTH
+						* Math.cos(roll) * Math.sin(pitch));
+				gravity[i * 3 + 2] = (float) (TiltCompensationEngine.GRAVITY_EARTH
+						* Math.cos(roll) * Math.cos(pitch));
+			}
+
+			long samples = 0;
+			long start = System.nanoTime();
+			long step = (period > 0) ? period : FREE_RUNNING_PERIOD;
+
+			for (long tick = 1; running; tick++)
+			{
+				if (period > 0)
+				{
+					long wait = start + tick * period - System.nanoTime();
+
+					if (wait > 0)
+					{
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+				}
+
+				long timestamp = tick * step;
+				boolean mag = tick % MAG_DIVIDER == 0;
+
+				for (int c = 0; c < channels.length; c++)
+				{
+					for (int s = 0; s < streams; s++)
+					{
+						int i = c * streams + s;
+						int id = firstStream + i;
+
+						if (buffer.remaining() < IngestionProtocol.FRAME_SIZE * 2)
+						{
+							send(channels[c]);
+						}
+
+						IngestionProtocol.putFrame(buffer,
+								IngestionProtocol.TYPE_ACCELEROMETER, id,
+								timestamp, gravity[i * 3] + noise(),
+								gravity[i * 3 + 1] + noise(), gravity[i * 3 + 2]
+										+ noise());
+						samples++;
+
+						if (mag)
+						{
+							IngestionProtocol.putFrame(buffer,
+									IngestionProtocol.TYPE_MAGNETIC_FIELD, id,
+									timestamp, 20 + noise(), noise(),
+									-40 + noise());
+							samples++;
+						}
+					}
+
+					send(channels[c]);
+				}
+			}
+
+			for (int c = 0; c < channels.length; c++)
+			{
+				for (int s = 0; s < streams; s++)
+				{
+					if (buffer.remaining() < IngestionProtocol.FRAME_SIZE)
+					{
+						send(channels[c]);
+					}
+
+					IngestionProtocol.putFrame(buffer,
+							IngestionProtocol.TYPE_END, firstStream + c
+									* streams + s, 0, 0, 0, 0);
+				}
+
+				send(channels[c]);
+				channels[c].close();
+			}
+
+			return samples;
+		}
+
+		/**
+		 * Write the buffer out to a connection.
+		 */
+		private void send(SocketChannel channel) throws IOException
+		{
+			buffer.flip();
+
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+
+			buffer.clear();
+		}
+
+		/**
+		 * Get a little noise, within +/- 0.05.
+		 */
+		private float noise()
+		{
+			random ^= random << 13;
+			random ^= random >>> 17;
+			random ^= random << 5;
+
+			return (random >> 8) * (0.05f / (1 << 23));
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException
+	{
+		String host = "localhost";
+		int port = IngestionService.DEFAULT_PORT;
+		int connections = 100;
+		int streams = 100;
+		double rate = 50;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int seconds = 10;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-host") && i + 1 < args.length)
+			{
+				host = args[++i];
+			}
+			else if (args[i].equals("-port") && i + 1 < args.length)
+			{
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-connections") && i + 1 < args.length)
+			{
+				connections = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-streams") && i + 1 < args.length)
+			{
+				streams = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-rate") && i + 1 < args.length)
+			{
+				rate = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+			{
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-seconds") && i + 1 < args.length)
+			{
+				seconds = Integer.parseInt(args[++i]);
+			}
+			else
+			{
+				System.err.println("Usage: LoadGenerator [-host name] [-port n] [-connections n] [-streams n] [-rate hz] [-threads n] [-seconds n]");
+				System.exit(2);
+			}
+		}
+
+		threads = Math.max(1, Math.min(threads, connections));
+
+		long period = (rate > 0) ? (long) (1e9 / rate) : 0;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+
+		int first = 0;
+
+		for (int t = 0; t < threads; t++)
+		{
+			// Share the connections out as evenly as possible.
+			int n = connections / threads + (t < connections % threads ? 1 : 0);
+
+			SocketChannel[] channels = new SocketChannel[n];
+
+			for (int i = 0; i < n; i++)
+			{
+				channels[i] = SocketChannel.open(new InetSocketAddress(host,
+						port));
+				channels[i].socket().setTcpNoDelay(true);
+			}
+
+			results.add(executor.submit(new Sender(channels, first, streams,
+					period)));
+
+			first += n * streams;
+		}
+
+		executor.shutdown();
+
+		long start = System.nanoTime();
+
+		Thread.sleep(seconds * 1000L);
+		running = false;
+
+		long samples = 0;
+		int failed = 0;
+
+		for (Future<Long> result : results)
+		{
+			try
+			{
+				samples += result.get();
+			}
+			catch (ExecutionException e)
+			{
+				System.err.println("Sender failed: " + e.getCause());
+				failed++;
+			}
+		}
+
+		long ns = System.nanoTime() - start;
+
+		System.out.println(connections + " connections, "
+				+ (connections * streams) + " streams, " + samples
+				+ " samples in " + (ns / 1000000) + " ms, "
+				+ (long) (samples * 1e9 / ns) + " samples/s");
+
+		if (failed > 0)
+		{
+			System.exit(1);
+		}
+	}
+}
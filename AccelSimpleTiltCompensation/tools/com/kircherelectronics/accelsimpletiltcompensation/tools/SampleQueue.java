@@ -0,0 +1,270 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A bounded queue of sensor samples with many producers and one consumer.
+ * 
+ * The samples are kept in primitive arrays, one slot per sample, so offering
+ * and draining neither box nor allocate. Each slot has a sequence number that
+ * says whether it is free for the producer that claimed it or holds a sample
+ * for the consumer: producers claim slots with a single compare and set on
+ * the tail and hand them over with an ordered write of the sequence, and the
+ * consumer drains in batches, publishing its head once per batch. The head
+ * and tail are padded onto their own cache lines so the producers and the
+ * consumer do not contend on them.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class SampleQueue
+{
+	/**
+	 * Receives the samples drained from the queue.
+	 */
+	public interface Consumer
+	{
+		/**
+		 * Called for each sample, in the order they were offered.
+		 * 
+		 * @param type
+		 *            the type.
+		 * @param stream
+		 *            the stream id.
+		 * @param timestamp
+		 *            the timestamp in nanoseconds.
+		 * @param x
+		 *            the x-axis.
+		 * @param y
+		 *            the y-axis.
+		 * @param z
+		 *            the z-axis.
+		 */
+		public void onSample(byte type, int stream, long timestamp, float x,
+				float y, float z);
+	}
+
+	/**
+	 * An AtomicLong padded out to a cache line.
+	 */
+	@SuppressWarnings("serial")
+	private static class PaddedAtomicLong extends AtomicLong
+	{
+		public long p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	private final int capacity;
+	private final int mask;
+
+	// The sequence of each slot: the slot is free for the producer of
+	// position p when it is p, and holds the sample of position p when it is
+	// p + 1.
+	private final AtomicLongArray sequences;
+
+	private final byte[] types;
+	private final int[] streams;
+	private final long[] timestamps;
+	private final float[] values;
+
+	// The next position to claim, shared by the producers.
+	private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+	// The next position to drain, only written by the consumer.
+	private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+	// The offers turned away because the queue was full.
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Initialize a new SampleQueue object.
+	 * 
+	 * @param capacity
+	 *            the number of samples held, a power of two.
+	 */
+	public SampleQueue(int capacity)
+	{
+		if (capacity < 2 || Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException(
+					"Capacity must be a power of two: " + capacity);
+		}
+
+		this.capacity = capacity;
+
+		mask = capacity - 1;
+
+		sequences = new AtomicLongArray(capacity);
+
+		for (int i = 0; i < capacity; i++)
+		{
+			sequences.set(i, i);
+		}
+
+		types = new byte[capacity];
+		streams = new int[capacity];
+		timestamps = new long[capacity];
+		values = new float[capacity * 3];
+	}
+
+	/**
+	 * Offer a sample. Safe to call from any number of threads.
+	 * 
+	 * @return false if the queue is full and the sample was not added.
+	 */
+	public boolean offer(byte type, int stream, long timestamp, float x,
+			float y, float z)
+	{
+		long position = tail.get();
+		int slot;
+
+		while (true)
+		{
+			slot = (int) position & mask;
+
+			long sequence = sequences.get(slot);
+
+			if (sequence == position)
+			{
+				if (tail.compareAndSet(position, position + 1))
+				{
+					break;
+				}
+
+				position = tail.get();
+			}
+			else if (sequence < position)
+			{
+				// The consumer has not released the slot a lap ago.
+				rejected.incrementAndGet();
+				return false;
+			}
+			else
+			{
+				// Another producer claimed the position.
+				position = tail.get();
+			}
+		}
+
+		types[slot] = type;
+		streams[slot] = stream;
+		timestamps[slot] = timestamp;
+		values[slot * 3] = x;
+		values[slot * 3 + 1] = y;
+		values[slot * 3 + 2] = z;
+
+		// The ordered write publishes the sample to the consumer.
+		sequences.lazySet(slot, position + 1);
+
+		return true;
+	}
+
+	/**
+	 * Drain a batch of samples, oldest first. Only call from the consumer
+	 * thread.
+	 * 
+	 * @param consumer
+	 *            receives the samples.
+	 * @param limit
+	 *            the most samples to drain.
+	 * @return the number of samples drained.
+	 */
+	public int drain(Consumer consumer, int limit)
+	{
+		long position = head.get();
+		int n = 0;
+
+		while (n < limit)
+		{
+			int slot = (int) position & mask;
+
+			if (sequences.get(slot) != position + 1)
+			{
+				// Empty, or the producer has not finished writing.
+				break;
+			}
+
+			byte type = types[slot];
+			int stream = streams[slot];
+			long timestamp = timestamps[slot];
+			float x = values[slot * 3];
+			float y = values[slot * 3 + 1];
+			float z = values[slot * 3 + 2];
+
+			// Free the slot for the producer a lap ahead before handling the
+			// sample, so a slow consumer frees room as early as possible.
+			sequences.lazySet(slot, position + capacity);
+
+			consumer.onSample(type, stream, timestamp, x, y, z);
+
+			position++;
+			n++;
+		}
+
+		if (n > 0)
+		{
+			head.lazySet(position);
+		}
+
+		return n;
+	}
+
+	/**
+	 * Get the number of samples waiting, a snapshot that may be out of date by
+	 * the time it returns.
+	 * 
+	 * @return the depth of the queue.
+	 */
+	public int size()
+	{
+		long depth = tail.get() - head.get();
+
+		return (int) Math.max(0, Math.min(depth, capacity));
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Get the number of samples drained so far.
+	 * 
+	 * @return the count.
+	 */
+	public long getDrained()
+	{
+		return head.get();
+	}
+
+	/**
+	 * Get the number of offers turned away because the queue was full.
+	 * 
+	 * @return the count.
+	 */
+	public long getRejected()
+	{
+		return rejected.get();
+	}
+}
@@ -0,0 +1,231 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A map from int stream ids to their state. The keys are kept in a primitive
+ * open addressing table with linear probing, so a lookup on the hot path
+ * neither boxes the id nor allocates. Not thread safe; a table is owned by the
+ * thread that processes its streams.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ * 
+ * @param <V>
+ *            the state of a stream.
+ */
+public class StreamTable<V>
+{
+	private int[] keys;
+	private Object[] values;
+
+	// The capacity minus one, the capacity is a power of two.
+	private int mask;
+
+	private int size;
+
+	/**
+	 * Initialize a new StreamTable object.
+	 * 
+	 * @param expected
+	 *            the number of streams expected, the table grows beyond it.
+	 */
+	public StreamTable(int expected)
+	{
+		allocate(Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1);
+	}
+
+	/**
+	 * Get the state of a stream.
+	 * 
+	 * @param key
+	 *            the stream id.
+	 * @return the state, or null if the stream is not in the table.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key)
+	{
+		return (V) values[find(key)];
+	}
+
+	/**
+	 * Put the state of a stream.
+	 * 
+	 * @param key
+	 *            the stream id.
+	 * @param value
+	 *            the state, not null.
+	 */
+	public void put(int key, V value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("value");
+		}
+
+		int i = find(key);
+
+		if (values[i] == null)
+		{
+			// Keep the load under a half so the probes stay short.
+			if (size + 1 > (mask + 1) >> 1)
+			{
+				grow();
+				i = find(key);
+			}
+
+			size++;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	/**
+	 * Remove a stream.
+	 * 
+	 * @param key
+	 *            the stream id.
+	 * @return the state of the stream, or null if it was not in the table.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key)
+	{
+		int i = find(key);
+
+		Object value = values[i];
+
+		if (value == null)
+		{
+			return null;
+		}
+
+		// Shift the rest of the probe run back over the gap, rather than
+		// leaving a tombstone behind.
+		int gap = i;
+
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask)
+		{
+			int home = slot(keys[j]);
+
+			// Move the entry if its home is not between the gap and j.
+			if (((j - home) & mask) >= ((j - gap) & mask))
+			{
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+
+		values[gap] = null;
+		size--;
+
+		return (V) value;
+	}
+
+	/**
+	 * Get the state of every stream, in no particular order.
+	 * 
+	 * @param out
+	 *            receives the states, must have room for {@link #size()}.
+	 * @return the number of states.
+	 */
+	public int values(Object[] out)
+	{
+		int n = 0;
+
+		for (int i = 0; i < values.length; i++)
+		{
+			if (values[i] != null)
+			{
+				out[n++] = values[i];
+			}
+		}
+
+		return n;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Find the slot of a key, or the empty slot that ends its probe run.
+	 */
+	private int find(int key)
+	{
+		int i = slot(key);
+
+		while (values[i] != null && keys[i] != key)
+		{
+			i = (i + 1) & mask;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Get the home slot of a key. The ids are often sequential, so they are
+	 * mixed before being masked.
+	 */
+	private int slot(int key)
+	{
+		int h = key * 0x9E3779B9;
+
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	private void grow()
+	{
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		allocate(oldKeys.length << 1);
+
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldValues[i] != null)
+			{
+				int j = slot(oldKeys[i]);
+
+				while (values[j] != null)
+				{
+					j = (j + 1) & mask;
+				}
+
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
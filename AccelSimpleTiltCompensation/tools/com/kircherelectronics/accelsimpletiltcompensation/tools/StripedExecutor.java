@@ -0,0 +1,252 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Runs stateful per-stream processing across a fixed set of workers. Every
+ * stream id hashes to one worker, so the samples of a stream are always
+ * handled in order by the same thread, while different streams spread over
+ * all of the workers.
+ * 
+ * Each worker owns a bounded {@link SampleQueue} and a {@link Handler}. The
+ * handler is only ever called by its worker, so it can keep the state of its
+ * streams in plain fields and maps without locks. Workers drain their queue
+ * in batches and tell the handler when a batch ends. When a queue is full the
+ * offer is refused rather than blocking the producer, which decides whether
+ * to retry, push back on its source or drop the sample; the depth of each
+ * queue and the refused offers are kept for monitoring.
+ * 
+ * An idle worker spins briefly, then yields, then parks for a short while, so
+ * producers never pay for waking it up.
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class StripedExecutor
+{
+	/**
+	 * Processes the samples of the streams that hash to one worker.
+	 */
+	public interface Handler extends SampleQueue.Consumer
+	{
+		/**
+		 * Called after each batch of samples is handled.
+		 */
+		public void onBatchEnd();
+	}
+
+	// The most samples handled before the handler is told the batch ended.
+	public static final int DEFAULT_BATCH = 256;
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 10;
+	private static final long PARK_NANOS = 50000;
+
+	private final SampleQueue[] queues;
+	private final Handler[] handlers;
+	private final Thread[] workers;
+
+	private final int batch;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Initialize a new StripedExecutor object. The workers are started with
+	 * {@link #start()}.
+	 * 
+	 * @param handlers
+	 *            one handler for each worker.
+	 * @param capacity
+	 *            the capacity of the queue of each worker, a power of two.
+	 * @param batch
+	 *            the most samples drained in one batch.
+	 * @param name
+	 *            the prefix of the worker thread names.
+	 */
+	public StripedExecutor(Handler[] handlers, int capacity, int batch,
+			String name)
+	{
+		if (handlers.length < 1 || batch < 1)
+		{
+			throw new IllegalArgumentException("Invalid executor: "
+					+ handlers.length + " workers, batch " + batch);
+		}
+
+		this.handlers = handlers.clone();
+		this.batch = batch;
+
+		queues = new SampleQueue[handlers.length];
+		workers = new Thread[handlers.length];
+
+		for (int i = 0; i < handlers.length; i++)
+		{
+			final int shard = i;
+
+			queues[i] = new SampleQueue(capacity);
+
+			workers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					work(shard);
+				}
+			}, name + "-" + i);
+		}
+	}
+
+	public void start()
+	{
+		for (Thread worker : workers)
+		{
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stop the workers once they have handled every sample already offered,
+	 * and wait for them.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		running = false;
+
+		for (Thread worker : workers)
+		{
+			LockSupport.unpark(worker);
+			worker.join();
+		}
+	}
+
+	/**
+	 * Get the worker a stream is handled by.
+	 * 
+	 * @param stream
+	 *            the stream id.
+	 * @return the worker.
+	 */
+	public int shardFor(int stream)
+	{
+		// The ids are often sequential, so mix them before taking the
+		// remainder.
+		int h = stream * 0x9E3779B9;
+
+		return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % queues.length;
+	}
+
+	/**
+	 * Offer a sample to the worker of its stream. Safe to call from any number
+	 * of threads; the samples of a stream must be offered from one thread at
+	 * a time to keep their order.
+	 * 
+	 * @return false if the queue of the worker is full and the sample was not
+	 *         taken.
+	 */
+	public boolean offer(byte type, int stream, long timestamp, float x,
+			float y, float z)
+	{
+		return queues[shardFor(stream)].offer(type, stream, timestamp, x, y, z);
+	}
+
+	public int getWorkers()
+	{
+		return queues.length;
+	}
+
+	/**
+	 * Get the number of samples waiting for a worker.
+	 * 
+	 * @param shard
+	 *            the worker.
+	 * @return the depth of its queue.
+	 */
+	public int getDepth(int shard)
+	{
+		return queues[shard].size();
+	}
+
+	/**
+	 * Get the number of samples handled by a worker.
+	 * 
+	 * @param shard
+	 *            the worker.
+	 * @return the count.
+	 */
+	public long getProcessed(int shard)
+	{
+		return queues[shard].getDrained();
+	}
+
+	/**
+	 * Get the number of offers refused because the queue of a worker was
+	 * full.
+	 * 
+	 * @param shard
+	 *            the worker.
+	 * @return the count.
+	 */
+	public long getRejected(int shard)
+	{
+		return queues[shard].getRejected();
+	}
+
+	/**
+	 * The loop of a worker.
+	 */
+	private void work(int shard)
+	{
+		SampleQueue queue = queues[shard];
+		Handler handler = handlers[shard];
+
+		int idle = 0;
+
+		while (true)
+		{
+			// Read the flag before draining, so nothing offered before
+			// shutdown is left behind.
+			boolean stop = !running;
+
+			if (queue.drain(handler, batch) > 0)
+			{
+				handler.onBatchEnd();
+				idle = 0;
+			}
+			else if (stop)
+			{
+				return;
+			}
+			else if (idle < SPINS)
+			{
+				idle++;
+			}
+			else if (idle < SPINS + YIELDS)
+			{
+				idle++;
+				Thread.yield();
+			}
+			else
+			{
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+}
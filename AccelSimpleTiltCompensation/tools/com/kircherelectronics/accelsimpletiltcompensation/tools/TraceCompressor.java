@@ -0,0 +1,366 @@
+package com.kircherelectronics.accelsimpletiltcompensation.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.kircherelectronics.accelsimpletiltcompensation.CompressedTrace;
+import com.kircherelectronics.accelsimpletiltcompensation.CompressedTraceReader;
+import com.kircherelectronics.accelsimpletiltcompensation.CompressedTraceWriter;
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTrace;
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTraceReader;
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTraceReplayer;
+import com.kircherelectronics.accelsimpletiltcompensation.SensorTraceWriter;
+import com.kircherelectronics.accelsimpletiltcompensation.TiltCompensationEngine;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Converts sensor traces to compressed traces, next to the originals, checks
+ * that every sample survives bit for bit, and reports the compression ratio,
+ * the encode and decode throughput and the replay throughput of each format.
+ * 
+ * With -synthetic, a plain trace of that many seconds of a device at rest and
+ * being moved about is written first and converted like the others, so the
+ * conversion can be checked without recordings from a device.
+ * 
+ * Usage: TraceCompressor [-block n] [-synthetic seconds trace-file]
+ * [trace-file...]
+ * 
+ * @author Kaleb
+ * @version 1.0
+ */
+public class TraceCompressor
+{
+	private static final String TRACE_EXTENSION = ".trace";
+
+	// The rates of the synthetic sensors, in nanoseconds between samples.
+	private static final long SYNTHETIC_ACCEL_PERIOD = 5000000;
+	private static final long SYNTHETIC_MAG_PERIOD = 20000000;
+
+	// The resolution of the synthetic sensors, like a 12-bit accelerometer
+	// at +/-2g and a magnetometer in 0.15 uT steps.
+	private static final float SYNTHETIC_ACCEL_STEP = 0.0096f;
+	private static final float SYNTHETIC_MAG_STEP = 0.15f;
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException
+	{
+		int blockSize = CompressedTrace.DEFAULT_BLOCK_SIZE;
+		int failed = 0;
+		int files = 0;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-block") && i + 1 < args.length)
+			{
+				blockSize = Integer.parseInt(args[++i]);
+				continue;
+			}
+
+			File input;
+
+			if (args[i].equals("-synthetic") && i + 2 < args.length)
+			{
+				int seconds = Integer.parseInt(args[++i]);
+				input = new File(args[++i]);
+
+				synthesize(input, seconds);
+			}
+			else
+			{
+				input = new File(args[i]);
+			}
+
+			String name = input.getPath();
+
+			if (name.endsWith(TRACE_EXTENSION))
+			{
+				name = name.substring(0, name.length()
+						- TRACE_EXTENSION.length());
+			}
+
+			File output = new File(name + CompressedTrace.EXTENSION);
+
+			try
+			{
+				if (!convert(input, output, blockSize))
+				{
+					failed++;
+				}
+			}
+			catch (IOException e)
+			{
+				System.err.println(input + ": " + e);
+				failed++;
+			}
+
+			files++;
+		}
+
+		if (files == 0)
+		{
+			System.err.println("Usage: TraceCompressor [-block n] [-synthetic seconds trace-file] [trace-file...]");
+			System.exit(2);
+		}
+
+		if (failed > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Write a plain trace of a device lying at rest, with a few seconds of
+	 * being moved about every half minute, quantized like a real sensor.
+	 */
+	private static void synthesize(File path, int seconds) throws IOException
+	{
+		Random random = new Random(42);
+
+		SensorTraceWriter writer = new SensorTraceWriter(path);
+
+		try
+		{
+			long end = seconds * 1000000000L;
+			long nextMag = 0;
+
+			for (long t = 0; t < end; t += SYNTHETIC_ACCEL_PERIOD)
+			{
+				// Moving for 3 seconds out of every 30.
+				double motion = ((t / 1000000000L) % 30 < 3) ? 2 : 0;
+
+				writer.write(t, SensorTrace.TYPE_ACCELEROMETER,
+						quantize(0.3 + noise(random, 0.02, motion),
+								SYNTHETIC_ACCEL_STEP),
+						quantize(0.1 + noise(random, 0.02, motion),
+								SYNTHETIC_ACCEL_STEP),
+						quantize(TiltCompensationEngine.GRAVITY_EARTH
+								+ noise(random, 0.02, motion),
+								SYNTHETIC_ACCEL_STEP));
+
+				if (t >= nextMag)
+				{
+					writer.write(t + 1000000, SensorTrace.TYPE_MAGNETIC_FIELD,
+							quantize(20 + noise(random, 0.3, motion),
+									SYNTHETIC_MAG_STEP),
+							quantize(-5 + noise(random, 0.3, motion),
+									SYNTHETIC_MAG_STEP),
+							quantize(-40 + noise(random, 0.3, motion),
+									SYNTHETIC_MAG_STEP));
+
+					nextMag += SYNTHETIC_MAG_PERIOD;
+				}
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		System.out.println(path + ": wrote " + writer.getRecordCount()
+				+ " synthetic records");
+	}
+
+	private static double noise(Random random, double sigma, double motion)
+	{
+		return random.nextGaussian() * (sigma + motion);
+	}
+
+	private static float quantize(double value, float step)
+	{
+		return Math.round(value / step) * step;
+	}
+
+	/**
+	 * Convert a trace, check it and print the report.
+	 * 
+	 * @return false if the compressed trace does not match the original.
+	 */
+	private static boolean convert(File input, File output, int blockSize)
+			throws IOException, InterruptedException
+	{
+		long start = System.nanoTime();
+
+		SensorTraceReader reader = new SensorTraceReader(input);
+		CompressedTraceWriter writer = new CompressedTraceWriter(output,
+				blockSize);
+
+		// Converting can wait for the disk, and must not drop blocks.
+		writer.setBlocking(true);
+
+		try
+		{
+			while (reader.next())
+			{
+				writer.write(reader.getTimestamp(), reader.getType(),
+						reader.getX(), reader.getY(), reader.getZ());
+			}
+		}
+		finally
+		{
+			reader.close();
+			writer.close();
+		}
+
+		long encodeNs = System.nanoTime() - start;
+		long records = writer.getRecordCount();
+
+		long mismatches = verify(input, output);
+
+		start = System.nanoTime();
+		long decoded = decode(output);
+		long decodeNs = System.nanoTime() - start;
+
+		long rawNs = replay(input);
+		long compressedNs = replay(output);
+
+		double ratio = (double) input.length() / output.length();
+
+		System.out.println(String.format(
+				"%s: %d records, %d -> %d bytes, ratio %.2f, %.2f bytes/record",
+				input, records, input.length(), output.length(), ratio,
+				(double) output.length() / Math.max(1, records)));
+		System.out.println(String.format(
+				"  encode %.0f records/s, decode %.0f records/s, replay %.0f"
+						+ " records/s plain and %.0f compressed", records
+						* 1e9 / encodeNs, decoded * 1e9 / decodeNs, records
+						* 1e9 / rawNs, records * 1e9 / compressedNs));
+
+		if (mismatches > 0)
+		{
+			System.out.println("  FAILED: " + mismatches
+					+ " records differ from the original");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compare the samples of each sensor in the two traces bit for bit.
+	 * 
+	 * @return the number of records that differ or are missing.
+	 */
+	private static long verify(File input, File output) throws IOException
+	{
+		long mismatches = 0;
+
+		int[] types =
+		{ SensorTrace.TYPE_ACCELEROMETER, SensorTrace.TYPE_MAGNETIC_FIELD };
+
+		for (int type : types)
+		{
+			SensorTraceReader reader = new SensorTraceReader(input);
+			CompressedTraceReader compressed = new CompressedTraceReader(output);
+
+			CompressedTrace.Block block = new CompressedTrace.Block(
+					compressed.getBlockSize());
+
+			int i = 0;
+
+			try
+			{
+				while (reader.next())
+				{
+					if (reader.getType() != type)
+					{
+						continue;
+					}
+
+					if (i == block.getCount())
+					{
+						if (!compressed.nextBlock(type, block))
+						{
+							mismatches++;
+							continue;
+						}
+
+						i = 0;
+					}
+
+					if (reader.getTimestamp() != block.getTimestamps()[i]
+							|| !same(reader.getX(), block.getX()[i])
+							|| !same(reader.getY(), block.getY()[i])
+							|| !same(reader.getZ(), block.getZ()[i]))
+					{
+						mismatches++;
+					}
+
+					i++;
+				}
+			}
+			finally
+			{
+				reader.close();
+				compressed.close();
+			}
+		}
+
+		return mismatches;
+	}
+
+	private static boolean same(float a, float b)
+	{
+		return Float.floatToRawIntBits(a) == Float.floatToRawIntBits(b);
+	}
+
+	/**
+	 * Decode every block of a compressed trace.
+	 * 
+	 * @return the number of records decoded.
+	 */
+	private static long decode(File path) throws IOException
+	{
+		CompressedTraceReader reader = new CompressedTraceReader(path);
+
+		CompressedTrace.Block block = new CompressedTrace.Block(
+				reader.getBlockSize());
+
+		long records = 0;
+
+		try
+		{
+			for (int i = 0; i < reader.getBlockCount(); i++)
+			{
+				reader.readBlock(i, block);
+				records += block.getCount();
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return records;
+	}
+
+	/**
+	 * Replay a trace through a new engine.
+	 * 
+	 * @return the time taken in nanoseconds.
+	 */
+	private static long replay(File path) throws IOException,
+			InterruptedException
+	{
+		long start = System.nanoTime();
+
+		new SensorTraceReplayer(new TiltCompensationEngine()).replay(path);
+
+		return System.nanoTime() - start;
+	}
+}